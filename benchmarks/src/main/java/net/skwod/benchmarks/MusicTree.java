@@ -0,0 +1,157 @@
+package net.skwod.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic music directories for the benchmarks: A tree of the given width and depth, whose leaves
+ * contain the music files (empty files with music extensions, plus a cover and a playlist file each).
+ * Names consist of a running number and some words, like "Artist 0042 Velvet Harbour/Album 0003 Paper
+ * Lanterns/0017 Quiet Engines.mp3", so every name can be identified by a substring.
+ *
+ * The trees are created below the directory named by the environment variable RMC_BENCH_DIR, by default
+ * /dev/shm (a tmpfs on most Linux systems) or the temporary directory, and are reused by later runs.
+ * Note that a million files need a few GB of memory on a tmpfs.
+ *
+ * @author Maxmanski
+ */
+public final class MusicTree {
+
+	private static final String[] LEVELS = {"Artist", "Album", "Disc", "Part"};
+	private static final String[] EXTENSIONS = {".mp3", ".mp3", ".mp3", ".flac", ".ogg", ".m4a"};
+	private static final String[] ALL_WORDS = {
+			"Velvet", "Harbour", "Paper", "Lanterns", "Quiet", "Engines", "Golden", "Static", "Northern", "Lights",
+			"Broken", "Radio", "Silver", "Machine", "Electric", "Garden", "Hollow", "Crown", "Midnight", "Ocean",
+			"Glass", "Animals", "Neon", "River", "Iron", "Choir", "Wild", "Horses", "Black", "Mirror", "Summer",
+			"Rain", "Distant", "Thunder", "Little", "Dragon", "Stone", "Temple", "Crystal", "Castle", "Über",
+			"Café", "Naïve", "Señor", "Ångström"};
+
+	/** The words which can be used in file names; with a non-Unicode locale, Java cannot create all of them */
+	private static final String[] WORDS = usableWords();
+
+	private MusicTree() {}
+
+	/**
+	 * Returns the root of a tree with (about) the specified number of music files, creating it if necessary.
+	 *
+	 * @param files the number of music files
+	 * @param width the number of subdirectories of every directory above the leaves
+	 * @param depth the number of directory levels below the root
+	 * @return the root of the tree
+	 * @throws IOException if the tree could not be created
+	 */
+	public static File get(int files, int width, int depth) throws IOException {
+		Path root = getBaseDir().resolve("rmc-tree-" + files + "-" + width + "-" + depth);
+		Path complete = root.resolve(".complete");
+		if(Files.exists(complete)){
+			return root.toFile();
+		}
+
+		long start = System.currentTimeMillis();
+		int leaves = 1;
+		for(int i=0; i<depth; i++){
+			leaves *= width;
+		}
+		int perLeaf = Math.max(1, (files + leaves - 1) / leaves);
+		int[] remaining = {files};
+		create(root, 0, width, depth, perLeaf, remaining, new Random(files * 31L + width * 7L + depth));
+		Files.createFile(complete);
+		System.out.println("Created " + files + " files in " + root + " in " + (System.currentTimeMillis() - start) + " ms");
+		return root.toFile();
+	}
+
+	/**
+	 * Returns the directory below which the trees are created.
+	 *
+	 * @return the directory
+	 */
+	private static Path getBaseDir(){
+		String configured = System.getenv("RMC_BENCH_DIR");
+		if((configured != null) && !configured.isEmpty()){
+			return Paths.get(configured);
+		}
+		File shm = new File("/dev/shm");
+		if(shm.isDirectory() && shm.canWrite()){
+			return shm.toPath();
+		}
+		return Paths.get(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * Creates a directory of the tree and everything below it.
+	 *
+	 * @param dir the directory
+	 * @param level the level of the directory, 0 for the root
+	 * @param width the number of subdirectories
+	 * @param depth the number of levels below the root
+	 * @param perLeaf the number of music files per leaf
+	 * @param remaining the number of music files which are still to be created (updated)
+	 * @param random the source of the words
+	 * @throws IOException if a file could not be created
+	 */
+	private static void create(Path dir, int level, int width, int depth, int perLeaf, int[] remaining, Random random)
+			throws IOException {
+
+		Files.createDirectories(dir);
+		if(level == depth){
+			int count = Math.min(perLeaf, remaining[0]);
+			for(int i=0; i<count; i++){
+				String name = String.format("%04d %s%s", i + 1, words(random), EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+				Files.createFile(dir.resolve(name));
+			}
+			remaining[0] -= count;
+			Files.createFile(dir.resolve("cover.jpg"));
+			Files.createFile(dir.resolve("playlist.m3u"));
+			return;
+		}
+
+		String prefix = LEVELS[Math.min(level, LEVELS.length - 1)];
+		for(int i=0; (i < width) && (remaining[0] > 0); i++){
+			String name = String.format("%s %04d %s", prefix, i + 1, words(random));
+			create(dir.resolve(name), level + 1, width, depth, perLeaf, remaining, random);
+		}
+	}
+
+	/**
+	 * Returns the words which can be encoded in file names.
+	 *
+	 * @return the words
+	 */
+	private static String[] usableWords(){
+		String encoding = System.getProperty("sun.jnu.encoding");
+		if((encoding == null) || !Charset.isSupported(encoding)){
+			return ALL_WORDS;
+		}
+		CharsetEncoder encoder = Charset.forName(encoding).newEncoder();
+		List<String> words = new ArrayList<>();
+		for(String word: ALL_WORDS){
+			if(encoder.canEncode(word)){
+				words.add(word);
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Picks one to three random words.
+	 *
+	 * @param random the source of the words
+	 * @return the words, separated by blanks
+	 */
+	private static String words(Random random){
+		StringBuilder builder = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+		int count = random.nextInt(3);
+		for(int i=0; i<count; i++){
+			builder.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,133 @@
+package net.skwod.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.skwod.command.Request;
+import net.skwod.library.Directory;
+import net.skwod.library.Entry;
+import net.skwod.library.Library;
+
+/**
+ * Resolves songs against a scanned Library the way PLAY and ADD do: The path is split into its parts, every
+ * directory is found by its exact name or a unique substring, and so is the file.
+ *
+ * @author Maxmanski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ResolveBenchmark {
+
+	private static final int QUERIES = 1024;
+
+	@Param({"1000", "100000", "1000000"})
+	public int files;
+
+	@Param({"10"})
+	public int width;
+
+	@Param({"3"})
+	public int depth;
+
+	private Library library;
+	private String[] exact;
+	private String[] substrings;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		library = new Library(MusicTree.get(files, width, depth));
+		library.scan();
+
+		List<Entry> songs = new ArrayList<>();
+		collect(library.getRoot(), songs);
+		Collections.shuffle(songs, new Random(42));
+
+		exact = new String[QUERIES];
+		substrings = new String[QUERIES];
+		for(int i=0; i<QUERIES; i++){
+			Entry song = songs.get(i % songs.size());
+			exact[i] = song.getPath();
+			substrings[i] = substringPath(song);
+		}
+		next = 0;
+	}
+
+	@Benchmark
+	public Entry exactNames(){
+		return resolve(exact[next++ & (QUERIES - 1)]);
+	}
+
+	@Benchmark
+	public Entry uniqueSubstrings(){
+		return resolve(substrings[next++ & (QUERIES - 1)]);
+	}
+
+	/**
+	 * Resolves a song like SongsCommand does.
+	 *
+	 * @param param the path of the song
+	 * @return the song, or NULL if it could not be resolved
+	 */
+	private Entry resolve(String param){
+		String[] parts = Request.splitPath(Request.unquote(param));
+		String[] dirParts = new String[parts.length - 1];
+		System.arraycopy(parts, 0, dirParts, 0, dirParts.length);
+		Directory dir = library.findDirectory(dirParts);
+		return (dir == null) ? null : library.findFile(dir, parts[parts.length - 1]);
+	}
+
+	/**
+	 * Builds a path which identifies the song by substrings of its parts only: the names without their first
+	 * word (for directories) or their extension (for files).
+	 *
+	 * @param song the song
+	 * @return the path
+	 */
+	private String substringPath(Entry song){
+		String name = song.getName();
+		String path = name.substring(0, name.lastIndexOf('.'));
+		for(Directory dir = song.getParent(); (dir != null) && (dir.getParent() != null); dir = dir.getParent()){
+			String dirName = dir.getName();
+			path = dirName.substring(dirName.indexOf(' ') + 1) + "/" + path;
+		}
+		return path;
+	}
+
+	/**
+	 * Collects the music files below the directory.
+	 *
+	 * @param dir the directory
+	 * @param songs the list to add the music files to
+	 */
+	private static void collect(Directory dir, List<Entry> songs){
+		for(Entry entry: dir.getListing().getEntries()){
+			if(entry.isDirectory()){
+				collect((Directory) entry, songs);
+			}else if(entry.isMusic()){
+				songs.add(entry);
+			}
+		}
+	}
+}
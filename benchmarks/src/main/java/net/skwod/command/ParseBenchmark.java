@@ -0,0 +1,71 @@
+package net.skwod.command;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses received lines the way a Session and the Commands do: The Request is split into its tag, verb and
+ * arguments, its Command is looked up, and every argument is checked for "..", unquoted and split into its
+ * path parts. The helpers are also measured on their own.
+ *
+ * @author Maxmanski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+	private static final String[] LINES = {
+			"PLAY \"Artist 0042 Velvet Harbour/Album 0003 Paper Lanterns/0017 Quiet Engines.mp3\";0043 neon/0001/0002 glass",
+			"@17 LIST artist 0042/album 0003 OFFSET 100 LIMIT 50",
+			"ADD 'Artist 0007 Broken Radio/Album 0001 Iron Choir/0001 Wild Horses.flac'",
+			"SEARCH velvet harbour OFFSET 0 LIMIT 20",
+			"NEXT",
+			"@a9 PLAYLIST SINCE 1234"};
+
+	private static final String SONG = "\"Artist 0042 Velvet Harbour/Album 0003 Paper Lanterns/0017 Quiet Engines.mp3\"";
+
+	private final CommandRegistry registry = CommandRegistry.getInstance();
+	private int next = 0;
+
+	@Benchmark
+	public void parseLine(Blackhole blackhole){
+		Request request = new Request(LINES[next]);
+		next = (next + 1) % LINES.length;
+		blackhole.consume(registry.get(request));
+		if(request.hasArguments()){
+			for(String argument: request.getArgumentList()){
+				blackhole.consume(Request.containsDirUp(argument));
+				blackhole.consume(Request.splitPath(Request.unquote(argument.trim())));
+			}
+		}
+	}
+
+	@Benchmark
+	public String unquote(){
+		return Request.unquote(SONG);
+	}
+
+	@Benchmark
+	public boolean containsDirUp(){
+		return Request.containsDirUp(SONG);
+	}
+
+	@Benchmark
+	public String[] splitPath(){
+		return Request.splitPath(SONG);
+	}
+}
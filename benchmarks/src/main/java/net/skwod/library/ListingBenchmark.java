@@ -0,0 +1,95 @@
+package net.skwod.library;
+
+import java.io.IOException;
+import java.text.Collator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.skwod.benchmarks.MusicTree;
+
+/**
+ * Lists the largest directory of a scanned Library like LIST does: Either by sorting its Listing into a new
+ * ListingView (what happens whenever the directory has changed or has been evicted from the ListingCache), or
+ * by taking the cached view and reading a page of it.
+ * It lives in the Library's package, since ListingViews are only created by the ListingCache otherwise.
+ *
+ * @author Maxmanski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ListingBenchmark {
+
+	private static final int PAGE_SIZE = 100;
+
+	@Param({"1000", "100000", "1000000"})
+	public int files;
+
+	@Param({"10"})
+	public int width;
+
+	@Param({"3"})
+	public int depth;
+
+	private Library library;
+	private Directory largest;
+	private Collator collator;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		library = new Library(MusicTree.get(files, width, depth));
+		library.scan();
+		largest = findLargest(library.getRoot(), library.getRoot());
+		collator = Collator.getInstance();
+		collator.setStrength(Collator.SECONDARY);
+	}
+
+	@Benchmark
+	public ListingView sort(){
+		return new ListingView(largest.getListing(), collator);
+	}
+
+	@Benchmark
+	public void cachedPage(Blackhole blackhole){
+		ListingView view = library.getView(largest);
+		int end = Math.min(view.size(), PAGE_SIZE);
+		for(int i=0; i<end; i++){
+			blackhole.consume(view.get(i).getName());
+		}
+	}
+
+	/**
+	 * Finds the directory with the most entries.
+	 *
+	 * @param dir the directory to start with
+	 * @param largest the largest directory found so far
+	 * @return the largest directory
+	 */
+	private static Directory findLargest(Directory dir, Directory largest){
+		if(dir.getListing().getEntries().size() > largest.getListing().getEntries().size()){
+			largest = dir;
+		}
+		for(Entry entry: dir.getListing().getEntries()){
+			if(entry.isDirectory()){
+				largest = findLargest((Directory) entry, largest);
+			}
+		}
+		return largest;
+	}
+}
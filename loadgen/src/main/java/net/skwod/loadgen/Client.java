@@ -0,0 +1,185 @@
+package net.skwod.loadgen;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A simulated user: It sends batches of commands from the Workload, waits for all of their replies, thinks for a
+ * while and starts over, until it is stopped.
+ *
+ * The commands of a batch are sent in a single write (pipelining) and tagged, so that every reply can be matched
+ * to its command; the latency of a command is the time from sending its batch until the last line of its reply.
+ * If a reply takes too long or the connection is lost, the commands still waiting for a reply are counted as
+ * timeouts, and the client connects again. If the server terminates the session (e.g. because the client has
+ * been thinking for longer than the server's timeout), the client connects again as well, but the commands are
+ * only counted as an expired session, since the server has not accepted them in the first place.
+ *
+ * @author Maxmanski
+ */
+class Client implements Runnable {
+
+	private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+	private final String host;
+	private final int port;
+	private final Workload workload;
+	private final Recorder recorder;
+	private final Random random;
+	private final int depth;
+	private final long thinkMillis;
+	private final int replyTimeoutMillis;
+	private volatile boolean running;
+	private long nextTag;
+
+	/**
+	 * Creates a new Client, which has not yet connected.
+	 *
+	 * @param host the host of the server
+	 * @param port the port of the server
+	 * @param workload the commands to send
+	 * @param recorder the Recorder of the outcomes
+	 * @param random the source of the Client's choices
+	 * @param depth the number of commands per batch (1 meaning no pipelining)
+	 * @param thinkMillis the mean time to wait between batches (exponentially distributed), 0 meaning no waiting
+	 * @param replyTimeoutMillis the time to wait for a reply, 0 meaning forever
+	 */
+	public Client(String host, int port, Workload workload, Recorder recorder, Random random, int depth, long thinkMillis,
+			int replyTimeoutMillis) {
+		this.host = host;
+		this.port = port;
+		this.workload = workload;
+		this.recorder = recorder;
+		this.random = random;
+		this.depth = depth;
+		this.thinkMillis = thinkMillis;
+		this.replyTimeoutMillis = replyTimeoutMillis;
+		this.running = false;
+		this.nextTag = 0;
+	}
+
+	/**
+	 * Connects and sends commands (connecting again whenever the connection is lost) until the Client is stopped.
+	 */
+	@Override
+	public void run() {
+		running = true;
+		while(running){
+			Connection connection = null;
+			try {
+				connection = new Connection(host, port, replyTimeoutMillis);
+			} catch (IOException e) {
+				recorder.connectError();
+				if(!pause(RECONNECT_DELAY_MILLIS)){
+					return;
+				}
+				continue;
+			}
+
+			recorder.opened();
+			try {
+				while(running && serveBatch(connection)){
+					if((thinkMillis > 0) && !pause(thinkTime())){
+						return;
+					}
+				}
+			} finally {
+				connection.close();
+				recorder.closed();
+			}
+		}
+	}
+
+	/**
+	 * Makes the Client stop after its current batch.
+	 */
+	public void stop(){
+		running = false;
+	}
+
+	/**
+	 * Sends a batch of commands and reads their replies.
+	 *
+	 * @param connection the connection to the server
+	 * @return TRUE if the connection can be used for the next batch
+	 */
+	private boolean serveBatch(Connection connection){
+		Workload.Verb[] verbs = new Workload.Verb[depth];
+		long firstTag = nextTag;
+		StringBuilder lines = new StringBuilder();
+		for(int i=0; i<depth; i++){
+			verbs[i] = workload.nextVerb(random);
+			lines.append('@').append(nextTag++).append(' ').append(workload.command(verbs[i], random)).append('\n');
+		}
+
+		int outstanding = depth;
+		boolean expired = false;
+		try {
+			long start = System.nanoTime();
+			connection.send(lines.toString());
+
+			String line;
+			while((outstanding > 0) && ((line = connection.readLine()) != null)){
+				if(!line.startsWith("@")){
+					// untagged lines: the server terminating the session, or events
+					if(Connection.isReplyEnd(line)){
+						recorder.expired();
+						expired = true;
+						break;
+					}
+					continue;
+				}
+
+				int space = line.indexOf(' ');
+				if((space < 0) || !Connection.isReplyEnd(line.substring(space + 1))){
+					continue;
+				}
+				long index;
+				try {
+					index = Long.parseLong(line.substring(1, space)) - firstTag;
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if((index >= 0) && (index < depth)){
+					recorder.reply(verbs[(int) index], System.nanoTime() - start, line.startsWith("ACK", space + 1));
+					outstanding--;
+				}
+			}
+
+		} catch (IOException e) {
+			// includes the reply timeout
+		}
+
+		if(outstanding > 0){
+			if(!expired){
+				recorder.timeouts(outstanding);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Picks the time to think before the next batch, exponentially distributed like the times between the
+	 * actions of independent users.
+	 *
+	 * @return the time in milliseconds
+	 */
+	private long thinkTime(){
+		return (long) (-thinkMillis * Math.log(1.0 - random.nextDouble()));
+	}
+
+	/**
+	 * Waits for the specified time, unless the Client is stopped meanwhile.
+	 *
+	 * @param millis the time to wait
+	 * @return TRUE if the Client is still running
+	 */
+	private boolean pause(long millis){
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			running = false;
+		}
+		return running;
+	}
+}
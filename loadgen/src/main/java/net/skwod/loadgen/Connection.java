@@ -0,0 +1,113 @@
+package net.skwod.loadgen;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection to the server, speaking its line protocol: After the greeting, every command is answered by
+ * any number of lines, the last of which starts with "ACK" or "NACK". If the command was tagged ("@tag "), every
+ * line of its reply starts with the tag as well.
+ *
+ * @author Maxmanski
+ */
+class Connection implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Socket socket;
+	private final BufferedReader reader;
+	private final OutputStream out;
+
+	/**
+	 * Connects to the server and reads its greeting.
+	 *
+	 * @param host the host of the server
+	 * @param port the port of the server
+	 * @param timeoutMillis the time to wait for the connection and for every line, 0 meaning forever
+	 * @throws IOException if the connection failed or the server did not greet
+	 */
+	public Connection(String host, int port, int timeoutMillis) throws IOException {
+		this.socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+			socket.setTcpNoDelay(true);
+			this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+			this.out = socket.getOutputStream();
+
+			String greeting = reader.readLine();
+			if((greeting == null) || !isReplyEnd(greeting)){
+				throw new IOException("Unexpected greeting: " + greeting);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the lines at once.
+	 *
+	 * @param lines the lines, each with its line terminator
+	 * @throws IOException if the connection failed
+	 */
+	public void send(String lines) throws IOException {
+		out.write(lines.getBytes(UTF8));
+		out.flush();
+	}
+
+	/**
+	 * Reads the next line.
+	 *
+	 * @return the line, or NULL if the server has closed the connection
+	 * @throws IOException if the connection failed or the timeout expired
+	 */
+	public String readLine() throws IOException {
+		return reader.readLine();
+	}
+
+	/**
+	 * Sends an untagged command and reads its whole reply.
+	 *
+	 * @param command the command
+	 * @return the lines of the reply, the last one being the ACK or NACK
+	 * @throws IOException if the connection failed or was closed before the reply was complete
+	 */
+	public List<String> request(String command) throws IOException {
+		send(command + "\n");
+		List<String> reply = new ArrayList<>();
+		String line;
+		while((line = reader.readLine()) != null){
+			reply.add(line);
+			if(isReplyEnd(line)){
+				return reply;
+			}
+		}
+		throw new IOException("Connection closed during the reply to " + command);
+	}
+
+	/**
+	 * Checks whether a line (without its tag) is the last line of a reply.
+	 *
+	 * @param line the line
+	 * @return TRUE if it starts with "ACK" or "NACK"
+	 */
+	public static boolean isReplyEnd(String line){
+		return line.startsWith("ACK") || line.startsWith("NACK");
+	}
+
+	@Override
+	public void close(){
+		try {
+			socket.close();
+		} catch (IOException e) {}
+	}
+}
@@ -0,0 +1,300 @@
+package net.skwod.loadgen;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.skwod.stats.Histogram;
+
+/**
+ * A load generator for soak tests against a running server:
+ * A number of concurrent Clients send a weighted mix of commands, and the throughput, the latency percentiles,
+ * the rates of NACKs and timeouts and the memory usage of the server process are reported in regular intervals,
+ * and summarised at the end (or when the load generator is interrupted).
+ *
+ * The options are given as "name=value" arguments:
+ * - host, port: the server (default: localhost, 2000)
+ * - clients: the number of concurrent sessions (default: 10)
+ * - duration: the length of the run in seconds, 0 meaning until interrupted (default: 60)
+ * - interval: the reporting interval in seconds (default: 10)
+ * - mix: the weights of the commands (default: play:1,add:4,list:10,playlist:10,next:2)
+ * - think: the mean time in milliseconds a Client waits between its batches of commands (default: 1000)
+ * - pipeline: the number of commands a Client sends at once (default: 1)
+ * - replyTimeout: the time in seconds to wait for a reply before giving up on the connection (default: 10)
+ * - rampUp: the time in seconds over which the Clients are started (default: 0)
+ * - crawl: the maximum number of directories to LIST for finding songs (default: 1000)
+ * - pid: the PID of the server process, found via its port by default
+ * - seed: the seed of the Clients' choices, random by default
+ * - csv: a file to which every interval is written as a line of CSV
+ *
+ * @author Maxmanski
+ */
+public class LoadGenerator {
+
+	private static final double[] PERCENTILES = {50, 99, 99.9};
+	private static final String CSV_HEADER = "elapsed_s,commands,throughput,p50_ms,p99_ms,p999_ms,max_ms,acks,nacks,timeouts,"
+			+ "expired,connect_errors,sessions,rss_kib";
+
+	private final Recorder recorder;
+	private final ServerProcess server;
+	private final PrintWriter csv;
+	private final long start;
+
+	/**
+	 * Creates a new LoadGenerator.
+	 *
+	 * @param server the process of the server, or NULL if its memory usage is not known
+	 * @param csv the writer for the intervals as CSV, or NULL
+	 */
+	public LoadGenerator(ServerProcess server, PrintWriter csv) {
+		this.recorder = new Recorder();
+		this.server = server;
+		this.csv = csv;
+		this.start = System.nanoTime();
+		if(csv != null){
+			csv.println(CSV_HEADER);
+			csv.flush();
+		}
+	}
+
+	public static void main(String[] args){
+		Properties options = new Properties();
+		for(String arg: args){
+			int equals = arg.indexOf('=');
+			if(equals <= 0){
+				System.err.println("Options must be given as name=value: " + arg);
+				System.exit(2);
+			}
+			options.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+
+		try {
+			run(options);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		} catch (IOException e) {
+			System.err.println("Could not reach the server: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Prepares the Workload, runs the Clients for the specified duration and reports their results.
+	 *
+	 * @param options the options
+	 * @throws IOException if the server could not be reached for preparing the Workload
+	 */
+	private static void run(Properties options) throws IOException {
+		String host = options.getProperty("host", "localhost");
+		int port = intOption(options, "port", 2000, 1);
+		int clients = intOption(options, "clients", 10, 1);
+		long duration = intOption(options, "duration", 60, 0);
+		long interval = intOption(options, "interval", 10, 1);
+		String mix = options.getProperty("mix", "play:1,add:4,list:10,playlist:10,next:2");
+		long think = intOption(options, "think", 1000, 0);
+		int pipeline = intOption(options, "pipeline", 1, 1);
+		int replyTimeout = intOption(options, "replyTimeout", 10, 0);
+		long rampUp = intOption(options, "rampUp", 0, 0);
+		int crawl = intOption(options, "crawl", 1000, 1);
+		Random seeds = options.containsKey("seed") ? new Random(intOption(options, "seed", 0, Integer.MIN_VALUE)) : new Random();
+
+		List<String> songs = new ArrayList<>();
+		List<String> directories = new ArrayList<>();
+		Connection connection = new Connection(host, port, replyTimeout * 1000);
+		try {
+			Workload.crawl(connection, crawl, 1000, songs, directories);
+		} finally {
+			connection.close();
+		}
+		Workload workload = new Workload(mix, songs, directories);
+
+		ServerProcess server = options.containsKey("pid") ? new ServerProcess(intOption(options, "pid", 0, 1)) : ServerProcess.find(port);
+		PrintWriter csv = null;
+		if(options.containsKey("csv")){
+			csv = new PrintWriter(new FileWriter(options.getProperty("csv")));
+		}
+
+		System.out.println("Load on " + host + ":" + port + ": " + clients + " clients, " + workload + ", think time "
+				+ think + " ms, pipeline depth " + pipeline);
+		System.out.println((server != null) ? ("Server process: " + server.getPid()) : "Server process not found, its memory usage is not reported");
+
+		final LoadGenerator generator = new LoadGenerator(server, csv);
+		final List<Client> started = new ArrayList<>();
+		final List<Thread> threads = new ArrayList<>();
+		final AtomicBoolean finished = new AtomicBoolean(false);
+		Thread summary = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				if(finished.compareAndSet(false, true)){
+					generator.summarise();
+				}
+			}
+		}, "loadgen-summary");
+		Runtime.getRuntime().addShutdownHook(summary);
+
+		long end = (duration > 0) ? (generator.start + TimeUnit.SECONDS.toNanos(duration)) : Long.MAX_VALUE;
+		long nextReport = generator.start + TimeUnit.SECONDS.toNanos(interval);
+		try {
+			for(int i=0; i<clients; i++){
+				Client client = new Client(host, port, workload, generator.recorder, new Random(seeds.nextLong()), pipeline,
+						think, replyTimeout * 1000);
+				Thread thread = new Thread(client, "loadgen-client-" + i);
+				thread.setDaemon(true);
+				started.add(client);
+				threads.add(thread);
+				thread.start();
+				if(rampUp > 0){
+					Thread.sleep(TimeUnit.SECONDS.toMillis(rampUp) / clients);
+				}
+				if(System.nanoTime() >= nextReport){
+					generator.report();
+					nextReport += TimeUnit.SECONDS.toNanos(interval);
+				}
+			}
+
+			while(true){
+				long now = System.nanoTime();
+				if(now >= end){
+					break;
+				}
+				long wait = Math.min(nextReport, end) - now;
+				TimeUnit.NANOSECONDS.sleep(wait);
+				if(System.nanoTime() >= nextReport){
+					generator.report();
+					nextReport += TimeUnit.SECONDS.toNanos(interval);
+				}
+			}
+		} catch (InterruptedException e) {}
+
+		for(Client client: started){
+			client.stop();
+		}
+		for(Thread thread: threads){
+			thread.interrupt();
+		}
+		for(Thread thread: threads){
+			try {
+				thread.join(Math.max(1000, replyTimeout * 1000L));
+			} catch (InterruptedException e) {}
+		}
+		if(finished.compareAndSet(false, true)){
+			Runtime.getRuntime().removeShutdownHook(summary);
+			if((System.nanoTime() - (nextReport - TimeUnit.SECONDS.toNanos(interval))) >= TimeUnit.SECONDS.toNanos(1)){
+				// the rest of the last interval, unless it is too short to tell anything
+				generator.report();
+			}
+			generator.summarise();
+		}
+		if(csv != null){
+			csv.close();
+		}
+	}
+
+	/**
+	 * Reports the interval which has just ended, on a single line and, if requested, as CSV.
+	 */
+	private void report(){
+		Recorder.Window window = recorder.nextInterval();
+		long now = System.nanoTime();
+		long elapsed = TimeUnit.NANOSECONDS.toSeconds(now - start);
+		double seconds = Math.max(1, now - window.getStart()) / 1e9;
+		long commands = window.getCommands();
+		long[] latencies = window.getLatency().getPercentiles(PERCENTILES);
+		long max = window.getLatency().getMax();
+		long rss = (server != null) ? server.getRssKiB() : -1;
+
+		System.out.println(String.format(Locale.ROOT, "%6d s %10.1f cmd/s   p50 %s p99 %s p999 %s max %s ms   nack %s timeout %s   "
+				+ "expired %d connect errors %d sessions %d   rss %s", elapsed, commands / seconds, millis(latencies[0]),
+				millis(latencies[1]), millis(latencies[2]), millis(max), percent(window.getNacks(), commands),
+				percent(window.getTimeouts(), commands), window.getExpired(), window.getConnectErrors(), recorder.getSessions(),
+				(rss < 0) ? "-" : String.format(Locale.ROOT, "%.1f MiB", rss / 1024.0)));
+
+		if(csv != null){
+			csv.println(String.format(Locale.ROOT, "%d,%d,%.1f,%s,%s,%s,%s,%d,%d,%d,%d,%d,%d,%d", elapsed, commands, commands / seconds,
+					millis(latencies[0]), millis(latencies[1]), millis(latencies[2]), millis(max), window.getAcks(), window.getNacks(),
+					window.getTimeouts(), window.getExpired(), window.getConnectErrors(), recorder.getSessions(), rss));
+			csv.flush();
+		}
+	}
+
+	/**
+	 * Reports the results of the whole run: the totals and the latencies of every Verb.
+	 */
+	private void summarise(){
+		Recorder.Window total = recorder.getTotal();
+		double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+		long commands = total.getCommands();
+
+		System.out.println(String.format(Locale.ROOT, "Total: %d commands in %.0f s (%.1f cmd/s), %d ACK, %d NACK (%s), %d timeouts (%s), "
+				+ "%d sessions expired, %d connect errors", commands, seconds, commands / seconds, total.getAcks(), total.getNacks(),
+				percent(total.getNacks(), commands), total.getTimeouts(), percent(total.getTimeouts(), commands), total.getExpired(),
+				total.getConnectErrors()));
+		for(Workload.Verb verb: Workload.Verb.values()){
+			Histogram latency = recorder.getLatency(verb);
+			if(latency.getCount() == 0){
+				continue;
+			}
+			long[] latencies = latency.getPercentiles(PERCENTILES);
+			System.out.println(String.format(Locale.ROOT, "%-8s %10d replies   p50 %s p99 %s p999 %s max %s ms", verb.name(),
+					latency.getCount(), millis(latencies[0]), millis(latencies[1]), millis(latencies[2]), millis(latency.getMax())));
+		}
+		if(server != null){
+			long rss = server.getRssKiB();
+			System.out.println("Server RSS: " + ((rss < 0) ? "-" : String.format(Locale.ROOT, "%.1f MiB", rss / 1024.0)));
+		}
+	}
+
+	/**
+	 * Parses an option which has to be a number.
+	 *
+	 * @param options the options
+	 * @param name the name of the option
+	 * @param defaultValue the value to use if the option is not given
+	 * @param min the smallest valid value
+	 * @return the value
+	 * @throws IllegalArgumentException if the value is not a valid number
+	 */
+	private static int intOption(Properties options, String name, int defaultValue, int min){
+		String value = options.getProperty(name);
+		if(value == null){
+			return defaultValue;
+		}
+		try {
+			int number = Integer.parseInt(value.trim());
+			if(number >= min){
+				return number;
+			}
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+	}
+
+	/**
+	 * Formats a latency in milliseconds.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 * @return the formatted latency
+	 */
+	private static String millis(long nanos){
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	/**
+	 * Formats a share of the commands as a percentage.
+	 *
+	 * @param count the number of commands
+	 * @param total the total number of commands
+	 * @return the formatted percentage
+	 */
+	private static String percent(long count, long total){
+		return String.format(Locale.ROOT, "%.2f%%", (total == 0) ? 0.0 : ((100.0 * count) / total));
+	}
+}
@@ -0,0 +1,239 @@
+package net.skwod.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.skwod.stats.Histogram;
+
+/**
+ * Records the outcome of every command the clients send, both for the whole run and for the current reporting
+ * interval. Like the server's Stats, recording never takes a lock.
+ *
+ * @author Maxmanski
+ */
+class Recorder {
+
+	/**
+	 * The outcomes of the commands during a period of time.
+	 *
+	 * @author Maxmanski
+	 */
+	public static final class Window {
+
+		private final long start;
+		private final Histogram latency;
+		private final LongAdder acks;
+		private final LongAdder nacks;
+		private final LongAdder timeouts;
+		private final LongAdder expired;
+		private final LongAdder connectErrors;
+
+		Window(long start) {
+			this.start = start;
+			this.latency = new Histogram();
+			this.acks = new LongAdder();
+			this.nacks = new LongAdder();
+			this.timeouts = new LongAdder();
+			this.expired = new LongAdder();
+			this.connectErrors = new LongAdder();
+		}
+
+		/**
+		 * Returns when the Window has started.
+		 *
+		 * @return the time, from System.nanoTime()
+		 */
+		public long getStart(){
+			return start;
+		}
+
+		/**
+		 * Returns the latencies of the commands which have been answered, in nanoseconds.
+		 *
+		 * @return the Histogram
+		 */
+		public Histogram getLatency(){
+			return latency;
+		}
+
+		/**
+		 * Returns the number of commands which have been answered with an ACK.
+		 *
+		 * @return the number of ACKs
+		 */
+		public long getAcks(){
+			return acks.sum();
+		}
+
+		/**
+		 * Returns the number of commands which have been answered with a NACK, e.g. because the Player failed.
+		 *
+		 * @return the number of NACKs
+		 */
+		public long getNacks(){
+			return nacks.sum();
+		}
+
+		/**
+		 * Returns the number of commands which have not been answered in time, or not at all because the
+		 * connection was lost.
+		 *
+		 * @return the number of timeouts
+		 */
+		public long getTimeouts(){
+			return timeouts.sum();
+		}
+
+		/**
+		 * Returns the number of sessions which the server has terminated (TIMEOUT or SESSION EXPIRED).
+		 *
+		 * @return the number of expired sessions
+		 */
+		public long getExpired(){
+			return expired.sum();
+		}
+
+		/**
+		 * Returns the number of connections which could not be established.
+		 *
+		 * @return the number of failed connections
+		 */
+		public long getConnectErrors(){
+			return connectErrors.sum();
+		}
+
+		/**
+		 * Returns the number of commands which have been sent and either answered or timed out.
+		 *
+		 * @return the number of commands
+		 */
+		public long getCommands(){
+			return acks.sum() + nacks.sum() + timeouts.sum();
+		}
+	}
+
+	private final Map<Workload.Verb, Histogram> verbs;
+	private final Window total;
+	private final AtomicReference<Window> current;
+	private final LongAdder sessions;
+
+	public Recorder() {
+		long now = System.nanoTime();
+		this.verbs = new EnumMap<>(Workload.Verb.class);
+		for(Workload.Verb verb: Workload.Verb.values()){
+			verbs.put(verb, new Histogram());
+		}
+		this.total = new Window(now);
+		this.current = new AtomicReference<>(new Window(now));
+		this.sessions = new LongAdder();
+	}
+
+	/**
+	 * Records a command which has been answered.
+	 *
+	 * @param verb the Verb of the command
+	 * @param nanos the time from sending the command until the end of its reply
+	 * @param ack TRUE if it was answered with an ACK, FALSE for a NACK
+	 */
+	public void reply(Workload.Verb verb, long nanos, boolean ack){
+		verbs.get(verb).record(nanos);
+		record(current.get(), nanos, ack);
+		record(total, nanos, ack);
+	}
+
+	/**
+	 * Records a command which has been answered in the Window.
+	 *
+	 * @param window the Window
+	 * @param nanos the time from sending the command until the end of its reply
+	 * @param ack TRUE if it was answered with an ACK, FALSE for a NACK
+	 */
+	private static void record(Window window, long nanos, boolean ack){
+		window.latency.record(nanos);
+		if(ack){
+			window.acks.increment();
+		}else{
+			window.nacks.increment();
+		}
+	}
+
+	/**
+	 * Records commands which have not been answered.
+	 *
+	 * @param count the number of commands
+	 */
+	public void timeouts(int count){
+		current.get().timeouts.add(count);
+		total.timeouts.add(count);
+	}
+
+	/**
+	 * Records a session which the server has terminated.
+	 */
+	public void expired(){
+		current.get().expired.increment();
+		total.expired.increment();
+	}
+
+	/**
+	 * Records a connection which could not be established.
+	 */
+	public void connectError(){
+		current.get().connectErrors.increment();
+		total.connectErrors.increment();
+	}
+
+	/**
+	 * Records a session which has been opened.
+	 */
+	public void opened(){
+		sessions.increment();
+	}
+
+	/**
+	 * Records a session which has been closed.
+	 */
+	public void closed(){
+		sessions.decrement();
+	}
+
+	/**
+	 * Returns the number of sessions which are currently open.
+	 *
+	 * @return the number of sessions
+	 */
+	public long getSessions(){
+		return sessions.sum();
+	}
+
+	/**
+	 * Ends the current interval and starts a new one.
+	 * Commands which are being recorded meanwhile may still end up in the returned Window.
+	 *
+	 * @return the Window of the interval which has ended
+	 */
+	public Window nextInterval(){
+		return current.getAndSet(new Window(System.nanoTime()));
+	}
+
+	/**
+	 * Returns the outcomes of all commands since the start.
+	 *
+	 * @return the Window of the whole run
+	 */
+	public Window getTotal(){
+		return total;
+	}
+
+	/**
+	 * Returns the latencies of the commands with the Verb since the start, in nanoseconds.
+	 *
+	 * @param verb the Verb
+	 * @return the Histogram
+	 */
+	public Histogram getLatency(Workload.Verb verb){
+		return verbs.get(verb);
+	}
+}
@@ -0,0 +1,125 @@
+package net.skwod.loadgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The process of the server under test, whose memory usage is reported during soak tests.
+ *
+ * The memory usage is read from /proc, so it is only available on Linux; the process can either be specified by
+ * its PID or found as the local process listening on the server's port.
+ *
+ * @author Maxmanski
+ */
+class ServerProcess {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final String TCP_LISTEN = "0A";
+
+	private final long pid;
+
+	/**
+	 * Creates a new ServerProcess.
+	 *
+	 * @param pid the PID of the process
+	 */
+	public ServerProcess(long pid) {
+		this.pid = pid;
+	}
+
+	/**
+	 * Finds the local process which listens on the TCP port.
+	 * Only the processes of the same user can be found.
+	 *
+	 * @param port the port
+	 * @return the ServerProcess, or NULL if it could not be found
+	 */
+	public static ServerProcess find(int port){
+		Set<String> sockets = new HashSet<>();
+		listeningSockets(new File("/proc/net/tcp"), port, sockets);
+		listeningSockets(new File("/proc/net/tcp6"), port, sockets);
+		if(sockets.isEmpty()){
+			return null;
+		}
+
+		File[] processes = new File("/proc").listFiles();
+		if(processes == null){
+			return null;
+		}
+		for(File process: processes){
+			long pid;
+			try {
+				pid = Long.parseLong(process.getName());
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			File[] descriptors = new File(process, "fd").listFiles();
+			if(descriptors == null){
+				continue;
+			}
+			for(File descriptor: descriptors){
+				try {
+					if(sockets.contains(Files.readSymbolicLink(descriptor.toPath()).toString())){
+						return new ServerProcess(pid);
+					}
+				} catch (IOException | UnsupportedOperationException e) {}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the sockets which are listening on the port, as they are named in /proc/PID/fd ("socket:[inode]").
+	 *
+	 * @param table the table of sockets (/proc/net/tcp or /proc/net/tcp6)
+	 * @param port the port
+	 * @param sockets the set to which to add the sockets
+	 */
+	private static void listeningSockets(File table, int port, Set<String> sockets){
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(table.toPath(), ASCII);
+		} catch (IOException e) {
+			return;
+		}
+		String localPort = String.format(Locale.ROOT, ":%04X", port);
+		// "sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ..."
+		for(String line: lines.subList(Math.min(1, lines.size()), lines.size())){
+			String[] fields = line.trim().split("\\s+");
+			if((fields.length > 9) && fields[1].endsWith(localPort) && fields[3].equals(TCP_LISTEN)){
+				sockets.add("socket:[" + fields[9] + "]");
+			}
+		}
+	}
+
+	/**
+	 * Returns the PID of the process.
+	 *
+	 * @return the PID
+	 */
+	public long getPid(){
+		return pid;
+	}
+
+	/**
+	 * Reads the resident set size of the process.
+	 *
+	 * @return the size in KiB, or -1 if it is not available (e.g. because the process has terminated)
+	 */
+	public long getRssKiB(){
+		try {
+			for(String line: Files.readAllLines(new File("/proc/" + pid + "/status").toPath(), ASCII)){
+				if(line.startsWith("VmRSS:")){
+					return Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+				}
+			}
+		} catch (IOException | NumberFormatException e) {}
+		return -1;
+	}
+}
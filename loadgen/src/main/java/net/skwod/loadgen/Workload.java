@@ -0,0 +1,247 @@
+package net.skwod.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The commands the clients send: A weighted mix of the Verbs, whose arguments are songs and directories which
+ * have been found by crawling the server's music directory with LIST beforehand.
+ *
+ * A Workload is immutable and shared by all clients; every client brings its own Random.
+ *
+ * @author Maxmanski
+ */
+class Workload {
+
+	/**
+	 * The commands which are part of the mix.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Verb {
+
+		/** Replaces the playlist with one to five songs */
+		PLAY,
+
+		/** Adds one to three songs to the playlist */
+		ADD,
+
+		/** Lists a directory */
+		LIST,
+
+		/** Lists the playlist */
+		PLAYLIST,
+
+		/** Skips to the next song */
+		NEXT;
+
+		/**
+		 * Finds the Verb with the specified name, ignoring the case.
+		 *
+		 * @param name the name of the Verb
+		 * @return the Verb, or NULL if there is no such Verb
+		 */
+		public static Verb forName(String name){
+			for(Verb verb: values()){
+				if(verb.name().equalsIgnoreCase(name)){
+					return verb;
+				}
+			}
+			return null;
+		}
+	}
+
+	private final Verb[] verbs;
+	private final int[] cumulativeWeights;
+	private final List<String> songs;
+	private final List<String> directories;
+
+	/**
+	 * Creates a new Workload.
+	 *
+	 * @param mix the weight of every Verb, e.g. "play:1,add:4,list:10,playlist:10,next:2"
+	 * @param songs the paths of the songs, relative to the music directory
+	 * @param directories the paths of the directories, relative to the music directory
+	 * @throws IllegalArgumentException if the mix is malformed
+	 */
+	public Workload(String mix, List<String> songs, List<String> directories) {
+		List<Verb> verbList = new ArrayList<>();
+		List<Integer> weightList = new ArrayList<>();
+		int total = 0;
+		for(String part: mix.split(",")){
+			String[] pair = part.trim().split(":");
+			Verb verb = Verb.forName(pair[0].trim());
+			if((verb == null) || (pair.length != 2)){
+				throw new IllegalArgumentException("Invalid mix: " + part);
+			}
+			int weight;
+			try {
+				weight = Integer.parseInt(pair[1].trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid weight: " + part);
+			}
+			if(weight < 0){
+				throw new IllegalArgumentException("Invalid weight: " + part);
+			}
+			if(weight > 0){
+				total += weight;
+				verbList.add(verb);
+				weightList.add(total);
+			}
+		}
+		if(total == 0){
+			throw new IllegalArgumentException("The mix is empty: " + mix);
+		}
+
+		this.verbs = verbList.toArray(new Verb[verbList.size()]);
+		this.cumulativeWeights = new int[weightList.size()];
+		for(int i=0; i<cumulativeWeights.length; i++){
+			cumulativeWeights[i] = weightList.get(i);
+		}
+		this.songs = Collections.unmodifiableList(new ArrayList<>(songs));
+		this.directories = Collections.unmodifiableList(new ArrayList<>(directories));
+
+		if(this.directories.isEmpty()){
+			throw new IllegalArgumentException("No directories to list");
+		}
+		if(this.songs.isEmpty() && (contains(Verb.PLAY) || contains(Verb.ADD))){
+			throw new IllegalArgumentException("No songs to play or add");
+		}
+	}
+
+	/**
+	 * Crawls the music directory of the server breadth-first with (paged) LIST commands.
+	 *
+	 * @param connection the connection to the server
+	 * @param maxDirectories the maximum number of directories to list
+	 * @param maxEntries the maximum number of entries to take from every directory
+	 * @param songs the list to which to add the paths of the songs found
+	 * @param directories the list to which to add the paths of the directories listed
+	 * @throws IOException if the connection failed or a LIST failed
+	 */
+	public static void crawl(Connection connection, int maxDirectories, int maxEntries, List<String> songs, List<String> directories)
+			throws IOException {
+		Deque<String> pending = new ArrayDeque<>();
+		pending.add("");
+		while(!pending.isEmpty() && (directories.size() < maxDirectories)){
+			String directory = pending.poll();
+			List<String> reply = connection.request("LIST " + directory + " OFFSET 0 LIMIT " + maxEntries);
+			String last = reply.get(reply.size() - 1);
+			if(!last.startsWith("ACK")){
+				throw new IOException(last);
+			}
+			directories.add(directory);
+
+			String prefix = directory.isEmpty() ? "" : (directory + "/");
+			for(String entry: reply.subList(0, reply.size() - 1)){
+				if(entry.endsWith("/")){
+					pending.add(prefix + entry.substring(0, entry.length() - 1));
+				}else if(!isSeparated(prefix + entry)){
+					songs.add(prefix + entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the server would split the path into several arguments of PLAY or ADD.
+	 *
+	 * @param path the path
+	 * @return TRUE if it contains a separator (';' or ':') or a quote
+	 */
+	private static boolean isSeparated(String path){
+		return (path.indexOf(';') >= 0) || (path.indexOf(':') >= 0) || (path.indexOf('"') >= 0);
+	}
+
+	/**
+	 * Chooses the next Verb according to the weights of the mix.
+	 *
+	 * @param random the Random of the client
+	 * @return the Verb
+	 */
+	public Verb nextVerb(Random random){
+		int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+		for(int i=0; i<cumulativeWeights.length; i++){
+			if(value < cumulativeWeights[i]){
+				return verbs[i];
+			}
+		}
+		return verbs[verbs.length - 1];
+	}
+
+	/**
+	 * Creates the command line for a Verb, with random arguments.
+	 *
+	 * @param verb the Verb
+	 * @param random the Random of the client
+	 * @return the command line, without a tag or line terminator
+	 */
+	public String command(Verb verb, Random random){
+		switch(verb){
+			case PLAY:
+				return "PLAY " + randomSongs(1 + random.nextInt(5), random);
+			case ADD:
+				return "ADD " + randomSongs(1 + random.nextInt(3), random);
+			case LIST:
+				return ("LIST " + directories.get(random.nextInt(directories.size()))).trim();
+			default:
+				return verb.name();
+		}
+	}
+
+	/**
+	 * Describes the Workload.
+	 *
+	 * @return the description
+	 */
+	@Override
+	public String toString(){
+		StringBuilder builder = new StringBuilder();
+		int previous = 0;
+		for(int i=0; i<verbs.length; i++){
+			builder.append((i == 0) ? "" : ",").append(verbs[i].name().toLowerCase(Locale.ROOT)).append(':')
+					.append(cumulativeWeights[i] - previous);
+			previous = cumulativeWeights[i];
+		}
+		return "mix " + builder + ", " + songs.size() + " songs in " + directories.size() + " directories";
+	}
+
+	/**
+	 * Checks whether the Verb is part of the mix.
+	 *
+	 * @param verb the Verb
+	 * @return TRUE if its weight is not 0
+	 */
+	private boolean contains(Verb verb){
+		for(Verb v: verbs){
+			if(v == verb){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Picks random songs and joins them, quoted, by ';'.
+	 *
+	 * @param count the number of songs
+	 * @param random the Random of the client
+	 * @return the argument of PLAY or ADD
+	 */
+	private String randomSongs(int count, Random random){
+		StringBuilder builder = new StringBuilder();
+		for(int i=0; i<count; i++){
+			if(i > 0){
+				builder.append(';');
+			}
+			builder.append('"').append(songs.get(random.nextInt(songs.size()))).append('"');
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,452 @@
+package net.skwod;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import net.skwod.log.Log;
+import net.skwod.player.PlayerFactory;
+
+/**
+ * An immutable snapshot of the configuration, as read from the configuration files.
+ *
+ * The current snapshot is published via setCurrent() and replaced as a whole whenever the configuration files
+ * change (see ConfigWatcher), so that everybody who reads a setting via getCurrent() sees either the old or the
+ * new configuration, never a mix of both. Settings which are read on every use (e.g. the timeout of a session)
+ * therefore take effect right away; the others are applied by RMC when the snapshot is replaced, or require a
+ * restart (see RESTART_REQUIRED).
+ *
+ * @author Maxmanski
+ */
+public final class Config {
+
+	/** The settings which are only applied when the server is started */
+	public static final String[] RESTART_REQUIRED = {"port", "serverMode", "selectorThreads", "workerThreads", "logFile",
+			"logMaxSize", "logFiles", "logBufferSize", "logWhenFull"};
+
+	private static volatile Config current = new Config(new Properties());
+
+	private final String musicDir;
+	private final String playerDir;
+	private final String playerExec;
+	private final int port;
+	private final int timeout;
+	private final int maxSessionLength;
+	private final int selectorThreads;
+	private final int workerThreads;
+	private final int listingCacheSize;
+	private final int scanThreads;
+	private final int scanQueueDepth;
+	private final int statsInterval;
+	private final String serverMode;
+	private final boolean logPlayerCommands;
+	private final String logLevel;
+	private final String logFile;
+	private final int logMaxSize;
+	private final int logFiles;
+	private final int logBufferSize;
+	private final String logWhenFull;
+
+	/**
+	 * Creates a new Config from the properties; a property which is missing or cannot be read is set to its
+	 * default value.
+	 *
+	 * @param properties the properties
+	 */
+	private Config(Properties properties) {
+		String dir = properties.getProperty("musicDir", getDefaultMusicDir());
+		// append a separator to the music Dir
+		if((dir != null) && !(dir.endsWith("/") || dir.endsWith("\\"))){
+			dir += File.separator;
+		}
+		this.musicDir = dir;
+		this.playerDir = properties.getProperty("playerDir");
+		this.playerExec = properties.getProperty("playerExec");
+		this.port = intProperty(properties, "port", 2000);
+		this.timeout = intProperty(properties, "timeout", 90);
+		this.maxSessionLength = intProperty(properties, "maxSessionLength", 300);
+		this.selectorThreads = intProperty(properties, "selectorThreads", 2);
+		this.workerThreads = intProperty(properties, "workerThreads", 4);
+		this.listingCacheSize = intProperty(properties, "listingCacheSize", 16);
+		this.scanThreads = intProperty(properties, "scanThreads", Runtime.getRuntime().availableProcessors());
+		this.scanQueueDepth = intProperty(properties, "scanQueueDepth", 0);
+		this.statsInterval = intProperty(properties, "statsInterval", 600);
+		this.serverMode = properties.getProperty("serverMode", "selector").trim();
+		this.logPlayerCommands = Boolean.parseBoolean(properties.getProperty("logPlayerCommands", "false").trim());
+		this.logLevel = properties.getProperty("logLevel", "info").trim();
+		this.logFile = properties.getProperty("logFile", "").trim();
+		this.logMaxSize = intProperty(properties, "logMaxSize", 10);
+		this.logFiles = intProperty(properties, "logFiles", 5);
+		this.logBufferSize = intProperty(properties, "logBufferSize", 8192);
+		this.logWhenFull = properties.getProperty("logWhenFull", "block").trim();
+	}
+
+	/**
+	 * Reads the configuration from the specified files, in order: A setting in a later file overrides the same
+	 * setting in the earlier files. Files which do not exist or cannot be read are skipped.
+	 *
+	 * @param files the configuration files
+	 * @return the Config
+	 */
+	public static Config read(File... files){
+		Properties properties = new Properties();
+		for(File file: files){
+			if(file.exists() && file.isFile() && file.canRead()){
+				Properties fileProperties = new Properties();
+				try (Reader reader = new FileReader(file)) {
+					fileProperties.load(reader);
+				} catch (IOException | IllegalArgumentException e) {
+					continue;
+				}
+				properties.putAll(fileProperties);
+			}
+		}
+		return new Config(properties);
+	}
+
+	/**
+	 * Returns the current configuration.
+	 *
+	 * @return the current Config
+	 */
+	public static Config getCurrent(){
+		return current;
+	}
+
+	/**
+	 * Replaces the current configuration.
+	 *
+	 * @param config the new Config
+	 */
+	public static void setCurrent(Config config){
+		current = config;
+	}
+
+	/**
+	 * Returns the configuration as properties, in the form in which it is written into the configuration file.
+	 *
+	 * @return the properties
+	 */
+	public Properties toProperties(){
+		Properties properties = new Properties();
+		properties.setProperty("musicDir", (musicDir == null) ? "INVALID PATH" : musicDir);
+		properties.setProperty("playerDir", (playerDir == null) ? "INVALID PATH" : playerDir);
+		properties.setProperty("playerExec", (playerExec == null) ? "INVALID PATH" : playerExec);
+		properties.setProperty("port", Integer.toString(port));
+		properties.setProperty("timeout", Integer.toString(timeout));
+		properties.setProperty("maxSessionLength", Integer.toString(maxSessionLength));
+		properties.setProperty("selectorThreads", Integer.toString(selectorThreads));
+		properties.setProperty("workerThreads", Integer.toString(workerThreads));
+		properties.setProperty("listingCacheSize", Integer.toString(listingCacheSize));
+		properties.setProperty("scanThreads", Integer.toString(scanThreads));
+		properties.setProperty("scanQueueDepth", Integer.toString(scanQueueDepth));
+		properties.setProperty("statsInterval", Integer.toString(statsInterval));
+		properties.setProperty("serverMode", serverMode);
+		properties.setProperty("logPlayerCommands", Boolean.toString(logPlayerCommands));
+		properties.setProperty("logLevel", logLevel);
+		properties.setProperty("logFile", logFile);
+		properties.setProperty("logMaxSize", Integer.toString(logMaxSize));
+		properties.setProperty("logFiles", Integer.toString(logFiles));
+		properties.setProperty("logBufferSize", Integer.toString(logBufferSize));
+		properties.setProperty("logWhenFull", logWhenFull);
+		return properties;
+	}
+
+	/**
+	 * Determines which settings differ between this and the other configuration.
+	 *
+	 * @param other the other Config
+	 * @return the names of the settings which have changed
+	 */
+	public Set<String> getChanges(Config other){
+		Properties mine = toProperties();
+		Properties others = other.toProperties();
+		Set<String> changes = new LinkedHashSet<>();
+		for(String name: mine.stringPropertyNames()){
+			if(!mine.getProperty(name).equals(others.getProperty(name))){
+				changes.add(name);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Checks the configuration.
+	 *
+	 * @return a description of everything that is invalid (one line each), or an empty String if the configuration
+	 * is valid
+	 */
+	public String getErrors(){
+		// check if all items are configured (the SimulatedPlayer does not need a directory)
+		boolean simulated = PlayerFactory.isSimulated(playerExec);
+		if((musicDir == null) || ((playerDir == null) && !simulated) || (playerExec == null)){
+			return "One or more configuration Items not set.\n";
+		}
+
+		String errors = "";
+
+		// check if the paths are valid
+		File fMusicDir = new File(musicDir);
+		if(!fMusicDir.exists() || !fMusicDir.isDirectory()){
+			errors += "The Music Directory (" + musicDir + ") is invalid.\n";
+		}
+
+		if(!simulated){
+			File fPlayerDir = new File(playerDir);
+			if(!fPlayerDir.exists() || !fPlayerDir.isDirectory()){
+				errors += "The Player Directory (" + playerDir + ") is invalid.\n";
+			}
+
+			String pDir = playerDir + ((playerDir.endsWith(File.separator)) ? "" : File.separator);
+			File fPlayerExec = new File(pDir + playerExec);
+			if(!fPlayerExec.exists() || !fPlayerExec.isFile() || !fPlayerExec.canExecute()){
+				errors += "The Player Executable (" + pDir + playerExec + ") is invalid.\n";
+			}
+		}
+
+		if((port <= 0) || (port >= 65535)){
+			errors += "The Port has to be in the valid Port Range: [0, 65535].\n";
+		}
+
+		if((timeout < 0)){
+			errors += "The Timeout has to be >= 0, where 0 means no timeout. Any value > 0 means the amount of seconds before a timeout.\n";
+		}
+
+		if((selectorThreads <= 0) || (workerThreads <= 0)){
+			errors += "The number of Selector Threads and Worker Threads has to be > 0.\n";
+		}
+
+		if(!serverMode.equalsIgnoreCase("selector") && !serverMode.equalsIgnoreCase("virtual")){
+			errors += "The Server Mode has to be either \"selector\" or \"virtual\".\n";
+		}
+
+		if(Log.Level.forName(logLevel) == null){
+			errors += "The Log Level has to be one of \"debug\", \"info\", \"warn\" and \"error\".\n";
+		}
+
+		if(Log.Overflow.forName(logWhenFull) == null){
+			errors += "The Log Overflow Policy (logWhenFull) has to be either \"block\" or \"drop\".\n";
+		}
+
+		return errors;
+	}
+
+	/**
+	 * Returns the music directory, ending with a separator.
+	 *
+	 * @return the music directory, or NULL if it is not configured
+	 */
+	public String getMusicDir(){
+		return musicDir;
+	}
+
+	/**
+	 * Returns the directory in which the executable of the music player resides.
+	 *
+	 * @return the player directory, or NULL if it is not configured
+	 */
+	public String getPlayerDir(){
+		return playerDir;
+	}
+
+	/**
+	 * Returns the name of the executable of the music player (or the configuration of the SimulatedPlayer).
+	 *
+	 * @return the player executable, or NULL if it is not configured
+	 */
+	public String getPlayerExec(){
+		return playerExec;
+	}
+
+	/**
+	 * Returns the TCP port on which the server listens.
+	 *
+	 * @return the port
+	 */
+	public int getPort(){
+		return port;
+	}
+
+	/**
+	 * Returns the time after which an idle session is disconnected.
+	 *
+	 * @return the timeout in seconds, 0 meaning no timeout
+	 */
+	public int getTimeout(){
+		return timeout;
+	}
+
+	/**
+	 * Returns the maximum duration of a session.
+	 *
+	 * @return the maximum session length in seconds, 0 meaning no limit
+	 */
+	public int getMaxSessionLength(){
+		return maxSessionLength;
+	}
+
+	/**
+	 * Returns the number of threads which perform the network I/O of the SelectorServer.
+	 *
+	 * @return the number of threads
+	 */
+	public int getSelectorThreads(){
+		return selectorThreads;
+	}
+
+	/**
+	 * Returns the number of threads which execute the commands of the SelectorServer.
+	 *
+	 * @return the number of threads
+	 */
+	public int getWorkerThreads(){
+		return workerThreads;
+	}
+
+	/**
+	 * Returns the memory which may be used by the ListingCache.
+	 *
+	 * @return the size in MiB
+	 */
+	public int getListingCacheSize(){
+		return listingCacheSize;
+	}
+
+	/**
+	 * Returns the number of threads which scan the music directory.
+	 *
+	 * @return the number of threads
+	 */
+	public int getScanThreads(){
+		return scanThreads;
+	}
+
+	/**
+	 * Returns the maximum number of directories (or files) which are read at the same time while scanning.
+	 *
+	 * @return the maximum number, 0 meaning no limit
+	 */
+	public int getScanQueueDepth(){
+		return scanQueueDepth;
+	}
+
+	/**
+	 * Returns the interval in which the statistics are logged.
+	 *
+	 * @return the interval in seconds, 0 meaning never
+	 */
+	public int getStatsInterval(){
+		return statsInterval;
+	}
+
+	/**
+	 * Returns the network layer which serves the sessions.
+	 *
+	 * @return either "selector" or "virtual"
+	 */
+	public String getServerMode(){
+		return serverMode;
+	}
+
+	/**
+	 * Checks whether every command executed for controlling the music player is logged.
+	 *
+	 * @return TRUE if the commands are logged
+	 */
+	public boolean isLogPlayerCommands(){
+		return logPlayerCommands;
+	}
+
+	/**
+	 * Returns the name of the least severe Log.Level which is logged.
+	 *
+	 * @return the name of the level
+	 */
+	public String getLogLevel(){
+		return logLevel;
+	}
+
+	/**
+	 * Returns the file to which the log is written.
+	 *
+	 * @return the path of the file, or an empty String for the console
+	 */
+	public String getLogFile(){
+		return logFile;
+	}
+
+	/**
+	 * Returns the size at which the log file is rotated.
+	 *
+	 * @return the size in MiB, 0 meaning never
+	 */
+	public int getLogMaxSize(){
+		return logMaxSize;
+	}
+
+	/**
+	 * Returns the number of rotated log files which are kept.
+	 *
+	 * @return the number of files
+	 */
+	public int getLogFiles(){
+		return logFiles;
+	}
+
+	/**
+	 * Returns the number of log messages which may be waiting to be written.
+	 *
+	 * @return the number of messages
+	 */
+	public int getLogBufferSize(){
+		return logBufferSize;
+	}
+
+	/**
+	 * Returns the name of the Log.Overflow policy, which decides what happens when the log buffer is full.
+	 *
+	 * @return the name of the policy
+	 */
+	public String getLogWhenFull(){
+		return logWhenFull;
+	}
+
+	/**
+	 * Reads a property which has to be a number.
+	 *
+	 * @param properties the properties
+	 * @param name the name of the property
+	 * @param defaultValue the value to use if the property is missing or not a number
+	 * @return the value
+	 */
+	private static int intProperty(Properties properties, String name, int defaultValue){
+		try {
+			return Integer.parseInt(properties.getProperty(name, Integer.toString(defaultValue)).trim());
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Tries to find the current User's default Music directory and return it.
+	 * If it cannot be found, NULL will be returned instead.
+	 *
+	 * @return the user's found music directory or NULL
+	 */
+	private static String getDefaultMusicDir(){
+		String path = "";
+		String userHome = System.getProperty("user.home");
+		userHome += (userHome.endsWith(File.separator)) ? "" : File.separator;
+		path = userHome + "Music";
+		File musicDir = new File(path);
+		if(!musicDir.exists() || !musicDir.isDirectory()){
+			return null;
+		}else{
+			return path;
+		}
+	}
+}
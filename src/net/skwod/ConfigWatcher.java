@@ -0,0 +1,136 @@
+package net.skwod;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.skwod.log.Log;
+
+/**
+ * Watches the configuration files and notifies a listener whenever one of them has been changed.
+ *
+ * Since a WatchService can only watch directories, the directories containing the files are watched, and only
+ * the events concerning the files themselves are considered. Editors often write a file in several steps (or
+ * write a new file and rename it), so the events are collected for a short while before the listener is
+ * notified once; the listener runs on the watcher's thread, so the changes are handled one after another.
+ *
+ * @author Maxmanski
+ */
+public class ConfigWatcher implements Runnable {
+
+	private static final long BATCH_WINDOW = 250;
+
+	private final WatchService watchService;
+	private final Map<WatchKey, Set<Path>> files;
+	private final Runnable listener;
+	private volatile boolean running;
+
+	/**
+	 * Creates a new ConfigWatcher for the specified files. Files in directories which do not exist are not watched.
+	 *
+	 * @param configFiles the configuration files
+	 * @param listener the listener which is notified about changes
+	 * @throws IOException if no WatchService is available, or none of the directories could be watched
+	 */
+	public ConfigWatcher(File[] configFiles, Runnable listener) throws IOException {
+		this.watchService = configFiles[0].toPath().getFileSystem().newWatchService();
+		this.files = new HashMap<>();
+		this.listener = listener;
+		this.running = false;
+
+		for(File file: configFiles){
+			Path path = file.getAbsoluteFile().toPath();
+			Path dir = path.getParent();
+			if((dir == null) || !dir.toFile().isDirectory()){
+				continue;
+			}
+			WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+			Set<Path> names = files.get(key);
+			if(names == null){
+				names = new HashSet<>();
+				files.put(key, names);
+			}
+			names.add(path.getFileName());
+		}
+
+		if(files.isEmpty()){
+			watchService.close();
+			throw new IOException("None of the configuration directories exists");
+		}
+	}
+
+	/**
+	 * Waits for changes of the configuration files and notifies the listener, until the watcher is stopped.
+	 */
+	@Override
+	public void run() {
+		running = true;
+
+		try {
+			while(running){
+				WatchKey key = watchService.take();
+				boolean changed = false;
+
+				// collect everything that happens shortly after the first event
+				while(key != null){
+					changed |= collect(key);
+					key = watchService.poll(BATCH_WINDOW, TimeUnit.MILLISECONDS);
+				}
+
+				if(changed){
+					try {
+						listener.run();
+					} catch (RuntimeException e) {
+						Log.getInstance().error("Could not apply the changed configuration", e);
+					}
+				}
+			}
+
+		} catch (InterruptedException e) {
+
+		} catch (ClosedWatchServiceException e) {
+
+		} finally {
+			running = false;
+		}
+	}
+
+	/**
+	 * Stops the watcher and releases the WatchService.
+	 */
+	public void shutdown(){
+		running = false;
+		try {
+			watchService.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Checks whether the events of the specified key concern one of the configuration files, and resets the key.
+	 *
+	 * @param key the WatchKey
+	 * @return TRUE if a configuration file has been changed (or events have been lost)
+	 */
+	private boolean collect(WatchKey key){
+		Set<Path> names = files.get(key);
+		boolean changed = false;
+		for(WatchEvent<?> event: key.pollEvents()){
+			if((event.kind() == StandardWatchEventKinds.OVERFLOW) || ((names != null) && names.contains(event.context()))){
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+}
@@ -0,0 +1,129 @@
+package net.skwod;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.skwod.log.Log;
+
+/**
+ * Distributes the changes of the shared state to the sessions which have subscribed to them, so that clients do
+ * not have to poll for them.
+ *
+ * Every Topic has its own set of Subscribers, and an event is only handed to the Subscribers of its Topic; the
+ * cost of publishing an event is therefore proportional to the number of its Subscribers, no matter how many
+ * sessions are connected. Subscribing and unsubscribing take constant time and may happen concurrently to
+ * publishing; a Subscriber which subscribes while an event is being published may or may not receive it.
+ *
+ * Events are compact, single-line descriptions of what has changed (e.g. the new version of the playlist);
+ * clients have to fetch the details themselves.
+ *
+ * @author Maxmanski
+ */
+public class Events {
+
+	/**
+	 * The parts of the shared state whose changes are published.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Topic {
+
+		/** The playlist has changed; the event is "VERSION v" */
+		PLAYLIST,
+
+		/** The playback has changed; the event is the executed command (e.g. "PAUSE" or "JUMP id") */
+		PLAYER,
+
+		/** The Tracks of the Library have changed; the event is "TRACKS n" */
+		LIBRARY;
+
+		/**
+		 * Returns the name of the Topic as used in the protocol.
+		 *
+		 * @return the name, in lower case
+		 */
+		public String getName(){
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+		/**
+		 * Finds the Topic with the specified name, ignoring the case.
+		 *
+		 * @param name the name of the Topic
+		 * @return the Topic, or NULL if there is no such Topic
+		 */
+		public static Topic forName(String name){
+			for(Topic topic: values()){
+				if(topic.name().equalsIgnoreCase(name)){
+					return topic;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Receives the events of the Topics it has subscribed to.
+	 *
+	 * @author Maxmanski
+	 */
+	public interface Subscriber {
+
+		/**
+		 * Called for every event of a subscribed Topic, on the thread which published it (possibly while the
+		 * Jukebox's lock is held). Implementations must therefore return quickly and must not block.
+		 *
+		 * @param topic the Topic
+		 * @param event the event
+		 */
+		void published(Topic topic, String event);
+	}
+
+	private final Map<Topic, Set<Subscriber>> subscribers;
+
+	public Events() {
+		this.subscribers = new EnumMap<>(Topic.class);
+		for(Topic topic: Topic.values()){
+			subscribers.put(topic, ConcurrentHashMap.<Subscriber>newKeySet());
+		}
+	}
+
+	/**
+	 * Subscribes to the events of the Topic. Subscribing more than once has no further effect.
+	 *
+	 * @param topic the Topic
+	 * @param subscriber the Subscriber
+	 */
+	public void subscribe(Topic topic, Subscriber subscriber){
+		subscribers.get(topic).add(subscriber);
+	}
+
+	/**
+	 * Stops receiving the events of the Topic.
+	 *
+	 * @param topic the Topic
+	 * @param subscriber the Subscriber
+	 */
+	public void unsubscribe(Topic topic, Subscriber subscriber){
+		subscribers.get(topic).remove(subscriber);
+	}
+
+	/**
+	 * Hands the event to every Subscriber of its Topic.
+	 *
+	 * @param topic the Topic
+	 * @param event the event
+	 */
+	public void publish(Topic topic, String event){
+		for(Subscriber subscriber: subscribers.get(topic)){
+			try {
+				subscriber.published(topic, event);
+			} catch (RuntimeException e) {
+				Log.getInstance().error("A subscriber has failed to handle a " + topic.getName() + " event", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package net.skwod;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.skwod.command.Request;
+import net.skwod.library.Entry;
+import net.skwod.library.Library;
+import net.skwod.log.Log;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * The state which is shared between all sessions:
+ * The Player that is being controlled, the playlist that is currently loaded, the music directory and the
+ * Library indexing it.
+ *
+ * The Player is only ever controlled via the PlayerQueue, which executes the actions one at a time and in
+ * the order in which they were submitted. Together with the sequential processing of commands within each
+ * session, this means that commands sent by a single session are always applied in the order they were sent,
+ * and commands sent by different sessions are applied in the order in which they were received by the server.
+ * The Player and the Library can be replaced while the server is running (e.g. when the configuration has been
+ * changed), without losing the playlist or what the Player has been doing with it.
+ *
+ * The playlist is changed by the queued actions once the Player has executed them, so it always shows what
+ * the Player has actually been told to play. Accessing it requires the Jukebox's lock, which is never held
+ * while the Player is working; reading the playlist therefore never has to wait for a slow Player.
+ * The same goes for the Playback and the current song, as far as the server knows them: they record what the
+ * Player has last been told to do (e.g. JUMP), while the Player might have moved on to the next song by itself.
+ *
+ * Changes are published via the Jukebox's Events: Whenever the lock is released after the playlist has been
+ * changed, its new version is published (once, no matter how many songs have been changed), and whenever the
+ * tag index of the Library has been updated, the new number of Tracks is published. The commands which control
+ * the playback publish their changes themselves, once the Player has executed them.
+ *
+ * @author Maxmanski
+ */
+public class Jukebox {
+
+	/**
+	 * What the Player has last been told to do with the playlist.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Playback {
+		STOPPED, PLAYING, PAUSED
+	}
+
+	private final PlayerQueue playerQueue;
+	private volatile String musicDir;
+	private volatile Library library;
+	private final Playlist playlist;
+	private Playback playback;
+	private long currentId;
+	private final ReentrantLock lock;
+	private final Events events;
+	private long publishedVersion;
+
+	public Jukebox(Player player, String musicDir, final Library library) {
+		this.playerQueue = new PlayerQueue(player);
+		this.musicDir = musicDir;
+		this.library = library;
+		this.playlist = new Playlist();
+		this.playback = Playback.STOPPED;
+		this.currentId = -1;
+		this.lock = new ReentrantLock(true);
+		this.events = new Events();
+		this.publishedVersion = playlist.getVersion();
+		listen(library);
+	}
+
+	/**
+	 * Publishes the updates of the Library's tag index.
+	 *
+	 * @param library the Library
+	 */
+	private void listen(final Library library){
+		library.getTagIndex().setListener(new Runnable() {
+
+			@Override
+			public void run() {
+				events.publish(Events.Topic.LIBRARY, "TRACKS " + library.getTagIndex().size());
+			}
+		});
+	}
+
+	/**
+	 * Acquires the lock which guards the playlist, blocking until it is available.
+	 */
+	public void lock(){
+		lock.lock();
+	}
+
+	/**
+	 * Releases the lock which guards the playlist.
+	 * If the playlist has been changed, its new version is published before the lock is released, so that the
+	 * events of the playlist are published in order.
+	 */
+	public void unlock(){
+		try {
+			if((lock.getHoldCount() == 1) && (playlist.getVersion() != publishedVersion)){
+				publishedVersion = playlist.getVersion();
+				events.publish(Events.Topic.PLAYLIST, "VERSION " + publishedVersion);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the queue via which the shared Player is controlled. It does not require the lock.
+	 *
+	 * @return the PlayerQueue
+	 */
+	public PlayerQueue getPlayerQueue(){
+		return playerQueue;
+	}
+
+	/**
+	 * Returns the Events, via which the changes of the shared state are published. It does not require the lock.
+	 *
+	 * @return the Events
+	 */
+	public Events getEvents(){
+		return events;
+	}
+
+	/**
+	 * Returns the shared playlist. The caller has to hold the lock.
+	 *
+	 * @return the playlist
+	 */
+	public Playlist getPlaylist(){
+		return playlist;
+	}
+
+	/**
+	 * Records what the Player has been told to do with the playlist, once it has done it. The caller has to hold
+	 * the lock.
+	 *
+	 * @param playback the Playback
+	 */
+	public void setPlayback(Playback playback){
+		this.playback = playback;
+	}
+
+	/**
+	 * Records the item which the Player has been told to play, once it plays it. The caller has to hold the lock.
+	 *
+	 * @param id the id of the item, or -1 if it is not known (e.g. because the Player has chosen it)
+	 */
+	public void setCurrentId(long id){
+		this.currentId = id;
+	}
+
+	/**
+	 * Moves the current item by the specified number of positions within the playlist (e.g. for NEXT), as far as
+	 * the playlist reaches. Nothing is changed if the current item is not known. The caller has to hold the lock.
+	 *
+	 * @param step the number of positions, negative for moving backwards
+	 */
+	public void skip(int step){
+		int position = (currentId >= 0) ? playlist.indexOf(currentId) : -1;
+		if(position < 0){
+			return;
+		}
+		position = Math.max(0, Math.min(playlist.size() - 1, position + step));
+		currentId = playlist.get(position).getId();
+	}
+
+	/**
+	 * Returns the music directory, ending with a separator.
+	 *
+	 * @return the music directory
+	 */
+	public String getMusicDir(){
+		return musicDir;
+	}
+
+	/**
+	 * Returns the Library, which indexes the music directory. It does not require the lock.
+	 *
+	 * @return the Library
+	 */
+	public Library getLibrary(){
+		return library;
+	}
+
+	/**
+	 * Replaces the music directory and the Library indexing it, together with the Player (see replacePlayer()),
+	 * e.g. after the configuration has been changed. Since the songs of the playlist are relative to the music
+	 * directory, only those which exist in the new Library are kept; the new Player is loaded with them.
+	 * This is done by the PlayerQueue, once the actions which have already been submitted are executed; until
+	 * then, the previous Library keeps serving the sessions. Afterwards, the previous Library is shut down.
+	 * If there is no new Player, the current one is stopped and loaded again instead. It does not require the lock.
+	 *
+	 * @param musicDir the new music directory, ending with a separator
+	 * @param library the Library indexing it
+	 * @param player the new Player, or NULL to keep the current one
+	 * @return the future which signals that the Player has been loaded
+	 */
+	public CompletableFuture<Void> setLibrary(final String musicDir, final Library library, Player player){
+		final PlayerQueue.Task task = new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				Library previous;
+				int removed = 0;
+				listen(library);
+				lock();
+				try {
+					previous = Jukebox.this.library;
+					Jukebox.this.musicDir = musicDir;
+					Jukebox.this.library = library;
+					for(int i=playlist.size() - 1; i>=0; i--){
+						Entry entry = library.getEntry(Request.splitPath(playlist.get(i).getSong()));
+						if((entry == null) || entry.isDirectory()){
+							playlist.remove(i);
+							removed++;
+						}
+					}
+				} finally {
+					unlock();
+				}
+				previous.shutdown();
+				if(removed > 0){
+					Log.getInstance().info("Removed " + removed + " songs from the playlist, which are not in " + musicDir);
+				}
+				events.publish(Events.Topic.LIBRARY, "TRACKS " + library.getTagIndex().size());
+				restore(player);
+			}
+		};
+
+		if(player != null){
+			return playerQueue.replace(player, task);
+		}
+		return playerQueue.submit(new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				player.stop();
+				task.execute(player);
+			}
+		});
+	}
+
+	/**
+	 * Replaces the Player, once the actions which have already been submitted are executed (see
+	 * PlayerQueue.replace()). The new Player is loaded with the playlist as it is at that point, so that the
+	 * playlist survives the change (see restore()). It does not require the lock.
+	 *
+	 * @param player the new Player
+	 * @return the future which signals that the new Player has been loaded
+	 */
+	public CompletableFuture<Void> replacePlayer(Player player){
+		return playerQueue.replace(player, new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				restore(player);
+			}
+		});
+	}
+
+	/**
+	 * Loads the playlist into a new (or stopped) Player: If the previous Player has been playing, the new one
+	 * continues with the current song (from its beginning), or with the first one if it cannot jump or the current
+	 * song is not known; if it has been paused or stopped, the new Player only gets the songs. If the playlist is
+	 * empty, the new Player is left alone. Called by the PlayerQueue's thread.
+	 *
+	 * @param player the Player
+	 * @throws IOException if the Player failed to load the playlist
+	 */
+	private void restore(Player player) throws IOException {
+		List<String> songs = new ArrayList<>();
+		Playback restored;
+		long id;
+		int position;
+		long first;
+		lock();
+		try {
+			for(Playlist.Item item: playlist.getItems()){
+				songs.add(item.getSong());
+			}
+			restored = playback;
+			id = currentId;
+			position = (id >= 0) ? playlist.indexOf(id) : -1;
+			first = playlist.isEmpty() ? -1 : playlist.get(0).getId();
+		} finally {
+			unlock();
+		}
+
+		if(songs.isEmpty()){
+			return;
+		}
+		player.addSongs(songs);
+		if(restored != Playback.PLAYING){
+			return;
+		}
+		if((position >= 0) && player.canJump()){
+			player.jump(position);
+			events.publish(Events.Topic.PLAYER, "JUMP " + id);
+		}else{
+			player.play();
+			lock();
+			try {
+				currentId = first;
+			} finally {
+				unlock();
+			}
+			events.publish(Events.Topic.PLAYER, "PLAY");
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package net.skwod;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The songs which the Player has been told to play, in order.
+ *
+ * Every song is given an id when it is added, which stays the same while it is part of the playlist, no matter
+ * where it is moved; clients can therefore refer to a song by its id even if the playlist has been changed
+ * since they have last seen it.
+ *
+ * The songs are kept in a treap ordered by their positions, whose nodes know the sizes of their subtrees.
+ * Finding, inserting, removing and moving a song by its position therefore takes O(log n), and so does finding
+ * the position of an id.
+ *
+ * Every change increments the version of the playlist and is recorded in a bounded log, from which the changes
+ * since a recent version can be fetched instead of the whole playlist.
+ *
+ * The playlist is not thread-safe; the Jukebox's lock has to be held to access it.
+ *
+ * @author Maxmanski
+ */
+public class Playlist {
+
+	private static final int MAX_CHANGES = 1024;
+
+	/**
+	 * A song in the playlist, together with its id.
+	 *
+	 * @author Maxmanski
+	 */
+	public static final class Item {
+
+		private final long id;
+		private final String song;
+
+		private Item(long id, String song) {
+			this.id = id;
+			this.song = song;
+		}
+
+		/**
+		 * Returns the id of the song, which stays the same while it is part of the playlist.
+		 *
+		 * @return the id
+		 */
+		public long getId(){
+			return id;
+		}
+
+		/**
+		 * Returns the song, relative to the music directory.
+		 *
+		 * @return the song
+		 */
+		public String getSong(){
+			return song;
+		}
+	}
+
+	/**
+	 * A node of the treap.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Node {
+
+		private final Item item;
+		private final int priority;
+		private Node left;
+		private Node right;
+		private Node parent;
+		private int size;
+
+		public Node(Item item, int priority) {
+			this.item = item;
+			this.priority = priority;
+			this.size = 1;
+		}
+	}
+
+	private final Random random;
+	private final Map<Long, Node> nodes;
+	private final ArrayDeque<String> changes;
+	private final Shuffle shuffle;
+	private Node root;
+	private long nextId;
+	private long version;
+
+	public Playlist() {
+		this.random = new Random();
+		this.nodes = new HashMap<>();
+		this.changes = new ArrayDeque<>();
+		this.shuffle = new Shuffle();
+		this.root = null;
+		this.nextId = 1;
+		this.version = 0;
+	}
+
+	/**
+	 * Returns the version of the playlist, which is incremented by every change.
+	 *
+	 * @return the version
+	 */
+	public long getVersion(){
+		return version;
+	}
+
+	/**
+	 * Returns the order in which RANDOM plays the songs, which is kept up to date with the playlist.
+	 *
+	 * @return the Shuffle
+	 */
+	public Shuffle getShuffle(){
+		return shuffle;
+	}
+
+	/**
+	 * Returns the number of songs in the playlist.
+	 *
+	 * @return the number of songs
+	 */
+	public int size(){
+		return size(root);
+	}
+
+	/**
+	 * Returns whether the playlist is empty.
+	 *
+	 * @return TRUE if there are no songs in the playlist
+	 */
+	public boolean isEmpty(){
+		return root == null;
+	}
+
+	/**
+	 * Returns the song at the specified position.
+	 *
+	 * @param position the position, starting at 0
+	 * @return the song and its id
+	 */
+	public Item get(int position){
+		checkPosition(position, size());
+		Node node = root;
+		while(true){
+			int leftSize = size(node.left);
+			if(position < leftSize){
+				node = node.left;
+			}else if(position == leftSize){
+				return node.item;
+			}else{
+				position -= leftSize + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	/**
+	 * Returns the current position of the song with the specified id.
+	 *
+	 * @param id the id of the song
+	 * @return the position, or -1 if there is no such song in the playlist
+	 */
+	public int indexOf(long id){
+		Node node = nodes.get(id);
+		if(node == null){
+			return -1;
+		}
+		int position = size(node.left);
+		for(Node parent = node.parent; parent != null; node = parent, parent = parent.parent){
+			if(parent.right == node){
+				position += size(parent.left) + 1;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Returns all songs of the playlist, in order.
+	 *
+	 * @return the songs
+	 */
+	public List<Item> getItems(){
+		List<Item> items = new ArrayList<>(size());
+		ArrayDeque<Node> stack = new ArrayDeque<>();
+		Node node = root;
+		while((node != null) || !stack.isEmpty()){
+			while(node != null){
+				stack.push(node);
+				node = node.left;
+			}
+			node = stack.pop();
+			items.add(node.item);
+			node = node.right;
+		}
+		return items;
+	}
+
+	/**
+	 * Inserts the song at the specified position.
+	 *
+	 * @param position the position, from 0 to size()
+	 * @param song the song
+	 * @return the song and its new id
+	 */
+	public Item add(int position, String song){
+		checkPosition(position, size() + 1);
+		Item item = new Item(nextId++, song);
+		Node node = new Node(item, random.nextInt());
+		nodes.put(item.id, node);
+		shuffle.add(item.id);
+
+		Node[] parts = split(root, position);
+		setRoot(merge(merge(parts[0], node), parts[1]));
+		record("ADD " + item.id + " " + position + " " + song);
+		return item;
+	}
+
+	/**
+	 * Appends the songs to the end of the playlist.
+	 *
+	 * @param songs the songs
+	 */
+	public void addAll(List<String> songs){
+		for(String song: songs){
+			add(size(), song);
+		}
+	}
+
+	/**
+	 * Removes the song at the specified position.
+	 *
+	 * @param position the position
+	 * @return the removed song
+	 */
+	public Item remove(int position){
+		Node node = cut(position);
+		nodes.remove(node.item.id);
+		shuffle.remove(node.item.id);
+		record("REMOVE " + node.item.id);
+		return node.item;
+	}
+
+	/**
+	 * Moves the song at the specified position, so that it ends up at the other position.
+	 *
+	 * @param from the current position of the song
+	 * @param to the new position of the song
+	 */
+	public void move(int from, int to){
+		checkPosition(to, size());
+		Node node = cut(from);
+		Node[] parts = split(root, to);
+		setRoot(merge(merge(parts[0], node), parts[1]));
+		record("MOVE " + node.item.id + " " + to);
+	}
+
+	/**
+	 * Removes all songs from the playlist.
+	 */
+	public void clear(){
+		root = null;
+		nodes.clear();
+		shuffle.clear();
+		record("CLEAR");
+	}
+
+	/**
+	 * Returns the changes since the specified version, one line each:
+	 * "ADD id position song", "REMOVE id", "MOVE id position" or "CLEAR".
+	 *
+	 * @param since the version
+	 * @return the changes in the order they were made, or NULL if they are no longer (or not yet) known
+	 */
+	public List<String> getChanges(long since){
+		long oldest = version - changes.size();
+		if((since < oldest) || (since > version)){
+			return null;
+		}
+		List<String> result = new ArrayList<>((int) (version - since));
+		Iterator<String> it = changes.descendingIterator();
+		for(long i=version; i>since; i--){
+			result.add(it.next());
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * Takes the node at the specified position out of the treap.
+	 *
+	 * @param position the position
+	 * @return the node, which is detached
+	 */
+	private Node cut(int position){
+		checkPosition(position, size());
+		Node[] left = split(root, position);
+		Node[] right = split(left[1], 1);
+		setRoot(merge(left[0], right[1]));
+		Node node = right[0];
+		node.parent = null;
+		return node;
+	}
+
+	/**
+	 * Records a change and increments the version.
+	 *
+	 * @param change the description of the change
+	 */
+	private void record(String change){
+		version++;
+		changes.addLast(change);
+		if(changes.size() > MAX_CHANGES){
+			changes.removeFirst();
+		}
+	}
+
+	/**
+	 * Makes the node the root of the treap.
+	 *
+	 * @param node the new root, or NULL
+	 */
+	private void setRoot(Node node){
+		root = node;
+		if(root != null){
+			root.parent = null;
+		}
+	}
+
+	/**
+	 * Splits the treap into the first k nodes and the rest.
+	 *
+	 * @param node the root of the treap
+	 * @param k the number of nodes in the first part
+	 * @return the roots of both parts
+	 */
+	private static Node[] split(Node node, int k){
+		if(node == null){
+			return new Node[2];
+		}
+		Node[] parts;
+		if(size(node.left) >= k){
+			parts = split(node.left, k);
+			node.left = parts[1];
+			update(node);
+			parts[1] = node;
+		}else{
+			parts = split(node.right, k - size(node.left) - 1);
+			node.right = parts[0];
+			update(node);
+			parts[0] = node;
+		}
+		return parts;
+	}
+
+	/**
+	 * Joins two treaps, keeping all nodes of the first one in front of the nodes of the second one.
+	 *
+	 * @param first the root of the first treap
+	 * @param second the root of the second treap
+	 * @return the root of the joined treap
+	 */
+	private static Node merge(Node first, Node second){
+		if(first == null){
+			return second;
+		}else if(second == null){
+			return first;
+		}
+		if(first.priority > second.priority){
+			first.right = merge(first.right, second);
+			update(first);
+			return first;
+		}
+		second.left = merge(first, second.left);
+		update(second);
+		return second;
+	}
+
+	/**
+	 * Updates the size of the node and the parent links of its children, after they have changed.
+	 *
+	 * @param node the node
+	 */
+	private static void update(Node node){
+		node.size = 1 + size(node.left) + size(node.right);
+		if(node.left != null){
+			node.left.parent = node;
+		}
+		if(node.right != null){
+			node.right.parent = node;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree.
+	 *
+	 * @param node the root of the subtree, or NULL
+	 * @return the number of nodes
+	 */
+	private static int size(Node node){
+		return (node == null) ? 0 : node.size;
+	}
+
+	/**
+	 * Checks that the position is valid.
+	 *
+	 * @param position the position
+	 * @param limit the first invalid position
+	 * @throws IndexOutOfBoundsException if the position is negative or not less than the limit
+	 */
+	private static void checkPosition(int position, int limit){
+		if((position < 0) || (position >= limit)){
+			throw new IndexOutOfBoundsException("Position: " + position);
+		}
+	}
+}
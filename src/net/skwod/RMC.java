@@ -1,881 +1,529 @@
 package net.skwod;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.Charset;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
-
+import java.io.Writer;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import net.skwod.library.Library;
+import net.skwod.library.LibrarySnapshot;
+import net.skwod.library.LibraryWatcher;
+import net.skwod.library.ScanProgress;
+import net.skwod.log.Log;
 import net.skwod.player.Player;
 import net.skwod.player.PlayerFactory;
+import net.skwod.player.ProcessExecutor;
 import net.skwod.player.ex.NoSuchPlayerException;
+import net.skwod.server.SelectorServer;
+import net.skwod.server.ThreadServer;
+import net.skwod.stats.Stats;
 
 /**
  * Remote Music Control:
  * The entry point for the server application.
- * The entire application logic short of construction of creation and execution of player-specific commands
- * is contained here.
  * This is:
- * - setting up the program
- * - handling of connections
- * - deciding what to do with incoming messages (commands)
- * - handling of the playlist
+ * - setting up the program and its log
+ * - indexing the music directory and keeping the index up to date (see Library, LibrarySnapshot and LibraryWatcher)
+ * - setting up the state shared by all sessions (see Jukebox)
+ * - starting the configured network layer, which serves the sessions (see SelectorServer, ThreadServer and Session)
+ * - applying changes of the configuration files while the server is running (see Config and ConfigWatcher)
  *
  * @author Maxmanski
  */
 public class RMC {
 
-	private static String musicDir = getDefaultMusicDir();
-	private static String playerDir = null;
-	private static String playerExec = null;
-	private static int port = 2000;
-	private static int timeout = 90;
-	private static int maxSessionLength = 300;
-	private static Player player;
-	private static Timer timeoutTimer = null;
-	private static Timer sessionTimer = null;
-	private static DateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS");
-	private static boolean connected = false;
-	private static ServerSocket serverSocket = null;
-	private static Socket client = null;
-	private static Object waitLock = new Object();
-	private static Object connectedAccessLock = new Object();
+	private static final Object reindexLock = new Object();
+	private static Library reindexing = null;
 
 	public static void main(String[] args){
 
-		System.out.println("Running jRMC...");
-
-		setupProperties();
-		checkProperties();
-
-		boolean running = true;
-		long commandNo = 0;
-		List<String> playlist = new LinkedList<>();
+		Config config = setupProperties();
+		Config.setCurrent(config);
+		setupLog(config);
+		Log log = Log.getInstance();
+		log.info("Running jRMC...");
+		checkProperties(config);
 
+		ProcessExecutor.getInstance().setLogCommands(config.isLogPlayerCommands());
+		Player player = null;
 		try {
-			player = PlayerFactory.getPlayer(playerDir, playerExec, musicDir);
+			player = PlayerFactory.getPlayer(config.getPlayerDir(), config.getPlayerExec(), config.getMusicDir());
 		} catch (NoSuchPlayerException e) {
-			System.err.println("Could not instantiate Player: " + e.getMessage());
+			log.error("Could not instantiate Player: " + e.getMessage());
 		}
 
 		try {
-			serverSocket = new ServerSocket(port);
-			Thread acceptThread = new Thread(new RejectConnectionTask(serverSocket));
-			acceptThread.setDaemon(true);
-			acceptThread.start();
-
-			while(running){
-
-				while(!connected){
-					synchronized (waitLock) {
-						try {
-							waitLock.wait();
-						} catch (Exception e) {}
-					}
-				}
-
-				BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), Charset.forName("UTF-8")));
-				PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), Charset.forName("UTF-8"))));
+			Library library = createLibrary(config);
+			setupLibrary(library);
 
-				String dateTime = sdf.format(Calendar.getInstance().getTime());
-				InetAddress connAddr = client.getInetAddress();
-				System.out.println(dateTime + " - connected: " + connAddr.getHostAddress() + " (" + connAddr.getHostName() + ")");
-				commandNo = 0;
-				String line = null;
+			final Jukebox jukebox = new Jukebox(player, config.getMusicDir(), library);
+			final File snapshotFile = getLibrarySnapshotFile();
+			if(snapshotFile != null){
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 
-				startTimeoutTimer(new TimeoutTask(client, "ACK: TIMEOUT"));
-				startSessionTimer(new TimeoutTask(client, "ACK: SESSION EXPIRED"));
-				writer.println("ACK: jRMC");
-				writer.flush();
-
-				try{
-					while((line = reader.readLine()) != null){
-
-						startTimeoutTimer(new TimeoutTask(client, "ACK: TIMEOUT"));
-
-						line = line.trim();
-						if(line.isEmpty()){
-							continue;
-						}
-						String lowerLine = line.toLowerCase();
-						String params = "";
-						if(line.indexOf(" ") >= 0){
-							params = line.substring(line.indexOf(" "));
-						}
-						params = params.trim();
-						String[] splitParams = params.split(";|:");
-						String quote = "\"";
-
-						System.out.println("#" + String.format("%04d", (commandNo++)) + ": " + line);
-
-						if(lowerLine.equals("playlist")){
-							for(String str: playlist){
-								String tmp = unquote(str);
-								writer.println(tmp);
-							}
-							writer.println("ACK: PLAYLIST");
-							writer.flush();
-
-						}else if(lowerLine.equals("play")){
-
-							try {
-								player.play();
-								writer.println("ACK: PLAY");
-							} catch (UnsupportedOperationException e) {
-								writer.println("NACK (Unsupported Operation): PLAY");
-							}
-							writer.flush();
-
-						}else if(lowerLine.startsWith("play ") || lowerLine.startsWith("add ")){
-
-							List<String> problems = new LinkedList<>();
-							List<String> usedParams = new LinkedList<>();
-							String ackParams = "";
-
-							for(String param: splitParams){
-
-								if(containsDirUp(param)){
-									problems.add(param);
-
-								}else{
-									param = unquote(param.trim());
-									String[] pathSplit = param.split("/|\\\\");
-									String constructedPath = musicDir;
-
-									String[] pathParts = new String[pathSplit.length - 1];
-									for(int i=0; i<pathParts.length; i++){
-										pathParts[i] = pathSplit[i];
-									}
-									constructedPath = getUniquePath(musicDir, pathParts);
-
-									if((constructedPath == null) || (!new File(constructedPath).exists())){
-										problems.add(param);
-
-									}else{
-
-										String fileName = pathSplit[pathSplit.length - 1];
-										String path = getUniqueFile(constructedPath, fileName);
-
-										if(path == null){
-											problems.add(param);
-										}else{
-											param = path;
-										}
-									}
-								}
-
-								if(!problems.contains(param)){
-									param = (param.startsWith(musicDir)) ? param.substring(musicDir.length()) : param;
-									usedParams.add(param);
-
-									String tmp = param.replaceAll("\\\\", "/");
-									ackParams += quote + tmp + quote + " ";
-								}
-							}
-
-							ackParams = ackParams.trim();
-
-							// execute if there were no problems
-							// tell the problem otherwise
-							if(problems.isEmpty() && !usedParams.isEmpty()){
-
-								String replyString = null;
-
-								if(lowerLine.startsWith("play")){
-
-									try {
-										player.playSongs(usedParams);
-										replyString = "ACK: PLAY " + ackParams;
-									} catch (UnsupportedOperationException e) {
-										replyString = "NACK (Unsupported Operation): PLAY";
-									}
-									playlist.clear();
-
-								}else{
-
-									try {
-										player.addSongs(usedParams);
-										replyString = "ACK: ADD " + ackParams;
-									} catch (Exception e) {
-										replyString = "NACK (Unsupported Operation): ADD";
-									}
-								}
-
-								// add the songs to the playlist list
-								for(String str: usedParams){
-									String tmp = unquote(str.trim());
-									if(tmp.startsWith(musicDir)){
-										tmp = tmp.substring(musicDir.length());
-									}
-									if((tmp.startsWith("/") || tmp.startsWith("\\")) && (tmp.length() >= 1)){
-										tmp = tmp.substring(1);
-									}
-									playlist.add(tmp);
-								}
-
-								writer.println(replyString);
-
-							}else if(problems.isEmpty()){
-								writer.println("NACK (No songs found): " + line);
-
-							}else{
-								String problemString = "";
-								for(int i=0; i<problems.size(); i++){
-									problemString += problems.get(i);
-									if(i < (problems.size() - 1)){
-										problemString += "; ";
-									}
-								}
-								writer.println("NACK (" + problemString + "): " + line);
-							}
-
-							writer.flush();
-
-						}else if(lowerLine.equals("pause")){
-
-							try {
-								player.pause();
-								writer.println("ACK: PAUSE");
-							} catch (UnsupportedOperationException e) {
-								writer.println("NACK (Unsupported Operation): PAUSE");
-							}
-							writer.flush();
-
-						}else if(lowerLine.equals("list") || lowerLine.startsWith("list ")){
-							params = unquote(params);
-
-							String[] pathParts = params.split("/|\\\\");
-							String path = getUniquePath(musicDir, pathParts);
-
-							if(!containsDirUp(params) && (path != null)){
-								File dir = new File(path);
-								File[] files = dir.listFiles();
-
-								Arrays.sort(files, new Comparator<File>() {
-
-									@Override
-									public int compare(File o1, File o2) {
-										return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
-									}
-								});
-
-								// print directories first, with "/" at the end
-								for(File f: files){
-									if(f.isDirectory()){
-										writer.println(f.getName() + "/");
-									}
-								}
-
-								// print music files
-								for(File f: files){
-									if(f.isFile()){
-										if(f.getName().toLowerCase().endsWith("mp3") ||
-												f.getName().toLowerCase().endsWith("wav")){
-
-											writer.println(f.getName());
-										}
-									}
-								}
-								String subPath = path;
-								if(path.startsWith(musicDir)){
-									subPath = subPath.substring(musicDir.length());
-								}
-								subPath = subPath.replaceAll("\\\\", "/");
-								if(subPath.startsWith("/")){
-									subPath = subPath.substring(1);
-								}
-								writer.println("ACK: LIST " + subPath);
-
-							}else if(!containsDirUp(params) && (path == null)){
-								writer.println("NACK (Path does not exist): " + line);
-
-							}else{
-								writer.println("NACK (Path must not contain \"..\"): " + line);
-							}
-
-							writer.flush();
-
-						}else if(lowerLine.equals("next")){
-
-							try {
-								player.next();
-								writer.println("ACK: NEXT");
-							} catch (UnsupportedOperationException e) {
-								writer.println("NACK (Unsupported Operation): NEXT");
-							}
-							writer.flush();
-
-						}else if(lowerLine.equals("prev") || lowerLine.equals("previous")){
-
-							try {
-								player.previous();
-								writer.println("ACK: PREV");
-							} catch (UnsupportedOperationException e) {
-								writer.println("NACK (Unsupported Operation): PREV");
-							}
-							writer.flush();
-
-						}else if(lowerLine.equals("rand") || lowerLine.equals("random")){
-
-							try {
-								player.random();
-								writer.println("ACK: RAND");
-							} catch (UnsupportedOperationException e) {
-								writer.println("NACK (Unsupported Operation): RAND");
-							}
-							writer.flush();
-
-						}else if(lowerLine.equals("stop")){
-
-							try {
-								player.stop();
-								playlist.clear();
-								writer.println("ACK: STOP");
-							} catch (UnsupportedOperationException e) {
-								writer.println("NACK (Unsupported Operation): STOP");
-							}
-							writer.flush();
-
-						}else if(lowerLine.equals("exit")){
-							writer.println("ACK: EXIT");
-							writer.flush();
-
-							close(writer);
-							close(reader);
-							close(client);
-							writer = null;
-							reader = null;
-							client = null;
-							setConnected(false);
-
-							break;
-
-						}else if(lowerLine.equals("help")){
-
-							writer.println("PLAY song1;song2;...");
-							writer.println("\tCreate a new playlist with the specified songs and start playing");
-							writer.println("ADD song1;song2;...");
-							writer.println("\tAdds the specified songs to the current playlist");
-							writer.println("PAUSE");
-							writer.println("\tPause playback");
-							writer.println("PLAY");
-							writer.println("\tResume playback or re-start playback");
-							writer.println("NEXT");
-							writer.println("\tSkips to the next song");
-							writer.println("PREV");
-							writer.println("\tSkips to the previous song");
-							writer.println("PREVIOUS");
-							writer.println("\tSame as PREV");
-							writer.println("RAND");
-							writer.println("\tPlays a random song from the current playlist");
-							writer.println("RANDOM");
-							writer.println("\tSame as RAND");
-							writer.println("STOP");
-							writer.println("\tStops playback and deletes current playlist");
-							writer.println("LIST directory");
-							writer.println("\tLists the contents of the directory - folders first");
-							writer.println("PLAYLIST");
-							writer.println("\tLists all songs from the current playlist");
-							writer.println("ACK: HELP");
-							writer.flush();
-
-						}else{
-							writer.println("NACK (Command not recognised): " + line);
-							writer.flush();
-						}
+					@Override
+					public void run() {
+						writeLibrarySnapshot(jukebox.getLibrary(), snapshotFile);
 					}
-
-				}catch(IOException ex){
-
-				}finally{
-					close(reader);
-					close(writer);
-					close(client);
-					reader = null;
-					writer = null;
-					client = null;
-					setConnected(false);
-
-					stopTimeoutTimer();
-					stopSessionTimer();
-					String dateString = sdf.format(Calendar.getInstance().getTime());
-					System.out.println(dateString + " - connection terminated");
-				}
+				}, "rmc-library-snapshot"));
 			}
+			reportStats();
+			watchConfig(jukebox);
+			Runnable server = null;
+			if(config.getServerMode().equalsIgnoreCase("virtual")){
+				server = new ThreadServer(config.getPort(), jukebox);
+			}else{
+				server = new SelectorServer(config.getPort(), jukebox, config.getSelectorThreads(), config.getWorkerThreads());
+			}
+			server.run();
 
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.error("The server has stopped", e);
 		} catch (Exception e){
-			e.printStackTrace();
-		}finally{
-			close(client);
-			close(serverSocket);
-			client = null;
-			serverSocket = null;
+			log.error("The server has stopped", e);
 		}
 	}
 
 	/**
-	 * Returns the value of the boolean variable "connected" in a synchronized fashion
+	 * Starts the log as configured. If the configuration is invalid, the defaults are used, and the error is
+	 * reported by checkProperties().
 	 *
-	 * @return the value of the boolean variable "connected"
+	 * @param config the configuration
 	 */
-	private static boolean isConnected(){
-		boolean ret = false;
-		synchronized (connectedAccessLock) {
-			ret = connected;
+	private static void setupLog(Config config){
+		Log.Level level = Log.Level.forName(config.getLogLevel());
+		Log.Overflow overflow = Log.Overflow.forName(config.getLogWhenFull());
+		File file = config.getLogFile().isEmpty() ? null : new File(config.getLogFile());
+		try {
+			Log.start((level != null) ? level : Log.Level.INFO, Math.max(2, config.getLogBufferSize()),
+					(overflow != null) ? overflow : Log.Overflow.BLOCK, file, Math.max(0, config.getLogMaxSize()) * 1024L * 1024L,
+					config.getLogFiles());
+		} catch (IOException e) {
+			Log.getInstance().error("Could not open the log file " + file + ", logging to the console instead: " + e.getMessage());
 		}
-		return ret;
 	}
 
 	/**
-	 * Sets the boolean variable "connected" in a synchronized fashion.
+	 * Watches the configuration files, and applies their changes (see reload()).
 	 *
-	 * @param b the value to which the boolean variable "connected" should be set
+	 * @param jukebox the state shared by all sessions
 	 */
-	private static void setConnected(boolean b){
-		synchronized (connectedAccessLock) {
-			connected = b;
-		}
-	}
-
-	/**
-	 * Cancels the timeout timer and sets it to NULL.
-	 */
-	private static void stopTimeoutTimer(){
-		// could be a NullPointer or whatever... we don't actually care
+	private static void watchConfig(final Jukebox jukebox){
+		ConfigWatcher watcher = null;
 		try {
-			timeoutTimer.cancel();
-		} catch (Exception e) {}
-		timeoutTimer = null;
+			watcher = new ConfigWatcher(getConfigFiles(), new Runnable() {
+
+				@Override
+				public void run() {
+					reload(jukebox);
+				}
+			});
+		} catch (IOException e) {
+			Log.getInstance().warn("Could not watch the configuration files for changes: " + e.getMessage());
+			return;
+		}
+		Thread watcherThread = new Thread(watcher, "rmc-config-watcher");
+		watcherThread.setDaemon(true);
+		watcherThread.start();
 	}
 
 	/**
-	 * (Re-)Starts the timeout timer with the specified task.
+	 * Reads the configuration files again and replaces the current Config, if anything has changed. An invalid
+	 * configuration is reported and ignored, i.e. the previous one stays in effect.
+	 *
+	 * Settings which are read on every use take effect right away (e.g. the timeout, which sessions read whenever
+	 * they receive a line). Others are applied to the running server here:
+	 * - the log level and the logging of player commands
+	 * - the listing cache and the scan parallelism of the Library
+	 * - a changed Player (or player directory) replaces the Player, which is loaded with the current playlist
+	 * - a changed music directory is indexed in the background, while the previous Library keeps serving the
+	 *   sessions; the Player is replaced as well, since some Players resolve the songs against the music directory
+	 * The rest is only applied by a restart (see Config.RESTART_REQUIRED), which is logged.
 	 *
-	 * @param task
+	 * Called by the ConfigWatcher's thread, so that changes are applied one after another.
+	 *
+	 * @param jukebox the state shared by all sessions
 	 */
-	private static void startTimeoutTimer(TimerTask task){
-		stopTimeoutTimer();
-		if(timeout > 0){
-			timeoutTimer = new Timer(true);
-			timeoutTimer.schedule(task, (timeout * 1000));
+	private static void reload(Jukebox jukebox){
+		Log log = Log.getInstance();
+		Config previous = Config.getCurrent();
+		Config config = Config.read(getConfigFiles());
+		Set<String> changes = previous.getChanges(config);
+		if(changes.isEmpty()){
+			return;
 		}
-	}
 
-	/**
-	 * Cancels the session timer and sets it to NULL.
-	 */
-	private static void stopSessionTimer(){
-		// could be a NullPointer or whatever... we don't actually care
-		try {
-			sessionTimer.cancel();
-		} catch (Exception e) {}
-		sessionTimer = null;
+		String errors = config.getErrors();
+		if(!errors.isEmpty()){
+			log.error(errors + "The changed configuration is invalid, keeping the previous one.");
+			return;
+		}
+
+		Config.setCurrent(config);
+		log.info("Reloaded the configuration, changed: " + String.join(", ", changes));
+		for(String name: Config.RESTART_REQUIRED){
+			if(changes.contains(name)){
+				log.warn("The change of " + name + " takes effect after a restart");
+			}
+		}
+
+		if(changes.contains("logLevel")){
+			log.setLevel(Log.Level.forName(config.getLogLevel()));
+		}
+		ProcessExecutor.getInstance().setLogCommands(config.isLogPlayerCommands());
+		Library library = jukebox.getLibrary();
+		if(changes.contains("listingCacheSize")){
+			library.setListingCacheSize(config.getListingCacheSize() * 1024L * 1024L);
+		}
+		if(changes.contains("scanThreads") || changes.contains("scanQueueDepth")){
+			library.setScanParallelism(config.getScanThreads(), config.getScanQueueDepth());
+		}
+
+		if(changes.contains("musicDir")){
+			// the Player is replaced together with the Library, once it can be used
+			reindex(jukebox, config);
+		}else if(changes.contains("playerExec") || changes.contains("playerDir")){
+			replacePlayer(jukebox, config);
+		}
 	}
 
 	/**
-	 * (Re-)Starts the session timer with the specified task.
+	 * Replaces the Player of the Jukebox by a new one, as configured. The actions which have already been queued
+	 * are executed by the previous Player. If the new Player cannot be created, the previous one is kept.
 	 *
-	 * @param task
+	 * @param jukebox the state shared by all sessions
+	 * @param config the configuration
 	 */
-	private static void startSessionTimer(TimerTask task){
-		stopSessionTimer();
-		if(maxSessionLength > 0){
-			sessionTimer = new Timer(true);
-			sessionTimer.schedule(task, (maxSessionLength * 1000));
+	private static void replacePlayer(Jukebox jukebox, Config config){
+		// the playlist belongs to the music directory of the current Library, even while a new one is indexed
+		Player player = createPlayer(config, jukebox.getMusicDir());
+		if(player != null){
+			jukebox.replacePlayer(player).whenComplete(reportReplaced(config.getPlayerExec()));
 		}
 	}
 
 	/**
-	 * Closes closeable if possible without any error handling.
+	 * Creates the Player, as configured, for the specified music directory.
 	 *
-	 * @param closeable the Closeable to close
+	 * @param config the configuration
+	 * @param musicDir the music directory
+	 * @return the Player, or NULL if it could not be created (which is logged)
 	 */
-	private static void close(Closeable closeable){
+	private static Player createPlayer(Config config, String musicDir){
 		try {
-			if(closeable != null){
-				closeable.close();
-			}
-		} catch (Exception e) {}
+			return PlayerFactory.getPlayer(config.getPlayerDir(), config.getPlayerExec(), musicDir);
+		} catch (NoSuchPlayerException e) {
+			Log.getInstance().error("Could not instantiate Player, keeping the previous one: " + e.getMessage());
+			return null;
+		}
 	}
 
 	/**
-	 * Tries to find a path, based off the base path which contains the path parts.
-	 * Each path part does not have to (but can) match a subfolder's name exactly, but has to identify a subfolder uniquely.
-	 * If a subfolder cannot be identified uniquely, NULL will be returned.
-	 *
-	 * Example: For the following folder structure...
-	 * basePath/folder 1/subfolder/subsubfolder
-	 * basePath/folder 1/subfolder 1/
-	 * basePath/folder 2/subfolder/
-	 * basePath/forgotten folder/subfolder
-	 *
-	 * getUniquePath(basePath, {"fo", "subfolder"}) would return NULL - "fo" is not a unique substring in the names
-	 * of the subfolders of basePath - "folder 1", "folder 2" and "forgotten folder" contain it.
+	 * Creates the callback which logs whether the new Player has been loaded with the playlist.
 	 *
-	 * getUniquePath(basePath, {"1", "1"}) would return "basePath/folder 1/folder 1" since both path parts uniquely
-	 * identify subfolders.
-	 *
-	 * getUniquePath(basePath, {"1", "subfolder"}) would return "basePath/folder 1/subfolder" since all path parts
-	 * uniquely identify subfolders or match their name exactly.
-	 *
-	 * @param basePath the base path in which to begin the search
-	 * @param pathParts an array containing the sequence of unique substrings from the names of subfolders
-	 * @return NULL if the construction of a unique path from the parts failed; the entire path otherwise
+	 * @param playerExec the new Player, or NULL if the previous one has been loaded again
+	 * @return the callback for the future returned by the Jukebox
 	 */
-	private static String getUniquePath(String basePath, String[] pathParts){
-
-		String constructedPath = basePath;
-
-		// the last element of pathSplit should be the filename: ignore it
-		for(int i=0; i<pathParts.length; i++){
-			constructedPath = basePath;
-			// add all found path segments
-			for(int j=0; j<i; j++){
-				constructedPath += "/" + pathParts[j];
-			}
-
-			File curDir = new File(constructedPath + "/" + pathParts[i]);
-			if(curDir.exists() && curDir.isDirectory()){
-				// the given directory name exists as is
-				constructedPath += "/" + pathParts[i];
-
-			}else if(!curDir.exists()){
-				// the given directory name could be a substring
-				List<File> fittingDirs = new LinkedList<>();
-				for(File f: new File(constructedPath).listFiles()){
-					if(f.isDirectory() && f.getName().toLowerCase().contains(pathParts[i].toLowerCase())){
-						fittingDirs.add(f);
-						if(f.getName().toLowerCase().equals(pathParts[i].toLowerCase())){
-							fittingDirs.clear();
-							fittingDirs.add(f);
-							break;
-						}
+	private static BiConsumer<Void, Throwable> reportReplaced(final String playerExec){
+		return new BiConsumer<Void, Throwable>() {
+
+			@Override
+			public void accept(Void result, Throwable t) {
+				Log log = Log.getInstance();
+				if(playerExec == null){
+					if(t != null){
+						log.warn("Could not load the playlist into the Player again: " + t.getMessage());
 					}
-				}
-
-				if(fittingDirs.size() == 1){
-					// it was unique
-					pathParts[i] = fittingDirs.get(0).getName();
-					constructedPath += "/" + pathParts[i];
-
+				}else if(t != null){
+					log.warn("Replaced the Player by " + playerExec + ", but could not load the playlist: " + t.getMessage());
 				}else{
-					// it either does not exist or was not unique: problem
-					return null;
+					log.info("Replaced the Player by " + playerExec);
 				}
-
-			}else{
-				// the given directory name exists but is not a directory: problem
-				return null;
 			}
-		}
-
-		return constructedPath;
+		};
 	}
 
 	/**
-	 * Checks if there exists a file in the given directory which is uniquely identified with the specified
-	 * file name. If such a file exists, its full name will be returned. Otherwise, NULL will be returned.
-	 *
-	 * First, a check is performed if the specified filename matches a file exactly.
-	 * If no file fits exactly, a count of all files whose names contain the specified file name as a substring
-	 * will be created. If this count is one (1), this file's name will be returned.
-	 * Otherwise, NULL will be returned.
+	 * Indexes the new music directory on a thread of its own, so that further changes of the configuration can
+	 * be applied meanwhile. An indexing which is still running is cancelled (see Library.shutdown()), since its
+	 * music directory is no longer configured. Once the new Library can be used (see setupLibrary()), it replaces
+	 * the previous one together with the Player (see Jukebox.setLibrary()); until then, the previous Library
+	 * keeps serving the sessions.
 	 *
-	 * @param path the directory where the file should be located in
-	 * @param fileName the substring to be checked against unambiguity
-	 * @return the unambigiously defined file's name or NULL
+	 * @param jukebox the state shared by all sessions
+	 * @param config the configuration
 	 */
-	private static String getUniqueFile(String path, String fileName){
-		String ret = null;
-		String fullPath = path + "/" + fileName;
-		File f = new File(fullPath);
+	private static void reindex(final Jukebox jukebox, Config config){
+		final Log log = Log.getInstance();
+		final String musicDir = config.getMusicDir();
+		final Library library = createLibrary(config);
+		synchronized (reindexLock) {
+			if(reindexing != null){
+				log.info("Cancelling the indexing of " + reindexing.getRootFile());
+				reindexing.shutdown();
+			}
+			reindexing = library;
+		}
 
-		if(f.exists() && f.isFile()){
-			// the given file exists
-			ret = new File(fullPath).getAbsolutePath();
+		Thread indexerThread = new Thread(new Runnable() {
 
-		}else{
-			// the given file does not exist as is... could be a substring
-			List<File> files = new LinkedList<>();
-			for(File file: new File(path).listFiles()){
-				if(file.isFile() && file.getName().toLowerCase().contains(fileName.toLowerCase())){
-					files.add(file);
-					if(file.getName().toLowerCase().equals(fileName.toLowerCase())){
-						files.clear();
-						files.add(file);
-						break;
+			@Override
+			public void run() {
+				log.info("Indexing the new Music Directory " + musicDir);
+				setupLibrary(library);
+				synchronized (reindexLock) {
+					if(reindexing != library){
+						// cancelled meanwhile
+						return;
 					}
+					reindexing = null;
 				}
-			}
 
-			if(files.size() == 1){
-				// the file name was unique...
-				ret = files.get(0).getAbsolutePath();
-
-			}else{
-				// the file name did not exist or was not unique: problem
-				ret = null;
+				Config current = Config.getCurrent();
+				Player player = createPlayer(current, musicDir);
+				jukebox.setLibrary(musicDir, library, player).whenComplete(reportReplaced((player != null) ? current.getPlayerExec() : null));
 			}
-		}
-		return ret;
+		}, "rmc-library-indexer");
+		indexerThread.setDaemon(true);
+		indexerThread.start();
 	}
 
 	/**
-	 * Eliminates leading and trailing quotes from the specified String.
+	 * Creates the Library for the music directory, as configured. Use setupLibrary() to fill it.
 	 *
-	 * @param string the String to remove leading and trailing quotes from
-	 * @return the String without the first leading and trailing quote.
+	 * @param config the configuration
+	 * @return the Library
 	 */
-	private static String unquote(String string){
-		string = string.trim();
-		if(string.startsWith("\"") || string.startsWith("'")){
-			string = string.substring(1);
-		}
-		if(string.endsWith("\"") || string.endsWith("'")){
-			string = string.substring(0, string.length() - 1);
-		}
-		return string;
+	private static Library createLibrary(Config config){
+		Library library = new Library(new File(config.getMusicDir()));
+		library.setListingCacheSize(config.getListingCacheSize() * 1024L * 1024L);
+		library.setScanParallelism(config.getScanThreads(), config.getScanQueueDepth());
+		return library;
 	}
 
 	/**
-	 * Tries to read the configuration from the file in the specified path.
-	 * Overwrites global settings variables.
+	 * Fills the Library and starts keeping it up to date.
 	 *
-	 * @param path The path of the file (including file name) to read the configuration from
+	 * If there is a snapshot of the Library from the last run (of the same music directory), it is loaded and
+	 * the Library is validated against the music directory in the background, so that the server can start right
+	 * away. Otherwise, the music directory is scanned entirely before this method returns.
+	 * Either way, a new snapshot is written when the Library is complete, and the tags of the music files are read
+	 * in the background afterwards. If the Library is shut down meanwhile, the rest is skipped.
+	 *
+	 * @param library the Library
 	 */
-	private static void readConfigFrom(String path){
-		File propertyFile = new File(path);
-		Properties properties = new Properties();
+	private static void setupLibrary(final Library library){
+		final Log log = Log.getInstance();
+		final File snapshotFile = getLibrarySnapshotFile();
+		long start = System.currentTimeMillis();
 
-		if(propertyFile.exists() && propertyFile.isFile() && propertyFile.canRead()){
-			try {
-				properties.load(new FileReader(propertyFile));
-				musicDir = properties.getProperty("musicDir", musicDir);
-				playerDir = properties.getProperty("playerDir", playerDir);
-				playerExec = properties.getProperty("playerExec", playerExec);
+		LibraryWatcher watcher = null;
+		try {
+			watcher = new LibraryWatcher(library);
+		} catch (IOException e) {
+			log.warn("Could not watch the Music Directory for changes: " + e.getMessage());
+		}
+		final Thread watcherThread = (watcher != null) ? new Thread(watcher, "rmc-library-watcher") : null;
+		if(watcherThread != null){
+			watcherThread.setDaemon(true);
+		}
+		final Thread tagThread = new Thread(library.getTagIndex(), "rmc-tag-index");
+		tagThread.setDaemon(true);
 
-				try {
-					port = Integer.parseInt(properties.getProperty("port", "2000"));
-				} catch (Exception e) {
-					port = 2000;
-				}
+		int entries = (snapshotFile != null) ? LibrarySnapshot.read(library, snapshotFile) : -1;
+		if(entries >= 0){
+			log.info("Loaded " + entries + " files and directories from " + snapshotFile + " in " + (System.currentTimeMillis() - start) + " ms");
 
-				try {
-					timeout = Integer.parseInt(properties.getProperty("timeout", "90"));
-				} catch (Exception e) {
-					timeout = 90;
-				}
+			Thread validatorThread = new Thread(new Runnable() {
 
-				try {
-					maxSessionLength = Integer.parseInt(properties.getProperty("maxSessionLength", "300"));
-				} catch (Exception e) {
-					maxSessionLength = 300;
+				@Override
+				public void run() {
+					int changed = library.validate();
+					if(library.isShutdown()){
+						return;
+					}
+					log.info("Validated the Library (" + library.getProgress() + "), " + changed + " directories changed");
+					writeLibrarySnapshot(library, snapshotFile);
+					if(watcherThread != null){
+						watcherThread.start();
+					}
+					tagThread.start();
 				}
+			}, "rmc-library-validator");
+			validatorThread.setDaemon(true);
+			validatorThread.start();
+			reportScanProgress(library);
 
-				// append a separator to the music Dir
-				if((musicDir != null) && !(musicDir.endsWith("/") || musicDir.endsWith("\\"))){
-					musicDir += File.separator;
-				}
-			} catch (Exception e) {}
+		}else{
+			reportScanProgress(library);
+			entries = library.scan();
+			if(library.isShutdown()){
+				log.info("Stopped indexing " + library.getRootFile());
+				return;
+			}
+			log.info("Indexed " + entries + " files and directories in " + (System.currentTimeMillis() - start) + " ms ("
+					+ library.getProgress().getThroughput() + " entries/s)");
+			writeLibrarySnapshot(library, snapshotFile);
+			if(watcherThread != null){
+				watcherThread.start();
+			}
+			tagThread.start();
 		}
 	}
 
 	/**
-	 * Reads the properties File (first /etc/rmc/rmc.conf, then USER.HOME/rmc.conf) and sets jRMC's configuration accordingly.
-	 * If a property cannot be read, a default value is used.
-	 * Afterwards, the read configuration is written back into the configuration File in the user's home directory.
+	 * Prints the statistics of the server every statsInterval seconds (as it is currently configured), as long as
+	 * commands have been handled in the meantime. Nothing is printed while the interval is 0.
 	 */
-	private static void setupProperties(){
-		readConfigFrom("/etc/rmc/rmc.conf");
-		String userHome = System.getProperty("user.home");
-		if(userHome != null){
-			File personalSettingsFile = new File(userHome + File.separator + ".rmc");
-			readConfigFrom(personalSettingsFile.getAbsolutePath());
-			Properties properties = new Properties();
-			properties.setProperty("musicDir", (musicDir == null) ? "INVALID PATH" : musicDir);
-			properties.setProperty("playerDir", (playerDir == null) ? "INVALID PATH" : playerDir);
-			properties.setProperty("playerExec", (playerExec == null) ? "INVALID PATH" : playerExec);
-			properties.setProperty("port", Integer.toString(port));
-			properties.setProperty("timeout", Integer.toString(timeout));
-			properties.setProperty("maxSessionLength", Integer.toString(maxSessionLength));
-			try {
-				if(!personalSettingsFile.exists()){
-					personalSettingsFile.createNewFile();
-					properties.store(new FileWriter(personalSettingsFile), "jRMC Path Configuration File");
-				}
-			} catch (IOException e) {}
-		}
+	private static void reportStats(){
+		Thread reporterThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				long reported = 0;
+				long lastReport = System.currentTimeMillis();
+				try {
+					while(true){
+						Thread.sleep(1000);
+						long interval = Config.getCurrent().getStatsInterval() * 1000L;
+						long now = System.currentTimeMillis();
+						if((interval <= 0) || ((now - lastReport) < interval)){
+							continue;
+						}
+						lastReport = now;
+						Stats stats = Stats.getInstance();
+						long commands = stats.getCommandCount();
+						if(commands == reported){
+							continue;
+						}
+						reported = commands;
+						Log log = Log.getInstance();
+						for(String line: stats.report()){
+							log.info(line);
+						}
+					}
+				} catch (InterruptedException e) {}
+			}
+		}, "rmc-stats");
+		reporterThread.setDaemon(true);
+		reporterThread.start();
 	}
 
 	/**
-	 * Checks the currently set configuration. If it is valid, the function will return and nothing will happen.
-	 * If it is invalid, it will print an error message to STDERR and exit the program with an exit code of 1.
+	 * Prints the progress of the Library's scan (or validation) every few seconds, until it has finished.
+	 *
+	 * @param library the Library which is being scanned
 	 */
-	private static void checkProperties(){
-		String userHome = System.getProperty("user.home");
-		String configFilePath = "$HOME" + File.separator + ".rmc";
-		if(userHome != null){
-			configFilePath = new File(userHome + File.separator + ".rmc").getAbsolutePath();
-		}
-
-		// check if all items are configured
-		if((musicDir == null) || (playerDir == null) || (playerExec == null)){
-
-			System.err.println("One or more configuration Items not set. Please edit \"" + configFilePath + "\" and restart.");
-			System.exit(1);
-		}
-
-		String errors = "";
-
-		// check if the paths are valid
-		File fMusicDir = new File(musicDir);
-		if(!fMusicDir.exists() || !fMusicDir.isDirectory()){
-			errors += "The Music Directory (" + musicDir + ") is invalid.\n";
-		}
-
-		File fPlayerDir = new File(playerDir);
-		if(!fPlayerDir.exists() || !fPlayerDir.isDirectory()){
-			errors += "The Player Directory (" + playerDir + ") is invalid.\n";
-		}
-
-		String pDir = playerDir + ((playerDir.endsWith(File.separator)) ? "" : File.separator);
-		File fPlayerExec = new File(pDir + playerExec);
-		if(!fPlayerExec.exists() || !fPlayerExec.isFile() || !fPlayerExec.canExecute()){
-			errors += "The Player Executable (" + pDir + playerExec + ") is invalid.\n";
-		}
-
-		if((port <= 0) || (port >= 65535)){
-			errors += "The Port has to be in the valid Port Range: [0, 65535].";
-		}
-
-		if((timeout < 0)){
-			errors += "The Timeout has to be >= 0, where 0 means no timeout. Any value > 0 means the amount of seconds before a timeout";
-		}
-
-		if(!errors.isEmpty()){
-			errors += "Please edit \"" + configFilePath + "\" and restart.";
-			System.err.println(errors);
-			System.exit(1);
-		}
+	private static void reportScanProgress(final Library library){
+		Thread reporterThread = new Thread(new Runnable() {
 
+			@Override
+			public void run() {
+				try {
+					while(true){
+						Thread.sleep(5000);
+						ScanProgress progress = library.getProgress();
+						if(progress.isFinished()){
+							break;
+						}
+						Log.getInstance().info("Scanning the Library: " + progress);
+					}
+				} catch (InterruptedException e) {}
+			}
+		}, "rmc-scan-progress");
+		reporterThread.setDaemon(true);
+		reporterThread.start();
 	}
 
 	/**
-	 * Tries to find the current User's default Music directory and return it.
-	 * If it cannot be found, NULL will be returned instead.
+	 * Returns the file in which the snapshot of the Library is kept, next to the configuration file in the
+	 * user's home directory.
 	 *
-	 * @return the user's found music directory or NULL
+	 * @return the snapshot file or NULL, if there is no home directory
 	 */
-	private static String getDefaultMusicDir(){
-		String path = "";
+	private static File getLibrarySnapshotFile(){
 		String userHome = System.getProperty("user.home");
-		userHome += (userHome.endsWith(File.separator)) ? "" : File.separator;
-		path = userHome + "Music";
-		File musicDir = new File(path);
-		if(!musicDir.exists() || !musicDir.isDirectory()){
+		if(userHome == null){
 			return null;
-		}else{
-			return path;
 		}
+		return new File(userHome + File.separator + ".rmc-library");
 	}
 
 	/**
-	 * Checks if the specified string contains something that could be interpreted as a directory-up
-	 * ("../" or "..\").
+	 * Writes a snapshot of the Library into the specified file, if possible.
 	 *
-	 * @param str the String to check
-	 * @return TRUE if a directory-up is contained, false otherwise
+	 * @param library the Library
+	 * @param snapshotFile the snapshot file or NULL
 	 */
-	private static boolean containsDirUp(String str){
-		return (str.equals("..") || str.contains("../") || str.contains("..\\"));
+	private static void writeLibrarySnapshot(Library library, File snapshotFile){
+		if(snapshotFile == null){
+			return;
+		}
+		try {
+			LibrarySnapshot.write(library, snapshotFile);
+		} catch (IOException e) {
+			Log.getInstance().warn("Could not write the Library snapshot: " + e.getMessage());
+		}
 	}
 
 	/**
-	 * A Timer that closes the Socket it was given when it expires.
-	 * Before the Socket is closed, the specified message is sent.
-	 *
-	 * @author Maxmanski
+	 * Returns the configuration files, in the order in which they are read: first /etc/rmc/rmc.conf, then .rmc
+	 * in the user's home directory.
 	 *
+	 * @return the configuration files
 	 */
-	private static class TimeoutTask extends TimerTask{
-
-		private Socket client = null;
-		private String message = null;
-
-		public TimeoutTask(Socket client, String message) {
-			this.client = client;
-			this.message = (message == null) ? ("ACK: TIMEOUT") : (message);
+	private static File[] getConfigFiles(){
+		String userHome = System.getProperty("user.home");
+		if(userHome == null){
+			return new File[]{new File("/etc/rmc/rmc.conf")};
 		}
+		return new File[]{new File("/etc/rmc/rmc.conf"), new File(userHome + File.separator + ".rmc")};
+	}
 
-		@Override
-		public void run() {
-			PrintWriter writer;
+	/**
+	 * Reads the configuration files (see getConfigFiles()). If a property cannot be read, a default value is used.
+	 * Afterwards, if there is no configuration file in the user's home directory yet, the read configuration is
+	 * written into it.
+	 *
+	 * @return the configuration
+	 */
+	private static Config setupProperties(){
+		Config config = Config.read(getConfigFiles());
+		String userHome = System.getProperty("user.home");
+		if(userHome != null){
+			File personalSettingsFile = new File(userHome + File.separator + ".rmc");
 			try {
-				writer = new PrintWriter(new BufferedOutputStream(client.getOutputStream()));
-				writer.println(message);
-				writer.flush();
-				writer.close();
+				if(!personalSettingsFile.exists()){
+					personalSettingsFile.createNewFile();
+					try (Writer writer = new FileWriter(personalSettingsFile)) {
+						config.toProperties().store(writer, "jRMC Path Configuration File");
+					}
+				}
 			} catch (IOException e) {}
-			close(client);
 		}
-
+		return config;
 	}
 
 	/**
-	 * A Thread that handles incoming connections: When there is a currently open connection, a "busy" message
-	 * will be sent and the connection will be closed.
-	 *
-	 * @author Maxmanski
+	 * Checks the configuration. If it is valid, the function will return and nothing will happen.
+	 * If it is invalid, it will log an error message and exit the program with an exit code of 1.
 	 *
+	 * @param config the configuration
 	 */
-	private static class RejectConnectionTask implements Runnable {
-
-		private ServerSocket serverSocket = null;
-
-		public RejectConnectionTask(ServerSocket socket) {
-			this.serverSocket = socket;
+	private static void checkProperties(Config config){
+		String userHome = System.getProperty("user.home");
+		String configFilePath = "$HOME" + File.separator + ".rmc";
+		if(userHome != null){
+			configFilePath = new File(userHome + File.separator + ".rmc").getAbsolutePath();
 		}
 
-		public void run() {
-			while(true){
-				try {
-					client = serverSocket.accept();
-					if(isConnected()){
-						PrintWriter writer = new PrintWriter(new BufferedOutputStream(client.getOutputStream()));
-						writer.println("NACK (busy): jRMC");
-						writer.flush();
-						writer.close();
-						close(client);
-					}else{
-						connected = true;
-						synchronized(waitLock){
-							waitLock.notifyAll();
-						}
-					}
-				} catch (IOException e) {}
-			}
+		String errors = config.getErrors();
+		if(!errors.isEmpty()){
+			errors += "Please edit \"" + configFilePath + "\" and restart.";
+			Log.getInstance().error(errors);
+			System.exit(1);
 		}
 	}
 }
@@ -0,0 +1,560 @@
+package net.skwod;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import net.skwod.command.Command;
+import net.skwod.command.CommandRegistry;
+import net.skwod.command.Request;
+import net.skwod.log.Log;
+import net.skwod.player.PlayerQueue;
+import net.skwod.stats.Stats;
+
+/**
+ * The state and the command handling of a single session (i.e. connected user).
+ * A Session does not know anything about the connection it is served on: It receives the lines sent by the user
+ * and writes its replies into the given writer, which is flushed by the network layer afterwards.
+ * Each line is dispatched to the Command registered for its verb in the CommandRegistry.
+ *
+ * The methods of a Session must not be called concurrently; the network layer has to make sure that the lines
+ * of a session are handled one after another, in the order they were received, and that the reply of a command
+ * which is still waiting for the Player has been sent before the next line is handled.
+ *
+ * A session may subscribe to the Events of the Jukebox (SUBSCRIBE), which are then pushed to the user as soon
+ * as they are published, via the Output given by the network layer; or it may wait for the next Events (IDLE),
+ * which are collected from the first IDLE on, so that none are missed between two IDLEs.
+ *
+ * @author Maxmanski
+ */
+public class Session {
+
+	private static final AtomicLong sessionCounter = new AtomicLong(0);
+
+	/**
+	 * Sends lines to the user which are not the reply to a command, at any time and from any thread.
+	 * They must not be sent in the middle of a reply.
+	 *
+	 * @author Maxmanski
+	 */
+	public interface Output {
+
+		/**
+		 * Sends the text to the user as soon as possible, without blocking.
+		 *
+		 * @param text the lines to send, including their line terminators
+		 */
+		void push(String text);
+	}
+
+	private final long id;
+	private final InetAddress address;
+	private final Jukebox jukebox;
+	private final CommandRegistry commands;
+	private final Output output;
+	private long commandNo;
+	private final StringBuilder logLine;
+	private boolean queued;
+	private volatile boolean terminated;
+
+	private final Events.Subscriber pushSubscriber;
+	private final Events.Subscriber idleSubscriber;
+
+	// guarded by eventLock: accessed by the publishing threads, and closed by the network layer at any time
+	private final Object eventLock;
+	private boolean closed;
+	private final Set<Events.Topic> subscribed;
+	private final Map<Events.Topic, String> idleEvents;
+	private boolean idleSubscribed;
+	private Set<Events.Topic> idleTopics;
+	private CompletableFuture<String> idleReply;
+
+	public Session(Jukebox jukebox, InetAddress address, Output output) {
+		this.id = sessionCounter.incrementAndGet();
+		this.address = address;
+		this.jukebox = jukebox;
+		this.commands = CommandRegistry.getInstance();
+		this.output = output;
+		this.commandNo = 0;
+		this.logLine = new StringBuilder(64);
+		this.queued = false;
+		this.terminated = false;
+
+		this.pushSubscriber = new Events.Subscriber() {
+
+			@Override
+			public void published(Events.Topic topic, String event) {
+				Session.this.output.push(event(topic, event) + System.lineSeparator());
+			}
+		};
+		this.eventLock = new Object();
+		this.closed = false;
+		this.subscribed = EnumSet.noneOf(Events.Topic.class);
+		this.idleSubscriber = new Events.Subscriber() {
+
+			@Override
+			public void published(Events.Topic topic, String event) {
+				idled(topic, event);
+			}
+		};
+		this.idleEvents = new EnumMap<>(Events.Topic.class);
+		this.idleSubscribed = false;
+		this.idleTopics = null;
+		this.idleReply = null;
+
+		Stats.getInstance().sessionOpened();
+	}
+
+	/**
+	 * Returns the number which identifies this session in the log.
+	 *
+	 * @return the session's number
+	 */
+	public long getId(){
+		return id;
+	}
+
+	/**
+	 * Returns the state which is shared between all sessions.
+	 *
+	 * @return the Jukebox
+	 */
+	public Jukebox getJukebox(){
+		return jukebox;
+	}
+
+	/**
+	 * Returns the Commands which this session understands.
+	 *
+	 * @return the CommandRegistry
+	 */
+	public CommandRegistry getCommands(){
+		return commands;
+	}
+
+	/**
+	 * Sets whether player commands should be replied to as soon as they are queued, instead of once the Player
+	 * has executed them.
+	 *
+	 * @param queued TRUE for immediate replies
+	 */
+	public void setQueued(boolean queued){
+		this.queued = queued;
+	}
+
+	/**
+	 * Terminates the session: The connection is closed after the current reply has been sent.
+	 */
+	public void terminate(){
+		terminated = true;
+	}
+
+	/**
+	 * Logs the new connection and writes the greeting into the writer.
+	 *
+	 * @param writer the writer in which to write the greeting
+	 */
+	public void open(PrintWriter writer){
+		Log log = Log.getInstance();
+		if(log.isEnabled(Log.Level.INFO)){
+			if(address != null){
+				log.info("connected [" + id + "]: " + address.getHostAddress() + " (" + address.getHostName() + ")");
+			}else{
+				log.info("connected [" + id + "]");
+			}
+		}
+		writer.println("ACK: jRMC");
+	}
+
+	/**
+	 * Logs the termination of the session and cancels its subscriptions, as well as a waiting IDLE.
+	 * Commands which are still running cannot subscribe anymore afterwards.
+	 */
+	public void close(){
+		Events events = jukebox.getEvents();
+		synchronized (eventLock) {
+			closed = true;
+			for(Events.Topic topic: subscribed){
+				events.unsubscribe(topic, pushSubscriber);
+			}
+			subscribed.clear();
+			if(idleSubscribed){
+				for(Events.Topic topic: Events.Topic.values()){
+					events.unsubscribe(topic, idleSubscriber);
+				}
+				idleSubscribed = false;
+			}
+		}
+		cancelIdle();
+
+		Stats.getInstance().sessionClosed();
+		Log log = Log.getInstance();
+		if(log.isEnabled(Log.Level.INFO)){
+			log.info("connection terminated [" + id + "]");
+		}
+	}
+
+	/**
+	 * Returns whether the session has been terminated by the user, i.e. whether the connection should be closed
+	 * after the last reply has been sent.
+	 *
+	 * @return TRUE if the session has been terminated
+	 */
+	public boolean isTerminated(){
+		return terminated;
+	}
+
+	/**
+	 * Handles a single line received from the user and writes the reply into the writer.
+	 *
+	 * Commands which control the Player are handed to the Jukebox's PlayerQueue. Unless the session has switched
+	 * to queued mode (ASYNC ON), their reply is only known once the Player has executed them: In that case,
+	 * nothing is written into the writer and a future is returned instead, which is completed with the reply.
+	 * The network layer has to send that reply before handling the session's next line.
+	 *
+	 * If the line is tagged, every line of the reply starts with the tag ("@tag ").
+	 *
+	 * @param line the received line, without the line terminator
+	 * @param writer the writer in which to write the reply
+	 * @return NULL if the reply has been written into the writer, or a future which is completed with the reply
+	 * (including its line terminator)
+	 */
+	public CompletableFuture<String> handleLine(String line, PrintWriter writer){
+		long start = System.nanoTime();
+		Request request = new Request(line);
+		final String tag = request.getTag();
+		if(tag == null){
+			return request.isEmpty() ? null : dispatch(request, writer, start);
+		}
+
+		// every line of the reply gets the tag
+		StringWriter buffer = new StringWriter();
+		PrintWriter tagged = new PrintWriter(buffer);
+		CompletableFuture<String> pending = dispatch(request, tagged, start);
+		tagged.flush();
+		writer.print(tag(tag, buffer.toString()));
+
+		if(pending == null){
+			return null;
+		}
+		return pending.thenApply(new Function<String, String>() {
+
+			@Override
+			public String apply(String reply) {
+				return tag(tag, reply);
+			}
+		});
+	}
+
+	/**
+	 * Logs the line and executes the Command registered for its verb.
+	 * The time until the reply is complete is recorded for the verb.
+	 *
+	 * @param request the received line
+	 * @param writer the writer in which to write the reply
+	 * @param start the time at which the line has been received, from System.nanoTime()
+	 * @return NULL if the reply has been written into the writer, or a future which is completed with the reply
+	 */
+	private CompletableFuture<String> dispatch(Request request, PrintWriter writer, final long start){
+		long number = commandNo++;
+		Log log = Log.getInstance();
+		if(log.isEnabled(Log.Level.INFO)){
+			// the line buffer is reused, since the Log copies it
+			StringBuilder line = logLine;
+			line.setLength(0);
+			line.append('[').append(id).append("] #");
+			for(long limit = 1000; (limit > number) && (limit > 1); limit /= 10){
+				line.append('0');
+			}
+			line.append(number).append(": ");
+			if(request.getTag() != null){
+				line.append('@').append(request.getTag()).append(' ');
+			}
+			log.info(request.appendTo(line));
+		}
+
+		final Stats stats = Stats.getInstance();
+		Command command = commands.get(request);
+		final String verb = commands.getVerb(request);
+		stats.record(Stats.Phase.PARSE, System.nanoTime() - start);
+		if(command == null){
+			notRecognised(request, writer);
+			return null;
+		}
+
+		CompletableFuture<String> pending = command.execute(this, request, writer);
+		if(pending == null){
+			stats.recordCommand(verb, System.nanoTime() - start);
+			return null;
+		}
+		return pending.whenComplete(new BiConsumer<String, Throwable>() {
+
+			@Override
+			public void accept(String reply, Throwable error) {
+				stats.recordCommand(verb, System.nanoTime() - start);
+			}
+		});
+	}
+
+	/**
+	 * Puts the tag in front of every line of the reply.
+	 *
+	 * @param tag the tag, without the "@"
+	 * @param reply the reply
+	 * @return the tagged reply
+	 */
+	private static String tag(String tag, String reply){
+		StringBuilder builder = new StringBuilder(reply.length() + 16);
+		int from = 0;
+		while(from < reply.length()){
+			int next = reply.indexOf('\n', from);
+			next = (next < 0) ? reply.length() : (next + 1);
+			builder.append('@').append(tag).append(' ').append(reply, from, next);
+			from = next;
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Starts pushing the events of the Topics to the user.
+	 *
+	 * @param topics the Topics
+	 */
+	public void subscribe(Set<Events.Topic> topics){
+		synchronized (eventLock) {
+			if(closed){
+				return;
+			}
+			for(Events.Topic topic: topics){
+				if(subscribed.add(topic)){
+					jukebox.getEvents().subscribe(topic, pushSubscriber);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops pushing the events of the Topics to the user.
+	 *
+	 * @param topics the Topics
+	 */
+	public void unsubscribe(Set<Events.Topic> topics){
+		synchronized (eventLock) {
+			for(Events.Topic topic: topics){
+				if(subscribed.remove(topic)){
+					jukebox.getEvents().unsubscribe(topic, pushSubscriber);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next event of one of the Topics.
+	 * The events of all Topics are collected from the first call on; if events of the Topics have been published
+	 * since the last call, the reply is there immediately. Only the last event of each Topic is kept.
+	 *
+	 * @param topics the Topics
+	 * @param ack the command and its parameters, for the ACK
+	 * @return a future which is completed with the reply: the events, followed by the ACK; it is cancelled if the
+	 * session is closed or expires meanwhile (see cancelIdle())
+	 */
+	public CompletableFuture<String> idle(Set<Events.Topic> topics, final String ack){
+		CompletableFuture<String> reply = new CompletableFuture<>();
+		String events;
+		synchronized (eventLock) {
+			if(closed){
+				reply.cancel(false);
+				return reply;
+			}
+			if(!idleSubscribed){
+				for(Events.Topic topic: Events.Topic.values()){
+					jukebox.getEvents().subscribe(topic, idleSubscriber);
+				}
+				idleSubscribed = true;
+			}
+			events = takeIdleEvents(topics);
+			if(events == null){
+				idleTopics = topics;
+				idleReply = reply;
+			}
+		}
+
+		if(events != null){
+			reply.complete(events);
+		}
+		return reply.thenApply(new Function<String, String>() {
+
+			@Override
+			public String apply(String events) {
+				return events + "ACK: " + ack + System.lineSeparator();
+			}
+		});
+	}
+
+	/**
+	 * Stops waiting for events, e.g. because the session has expired or its connection has been closed: A waiting
+	 * IDLE is cancelled, so that the network layer does not wait for an event which might never come.
+	 */
+	public void cancelIdle(){
+		CompletableFuture<String> reply;
+		synchronized (eventLock) {
+			reply = idleReply;
+			idleReply = null;
+			idleTopics = null;
+		}
+		if(reply != null){
+			reply.cancel(false);
+		}
+	}
+
+	/**
+	 * Collects an event for IDLE, and completes the waiting IDLE if it has been waiting for its Topic.
+	 *
+	 * @param topic the Topic
+	 * @param event the event
+	 */
+	private void idled(Events.Topic topic, String event){
+		CompletableFuture<String> reply = null;
+		String events = null;
+		synchronized (eventLock) {
+			idleEvents.put(topic, event);
+			if((idleReply != null) && idleTopics.contains(topic)){
+				events = takeIdleEvents(idleTopics);
+				reply = idleReply;
+				idleReply = null;
+				idleTopics = null;
+			}
+		}
+
+		// completed outside of the lock, since the network layer continues with the session right away
+		if(reply != null){
+			reply.complete(events);
+		}
+	}
+
+	/**
+	 * Removes the collected events of the Topics. The caller has to hold the eventLock.
+	 *
+	 * @param topics the Topics
+	 * @return the events, one line each, or NULL if there are none
+	 */
+	private String takeIdleEvents(Set<Events.Topic> topics){
+		StringBuilder builder = null;
+		for(Events.Topic topic: topics){
+			String event = idleEvents.remove(topic);
+			if(event != null){
+				if(builder == null){
+					builder = new StringBuilder();
+				}
+				builder.append(event(topic, event)).append(System.lineSeparator());
+			}
+		}
+		return (builder == null) ? null : builder.toString();
+	}
+
+	/**
+	 * Formats an event as it is sent to the user: "EVENT topic event".
+	 *
+	 * @param topic the Topic
+	 * @param event the event
+	 * @return the line
+	 */
+	private static String event(Events.Topic topic, String event){
+		return "EVENT " + topic.getName() + " " + event;
+	}
+
+	/**
+	 * Writes the reply for a line which does not form a valid command.
+	 *
+	 * @param request the received line
+	 * @param writer the writer in which to write the reply
+	 */
+	public void notRecognised(Request request, PrintWriter writer){
+		Stats.getInstance().error();
+		writer.println("NACK (Command not recognised): " + request.getLine());
+	}
+
+	/**
+	 * Logs a command which has failed unexpectedly (i.e. a bug), and writes the reply for it, so that the session
+	 * can go on with its next line.
+	 *
+	 * @param line the received line
+	 * @param e the exception thrown by handleLine()
+	 * @param writer the writer in which to write the reply
+	 */
+	public void failed(String line, RuntimeException e, PrintWriter writer){
+		Stats.getInstance().error();
+		Log.getInstance().error("[" + id + "] Could not handle: " + line, e);
+		String message = (e.getMessage() != null) ? e.getMessage() : e.getClass().getSimpleName();
+		writer.println("NACK (" + message + "): " + line);
+	}
+
+	/**
+	 * Hands the action over to the PlayerQueue.
+	 * In queued mode, the reply is written immediately and a failure of the Player is only logged.
+	 * Otherwise, a future is returned which is completed with the reply once the Player has executed the action.
+	 *
+	 * @param command the name of the command, for the NACK
+	 * @param ack the command and its parameters, for the ACK
+	 * @param task the action on the Player
+	 * @param writer the writer in which to write an immediate reply
+	 * @return NULL in queued mode, the future which is completed with the reply otherwise
+	 */
+	public CompletableFuture<String> submit(final String command, final String ack, PlayerQueue.Task task, PrintWriter writer){
+		CompletableFuture<Void> done = jukebox.getPlayerQueue().submit(task);
+
+		if(queued){
+			writer.println("ACK (queued): " + ack);
+			done.whenComplete(new BiConsumer<Void, Throwable>() {
+
+				@Override
+				public void accept(Void result, Throwable error) {
+					if(error != null){
+						Log.getInstance().warn("[" + id + "] " + nack(command, error));
+					}
+				}
+			});
+			return null;
+		}
+
+		return done.handle(new BiFunction<Void, Throwable, String>() {
+
+			@Override
+			public String apply(Void result, Throwable error) {
+				String reply = (error == null) ? ("ACK: " + ack) : nack(command, error);
+				return reply + System.lineSeparator();
+			}
+		});
+	}
+
+	/**
+	 * Creates the NACK for a command which the Player failed to execute.
+	 *
+	 * @param command the name of the command
+	 * @param error the error thrown by the Player
+	 * @return the NACK
+	 */
+	private static String nack(String command, Throwable error){
+		Stats.getInstance().error();
+		if((error instanceof CompletionException) && (error.getCause() != null)){
+			error = error.getCause();
+		}
+		if(error instanceof UnsupportedOperationException){
+			return "NACK (Unsupported Operation): " + command;
+		}else if(error instanceof IOException){
+			return "NACK (" + error.getMessage() + "): " + command;
+		}
+		return "NACK (" + error + "): " + command;
+	}
+}
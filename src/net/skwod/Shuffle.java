@@ -0,0 +1,217 @@
+package net.skwod;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The order in which RANDOM plays the songs of the playlist: Every song is played once before any song is
+ * played again.
+ *
+ * The ids of the songs are kept in an array which is permuted lazily, like a Fisher-Yates shuffle that is
+ * interrupted after every step: The front of the array holds the songs which have been played in the current
+ * round, followed by the window of the next songs to play (which is fixed in advance, so that clients can see
+ * what comes next), followed by the songs whose turn has not been decided yet. Whenever a song is played, the
+ * window takes in a song chosen at random from the rest.
+ *
+ * New songs are inserted at random positions among the songs which have not been played yet, so they are
+ * played in the current round without reshuffling it.
+ * Every operation takes constant time (at most the size of the window), including the start of a new round,
+ * which never plays the song that has just been played first.
+ *
+ * The Shuffle is maintained by its Playlist and is not thread-safe either.
+ *
+ * @author Maxmanski
+ */
+public class Shuffle {
+
+	/** The number of songs which are decided in advance */
+	public static final int WINDOW = 16;
+
+	private final Random random;
+	private final Map<Long, Integer> slots;
+	private long[] order;
+	private int size;
+	private int played;
+	private int decided;
+	private long last;
+
+	Shuffle() {
+		this.random = new Random();
+		this.slots = new HashMap<>();
+		this.order = new long[16];
+		this.size = 0;
+		this.played = 0;
+		this.decided = 0;
+		this.last = -1;
+	}
+
+	/**
+	 * Returns the id of the song to play next, and marks it as played.
+	 * If all songs have been played, a new round is started.
+	 *
+	 * @return the id of the song, or -1 if the playlist is empty
+	 */
+	public long next(){
+		if(size == 0){
+			return -1;
+		}
+		if(played == size){
+			// a new round: forget the decisions of the last one
+			played = 0;
+			decided = 0;
+			fill();
+			if((order[0] == last) && (size > 1)){
+				swap(0, 1 + random.nextInt(size - 1));
+			}
+		}
+
+		long id = order[played];
+		played++;
+		decided--;
+		fill();
+		last = id;
+		return id;
+	}
+
+	/**
+	 * Returns the ids of the songs which are going to be played next, as far as they have been decided.
+	 *
+	 * @return the ids, at most WINDOW
+	 */
+	public long[] getUpcoming(){
+		if((played == size) && (size > 0)){
+			// the next round has not been decided yet
+			return new long[0];
+		}
+		return Arrays.copyOfRange(order, played, played + decided);
+	}
+
+	/**
+	 * Adds a song which has not been played in this round, at a random position among the songs which have not
+	 * been played yet (like a step of an inside-out Fisher-Yates shuffle). If that position is within the window,
+	 * the song is inserted there, and the last song of a full window becomes undecided again.
+	 *
+	 * @param id the id of the song
+	 */
+	void add(long id){
+		if(size == order.length){
+			order = Arrays.copyOf(order, size * 2);
+		}
+		order[size] = id;
+		slots.put(id, size);
+		size++;
+
+		int windowEnd = played + decided;
+		int slot = played + random.nextInt(size - played);
+		if(slot < windowEnd){
+			swap(windowEnd, size - 1);
+			for(int i=windowEnd; i>slot; i--){
+				swap(i, i - 1);
+			}
+			if(decided < WINDOW){
+				decided++;
+			}
+		}
+		fill();
+	}
+
+	/**
+	 * Removes a song, keeping the order of the window.
+	 *
+	 * @param id the id of the song
+	 */
+	void remove(long id){
+		Integer slot = slots.remove(id);
+		if(slot == null){
+			return;
+		}
+		int hole = slot;
+		int windowEnd = played + decided;
+
+		if(hole < played){
+			// move the window one step to the front, over the hole
+			move(played - 1, hole);
+			shift(played, windowEnd);
+			played--;
+			hole = windowEnd - 1;
+		}else if(hole < windowEnd){
+			shift(hole + 1, windowEnd);
+			decided--;
+			hole = windowEnd - 1;
+		}
+
+		// fill the hole with an undecided song
+		size--;
+		if(hole < size){
+			move(size, hole);
+		}
+		fill();
+	}
+
+	/**
+	 * Removes all songs and starts a new round.
+	 */
+	void clear(){
+		slots.clear();
+		size = 0;
+		played = 0;
+		decided = 0;
+	}
+
+	/**
+	 * Decides on the next songs, until the window is full or there are no undecided songs left.
+	 */
+	private void fill(){
+		if(played == size){
+			decided = 0;
+			return;
+		}
+		while((decided < WINDOW) && ((played + decided) < size)){
+			int slot = played + decided;
+			swap(slot, slot + random.nextInt(size - slot));
+			decided++;
+		}
+	}
+
+	/**
+	 * Moves the songs in the range one slot to the front.
+	 *
+	 * @param from the first slot to move
+	 * @param to the end of the range (exclusive)
+	 */
+	private void shift(int from, int to){
+		for(int i=from; i<to; i++){
+			move(i, i - 1);
+		}
+	}
+
+	/**
+	 * Moves the song from one slot to another one, overwriting it.
+	 *
+	 * @param from the slot of the song
+	 * @param to the new slot
+	 */
+	private void move(int from, int to){
+		if(from == to){
+			return;
+		}
+		order[to] = order[from];
+		slots.put(order[to], to);
+	}
+
+	/**
+	 * Swaps the songs in two slots.
+	 *
+	 * @param first the first slot
+	 * @param second the second slot
+	 */
+	private void swap(int first, int second){
+		long id = order[first];
+		order[first] = order[second];
+		order[second] = id;
+		slots.put(order[first], first);
+		slots.put(order[second], second);
+	}
+}
@@ -0,0 +1,36 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+
+/**
+ * ASYNC ON and ASYNC OFF: Switches the session between replying to player commands as soon as they are queued,
+ * and replying once the Player has executed them.
+ *
+ * @author Maxmanski
+ */
+final class AsyncCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(request.argumentsEqual("on")){
+			session.setQueued(true);
+			writer.println("ACK: ASYNC ON");
+		}else if(request.argumentsEqual("off")){
+			session.setQueued(false);
+			writer.println("ACK: ASYNC OFF");
+		}else{
+			session.notRecognised(request, writer);
+		}
+		return null;
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{
+				"ASYNC ON", "Replies to player commands as soon as they are queued (ACK (queued)), without waiting for the player",
+				"ASYNC OFF", "Replies to player commands once the player has executed them (default)"};
+	}
+}
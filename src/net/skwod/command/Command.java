@@ -0,0 +1,37 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+
+/**
+ * A command which can be sent by the user, e.g. PLAY or LIST.
+ * Commands are registered with the CommandRegistry under their verb, i.e. the first word of the line.
+ *
+ * A Command does not have any state of its own: It is shared by all sessions, and may be executed by several
+ * of them at the same time.
+ *
+ * @author Maxmanski
+ */
+public interface Command {
+
+	/**
+	 * Executes the command and writes the reply into the writer.
+	 * A command which has to wait for the Player writes nothing and returns a future instead, which is completed
+	 * with the reply (see Session.handleLine()).
+	 *
+	 * @param session the session which sent the command
+	 * @param request the received line
+	 * @param writer the writer in which to write the reply
+	 * @return NULL if the reply has been written into the writer, or a future which is completed with the reply
+	 */
+	CompletableFuture<String> execute(Session session, Request request, PrintWriter writer);
+
+	/**
+	 * Returns the description of the command for HELP: pairs of a usage and its explanation.
+	 *
+	 * @return the usages and their explanations, alternating
+	 */
+	String[] getHelp();
+}
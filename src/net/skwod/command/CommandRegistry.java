@@ -0,0 +1,255 @@
+package net.skwod.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Commands known to the server, keyed on their verbs.
+ *
+ * The verbs are kept in an open-addressing hash table, whose hash function ignores case. A Request is looked up
+ * directly on the characters of its verb, so finding its Command does not create any strings and takes the same
+ * time no matter how many Commands there are.
+ *
+ * Commands can be registered at any time; the table is replaced as a whole, so lookups never need a lock.
+ *
+ * @author Maxmanski
+ */
+public class CommandRegistry {
+
+	private static CommandRegistry instance = null;
+
+	/**
+	 * The immutable state of the registry: the hash table and the verbs in the order they were registered.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Table {
+
+		private final String[] verbs;
+		private final String[] canonical;
+		private final Command[] commands;
+		private final List<String> order;
+		private final List<String> aliasOf;
+
+		public Table(int capacity, List<String> order, List<String> aliasOf) {
+			this.verbs = new String[capacity];
+			this.canonical = new String[capacity];
+			this.commands = new Command[capacity];
+			this.order = order;
+			this.aliasOf = aliasOf;
+		}
+	}
+
+	private volatile Table table;
+
+	/**
+	 * Returns the registry which is used by all sessions, containing the built-in Commands.
+	 *
+	 * @return the shared CommandRegistry
+	 */
+	public static synchronized CommandRegistry getInstance(){
+		if(instance == null){
+			instance = new CommandRegistry();
+			instance.register("play", new SongsCommand(true));
+			instance.register("add", new SongsCommand(false));
+			instance.register("pause", PlayerCommand.PAUSE);
+			instance.register("next", PlayerCommand.NEXT);
+			instance.register("prev", PlayerCommand.PREV, "previous");
+			instance.register("rand", new RandomCommand(), "random");
+			instance.register("stop", new StopCommand());
+			instance.register("list", new ListCommand());
+			instance.register("search", new SearchCommand());
+			instance.register("playlist", new PlaylistCommand());
+			instance.register("remove", new RemoveCommand());
+			instance.register("move", new MoveCommand());
+			instance.register("jump", new JumpCommand());
+			instance.register("subscribe", new SubscribeCommand(true));
+			instance.register("unsubscribe", new SubscribeCommand(false));
+			instance.register("idle", new IdleCommand());
+			instance.register("stats", new StatsCommand());
+			instance.register("async", new AsyncCommand());
+			instance.register("help", new HelpCommand());
+			instance.register("exit", new ExitCommand());
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new, empty CommandRegistry.
+	 */
+	public CommandRegistry() {
+		this.table = new Table(8, new ArrayList<String>(), new ArrayList<String>());
+	}
+
+	/**
+	 * Registers the Command under the specified verb and aliases, replacing any Command which has been registered
+	 * under one of them before.
+	 *
+	 * @param verb the verb, case is ignored
+	 * @param command the Command
+	 * @param aliases further verbs for the same Command
+	 */
+	public synchronized void register(String verb, Command command, String... aliases){
+		Table old = table;
+		List<String> order = new ArrayList<>(old.order);
+		List<String> aliasOf = new ArrayList<>(old.aliasOf);
+		List<Command> commands = new ArrayList<>();
+		for(String existing: order){
+			commands.add(lookup(old, existing, 0, existing.length()));
+		}
+
+		String[] verbs = new String[aliases.length + 1];
+		verbs[0] = verb.toLowerCase();
+		for(int i=0; i<aliases.length; i++){
+			verbs[i + 1] = aliases[i].toLowerCase();
+		}
+		for(int i=0; i<verbs.length; i++){
+			int index = order.indexOf(verbs[i]);
+			if(index >= 0){
+				order.remove(index);
+				aliasOf.remove(index);
+				commands.remove(index);
+			}
+			order.add(verbs[i]);
+			aliasOf.add((i == 0) ? null : verbs[0]);
+			commands.add(command);
+		}
+
+		int capacity = 8;
+		while(capacity < (order.size() * 4)){
+			capacity *= 2;
+		}
+		Table updated = new Table(capacity, order, aliasOf);
+		for(int i=0; i<order.size(); i++){
+			String name = order.get(i);
+			int slot = hash(name, 0, name.length()) & (capacity - 1);
+			while(updated.verbs[slot] != null){
+				slot = (slot + 1) & (capacity - 1);
+			}
+			updated.verbs[slot] = name;
+			updated.canonical[slot] = (aliasOf.get(i) == null) ? name : aliasOf.get(i);
+			updated.commands[slot] = commands.get(i);
+		}
+		table = updated;
+	}
+
+	/**
+	 * Finds the Command for the verb of the Request.
+	 *
+	 * @param request the Request
+	 * @return the Command or NULL, if the verb is unknown
+	 */
+	public Command get(Request request){
+		return lookup(table, request.getSource(), request.getVerbStart(), request.getVerbEnd());
+	}
+
+	/**
+	 * Returns the verb under which the Command for the verb of the Request has been registered, i.e. the verb
+	 * itself in lower case, or the verb it is an alias of.
+	 *
+	 * @param request the Request
+	 * @return the registered verb or NULL, if the verb is unknown
+	 */
+	public String getVerb(Request request){
+		Table current = table;
+		int slot = find(current, request.getSource(), request.getVerbStart(), request.getVerbEnd());
+		return (slot < 0) ? null : current.canonical[slot];
+	}
+
+	/**
+	 * Returns the verbs of the registered Commands, without their aliases, in the order they were registered.
+	 *
+	 * @return the verbs
+	 */
+	public List<String> getVerbs(){
+		Table current = table;
+		List<String> verbs = new ArrayList<>();
+		for(int i=0; i<current.order.size(); i++){
+			if(current.aliasOf.get(i) == null){
+				verbs.add(current.order.get(i));
+			}
+		}
+		return verbs;
+	}
+
+	/**
+	 * Returns the aliases of the specified verb.
+	 *
+	 * @param verb the verb
+	 * @return the aliases, in the order they were registered
+	 */
+	public List<String> getAliases(String verb){
+		Table current = table;
+		List<String> aliases = new ArrayList<>();
+		for(int i=0; i<current.order.size(); i++){
+			if(verb.equals(current.aliasOf.get(i))){
+				aliases.add(current.order.get(i));
+			}
+		}
+		return aliases;
+	}
+
+	/**
+	 * Returns the Command registered under the specified verb.
+	 *
+	 * @param verb the verb, case is ignored
+	 * @return the Command or NULL, if the verb is unknown
+	 */
+	public Command get(String verb){
+		return lookup(table, verb, 0, verb.length());
+	}
+
+	/**
+	 * Looks the verb up in the hash table.
+	 *
+	 * @param table the table
+	 * @param source the string containing the verb
+	 * @param start the start of the verb
+	 * @param end the end of the verb (exclusive)
+	 * @return the Command or NULL, if the verb is unknown
+	 */
+	private static Command lookup(Table table, String source, int start, int end){
+		int slot = find(table, source, start, end);
+		return (slot < 0) ? null : table.commands[slot];
+	}
+
+	/**
+	 * Finds the slot of the verb in the hash table.
+	 *
+	 * @param table the table
+	 * @param source the string containing the verb
+	 * @param start the start of the verb
+	 * @param end the end of the verb (exclusive)
+	 * @return the slot or -1, if the verb is unknown
+	 */
+	private static int find(Table table, String source, int start, int end){
+		int mask = table.verbs.length - 1;
+		int length = end - start;
+		int slot = hash(source, start, end) & mask;
+
+		String verb;
+		while((verb = table.verbs[slot]) != null){
+			if((verb.length() == length) && verb.regionMatches(true, 0, source, start, length)){
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Computes the hash of the verb, ignoring case.
+	 *
+	 * @param source the string containing the verb
+	 * @param start the start of the verb
+	 * @param end the end of the verb (exclusive)
+	 * @return the hash
+	 */
+	private static int hash(String source, int start, int end){
+		int hash = 0;
+		for(int i=start; i<end; i++){
+			hash = (31 * hash) + Character.toLowerCase(source.charAt(i));
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
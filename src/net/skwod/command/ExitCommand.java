@@ -0,0 +1,31 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+
+/**
+ * EXIT: Terminates the session.
+ *
+ * @author Maxmanski
+ */
+final class ExitCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(request.hasArguments()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		writer.println("ACK: EXIT");
+		session.terminate();
+		return null;
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"EXIT", "Terminates the session"};
+	}
+}
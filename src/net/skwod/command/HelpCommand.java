@@ -0,0 +1,42 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+
+/**
+ * HELP: Shows an overview over the registered commands, in the order they were registered.
+ *
+ * @author Maxmanski
+ */
+final class HelpCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(request.hasArguments()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		CommandRegistry commands = session.getCommands();
+		for(String verb: commands.getVerbs()){
+			String[] help = commands.get(verb).getHelp();
+			for(int i=0; (i + 1)<help.length; i+=2){
+				writer.println(help[i]);
+				writer.println("\t" + help[i + 1]);
+			}
+			for(String alias: commands.getAliases(verb)){
+				writer.println(alias.toUpperCase());
+				writer.println("\tSame as " + verb.toUpperCase());
+			}
+		}
+		writer.println("ACK: HELP");
+		return null;
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"HELP", "Shows this overview"};
+	}
+}
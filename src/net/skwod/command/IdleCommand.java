@@ -0,0 +1,32 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Session;
+
+/**
+ * IDLE topics: Waits until there are events of the topics (see SUBSCRIBE), lists the last event of each of them
+ * and ends with "ACK: IDLE topics". The session does not handle any further lines while it is waiting.
+ *
+ * @author Maxmanski
+ */
+final class IdleCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		Set<Events.Topic> topics = SubscribeCommand.parseTopics(request);
+		if(topics == null){
+			session.notRecognised(request, writer);
+			return null;
+		}
+		return session.idle(topics, "IDLE" + SubscribeCommand.toString(topics));
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"IDLE topic1 topic2 ...", "Waits for the next events of the topics (default: all) and lists them"};
+	}
+}
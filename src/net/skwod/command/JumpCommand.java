@@ -0,0 +1,57 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * JUMP id: Starts playing the song with the specified id (see PLAYLIST OFFSET).
+ *
+ * @author Maxmanski
+ */
+final class JumpCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		final long id = request.hasArguments() ? PlaylistCommand.parseId(request.getArguments()) : -1;
+		if(id < 0){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		final Jukebox jukebox = session.getJukebox();
+		try {
+			PlaylistCommand.find(jukebox, id);
+		} catch (IOException e) {
+			writer.println("NACK (" + e.getMessage() + "): " + request.getLine());
+			return null;
+		}
+
+		return session.submit("JUMP", "JUMP " + id, new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				player.jump(PlaylistCommand.find(jukebox, id));
+				jukebox.lock();
+				try {
+					jukebox.setPlayback(Jukebox.Playback.PLAYING);
+					jukebox.setCurrentId(id);
+				} finally {
+					jukebox.unlock();
+				}
+				jukebox.getEvents().publish(Events.Topic.PLAYER, "JUMP " + id);
+			}
+		}, writer);
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"JUMP id", "Plays the song with the specified id from the playlist"};
+	}
+}
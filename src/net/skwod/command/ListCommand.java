@@ -0,0 +1,171 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+import net.skwod.library.Directory;
+import net.skwod.library.Entry;
+import net.skwod.library.Library;
+import net.skwod.library.ListingView;
+import net.skwod.stats.Stats;
+
+/**
+ * LIST directory: Lists the contents of the directory - folders first, then the music files.
+ * The directory is resolved against the Library like the songs of PLAY, and its contents are taken from the
+ * Library's cached, sorted view.
+ *
+ * A range of the contents can be requested with "LIST directory OFFSET n LIMIT m" (both are optional).
+ * The reply to such a request ends with "ACK: LIST OFFSET n LIMIT m TOTAL t CURSOR c PATH directory", where c is
+ * an opaque cursor for the following range ("-" if there is none), which can be requested with "LIST CURSOR c",
+ * optionally followed by another "LIMIT m".
+ * A cursor remembers the last entry it has been given for, so it continues at the right entry even if the
+ * directory has changed in the meantime.
+ *
+ * @author Maxmanski
+ */
+final class ListCommand implements Command {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char SEPARATOR = '\0';
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		Library library = session.getJukebox().getLibrary();
+
+		// the options follow the directory, which may contain spaces itself
+		String[] options = Request.takeOptions(request.getArguments(), "OFFSET", "LIMIT", "CURSOR");
+		String params = options[0];
+		String offsetOption = options[1];
+		String limitOption = options[2];
+		String cursorOption = options[3];
+
+		boolean paged = (offsetOption != null) || (limitOption != null) || (cursorOption != null);
+		int offset = Request.parseCount(offsetOption, 0);
+		int limit = Request.parseCount(limitOption, Integer.MAX_VALUE);
+		if((offset < 0) || (limit < 0)){
+			writer.println("NACK (OFFSET and LIMIT must be non-negative numbers): " + request.getLine());
+			return null;
+		}
+
+		Directory listDir;
+		ListingView view;
+
+		if(cursorOption != null){
+			if(!params.isEmpty() || (offsetOption != null)){
+				writer.println("NACK (CURSOR cannot be combined with a directory or OFFSET): " + request.getLine());
+				return null;
+			}
+			String[] cursor = decode(cursorOption);
+			listDir = (cursor == null) ? null : library.findDirectory(Request.splitPath(cursor[0]));
+			if(listDir == null){
+				writer.println("NACK (Invalid cursor): " + request.getLine());
+				return null;
+			}
+			view = library.getView(listDir);
+			offset = resume(view, cursor);
+
+		}else{
+			params = Request.unquote(params);
+			if(Request.containsDirUp(params)){
+				writer.println("NACK (Path must not contain \"..\"): " + request.getLine());
+				return null;
+			}
+			long start = System.nanoTime();
+			listDir = library.findDirectory(Request.splitPath(params));
+			Stats.getInstance().record(Stats.Phase.RESOLVE, System.nanoTime() - start);
+			if(listDir == null){
+				writer.println("NACK (Path does not exist): " + request.getLine());
+				return null;
+			}
+			view = library.getView(listDir);
+		}
+
+		int end = (int) Math.min(view.size(), (long) offset + limit);
+		for(int i=offset; i<end; i++){
+			Entry entry = view.get(i);
+			// print directories with "/" at the end
+			writer.println(entry.isDirectory() ? (entry.getName() + "/") : entry.getName());
+		}
+
+		String subPath = listDir.getPath();
+		subPath = subPath.replace('\\', '/');
+		if(subPath.startsWith("/")){
+			subPath = subPath.substring(1);
+		}
+
+		if(!paged){
+			writer.println("ACK: LIST " + subPath);
+		}else{
+			String next = (end < view.size()) ? encode(subPath, end, (end > 0) ? view.get(end - 1) : null) : "-";
+			writer.println("ACK: LIST OFFSET " + Math.min(offset, view.size()) + " LIMIT " + Math.max(0, end - offset)
+					+ " TOTAL " + view.size() + " CURSOR " + next + " PATH " + subPath);
+		}
+		return null;
+	}
+
+	/**
+	 * Determines where to continue for the decoded cursor: At the position the cursor was created for, if the
+	 * entry before it is still the one the cursor remembers, or right after that entry's position otherwise.
+	 *
+	 * @param view the current view of the directory
+	 * @param cursor the decoded cursor
+	 * @return the position at which to continue
+	 */
+	private static int resume(ListingView view, String[] cursor){
+		int position = Integer.parseInt(cursor[1]);
+		boolean directory = cursor[2].equals("d");
+		String name = cursor[3];
+
+		if((position > 0) && (position <= view.size())){
+			Entry last = view.get(position - 1);
+			if((last.isDirectory() == directory) && last.getName().equals(name)){
+				return position;
+			}
+		}
+		return view.indexAfter(directory, name);
+	}
+
+	/**
+	 * Creates the cursor for continuing after the specified entry.
+	 *
+	 * @param path the path of the directory, relative to the music directory
+	 * @param position the position at which to continue
+	 * @param last the entry before that position, or NULL if the position is the first one
+	 * @return the cursor
+	 */
+	private static String encode(String path, int position, Entry last){
+		String cursor = path + SEPARATOR + position + SEPARATOR;
+		cursor += (last == null) ? ("d" + SEPARATOR) : ((last.isDirectory() ? "d" : "f") + SEPARATOR + last.getName());
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(UTF8));
+	}
+
+	/**
+	 * Decodes the cursor.
+	 *
+	 * @param cursor the cursor
+	 * @return the path, position, type and name of the last entry, or NULL if the cursor is invalid
+	 */
+	private static String[] decode(String cursor){
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(cursor), UTF8);
+			String[] parts = decoded.split(String.valueOf(SEPARATOR), 4);
+			if((parts.length != 4) || (Integer.parseInt(parts[1]) < 0)){
+				return null;
+			}
+			return parts;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{
+				"LIST directory", "Lists the contents of the directory - folders first",
+				"LIST directory OFFSET n LIMIT m", "Lists m entries of the directory, starting with the n-th; the reply contains a CURSOR for the following entries",
+				"LIST CURSOR c LIMIT m", "Lists the following m entries"};
+	}
+}
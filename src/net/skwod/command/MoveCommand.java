@@ -0,0 +1,83 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * MOVE id position: Moves the song with the specified id (see PLAYLIST OFFSET) to the specified position of
+ * the playlist, starting at 0.
+ *
+ * @author Maxmanski
+ */
+final class MoveCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		List<String> arguments = request.getWords();
+		final long id = (arguments.size() == 2) ? PlaylistCommand.parseId(arguments.get(0)) : -1;
+		final int to = (arguments.size() == 2) ? Request.parseCount(arguments.get(1), -1) : -1;
+		if((id < 0) || (to < 0)){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		final Jukebox jukebox = session.getJukebox();
+		try {
+			PlaylistCommand.find(jukebox, id);
+			checkPosition(jukebox, to);
+		} catch (IOException e) {
+			writer.println("NACK (" + e.getMessage() + "): " + request.getLine());
+			return null;
+		}
+
+		return session.submit("MOVE", "MOVE " + id + " " + to, new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				// the playlist is only changed by queued actions, so the positions cannot change meanwhile
+				int from = PlaylistCommand.find(jukebox, id);
+				checkPosition(jukebox, to);
+				player.move(from, to);
+
+				jukebox.lock();
+				try {
+					jukebox.getPlaylist().move(from, to);
+				} finally {
+					jukebox.unlock();
+				}
+			}
+		}, writer);
+	}
+
+	/**
+	 * Checks that the position is part of the playlist.
+	 *
+	 * @param jukebox the Jukebox, whose lock must not be held
+	 * @param position the position
+	 * @throws IOException if the playlist is too short
+	 */
+	private static void checkPosition(Jukebox jukebox, int position) throws IOException {
+		int size;
+		jukebox.lock();
+		try {
+			size = jukebox.getPlaylist().size();
+		} finally {
+			jukebox.unlock();
+		}
+		if(position >= size){
+			throw new IOException("Position out of range");
+		}
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"MOVE id position", "Moves the song with the specified id to the position in the playlist (starting at 0)"};
+	}
+}
@@ -0,0 +1,103 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * A command without arguments which performs a single action on the Player, e.g. PAUSE or NEXT.
+ *
+ * @author Maxmanski
+ */
+final class PlayerCommand implements Command {
+
+	static final PlayerCommand PLAY = new PlayerCommand("PLAY", "Resume playback or re-start playback", Jukebox.Playback.PLAYING, 0, new PlayerQueue.Task() {
+
+		@Override
+		public void execute(Player player) throws IOException {
+			player.play();
+		}
+	});
+
+	static final PlayerCommand PAUSE = new PlayerCommand("PAUSE", "Pause playback", Jukebox.Playback.PAUSED, 0, new PlayerQueue.Task() {
+
+		@Override
+		public void execute(Player player) throws IOException {
+			player.pause();
+		}
+	});
+
+	static final PlayerCommand NEXT = new PlayerCommand("NEXT", "Skips to the next song", null, 1, new PlayerQueue.Task() {
+
+		@Override
+		public void execute(Player player) throws IOException {
+			player.next();
+		}
+	});
+
+	static final PlayerCommand PREV = new PlayerCommand("PREV", "Skips to the previous song", null, -1, new PlayerQueue.Task() {
+
+		@Override
+		public void execute(Player player) throws IOException {
+			player.previous();
+		}
+	});
+
+	private final String name;
+	private final String description;
+	private final Jukebox.Playback playback;
+	private final int step;
+	private final PlayerQueue.Task task;
+
+	/**
+	 * @param name the name of the command
+	 * @param description the description for HELP
+	 * @param playback the Playback after the action, or NULL if it is not changed
+	 * @param step the number of positions by which the action moves the current song within the playlist
+	 * @param task the action
+	 */
+	private PlayerCommand(String name, String description, Jukebox.Playback playback, int step, PlayerQueue.Task task) {
+		this.name = name;
+		this.description = description;
+		this.playback = playback;
+		this.step = step;
+		this.task = task;
+	}
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(request.hasArguments()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+		final Jukebox jukebox = session.getJukebox();
+		return session.submit(name, name, new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				task.execute(player);
+				jukebox.lock();
+				try {
+					if(playback != null){
+						jukebox.setPlayback(playback);
+					}
+					jukebox.skip(step);
+				} finally {
+					jukebox.unlock();
+				}
+				jukebox.getEvents().publish(Events.Topic.PLAYER, name);
+			}
+		}, writer);
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{name, description};
+	}
+}
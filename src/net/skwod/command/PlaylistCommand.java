@@ -0,0 +1,146 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Jukebox;
+import net.skwod.Playlist;
+import net.skwod.Session;
+
+/**
+ * PLAYLIST: Lists all songs from the current playlist.
+ *
+ * A range of the playlist can be requested with "PLAYLIST OFFSET n LIMIT m" (both are optional), which lists
+ * every song together with its id (separated by a tab) and ends with
+ * "ACK: PLAYLIST OFFSET n LIMIT m TOTAL t VERSION v".
+ * "PLAYLIST SINCE v" lists the changes since version v instead (see Playlist.getChanges()), and ends with
+ * "ACK: PLAYLIST SINCE v VERSION w"; if they are no longer known, the whole playlist has to be fetched again.
+ *
+ * @author Maxmanski
+ */
+final class PlaylistCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		String[] options = Request.takeOptions(request.getArguments(), "OFFSET", "LIMIT", "SINCE");
+		String offsetOption = options[1];
+		String limitOption = options[2];
+		String sinceOption = options[3];
+		if(!options[0].isEmpty()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		Jukebox jukebox = session.getJukebox();
+
+		if(sinceOption != null){
+			long since = parseId(sinceOption);
+			if((since < 0) || (offsetOption != null) || (limitOption != null)){
+				session.notRecognised(request, writer);
+				return null;
+			}
+
+			List<String> changes;
+			long version;
+			jukebox.lock();
+			try {
+				changes = jukebox.getPlaylist().getChanges(since);
+				version = jukebox.getPlaylist().getVersion();
+			} finally {
+				jukebox.unlock();
+			}
+			if(changes == null){
+				writer.println("NACK (Version not available, fetch the whole PLAYLIST): " + request.getLine());
+				return null;
+			}
+			for(String change: changes){
+				writer.println(change);
+			}
+			writer.println("ACK: PLAYLIST SINCE " + since + " VERSION " + version);
+			return null;
+		}
+
+		if((offsetOption != null) || (limitOption != null)){
+			int offset = Request.parseCount(offsetOption, 0);
+			int limit = Request.parseCount(limitOption, Integer.MAX_VALUE);
+			if((offset < 0) || (limit < 0)){
+				writer.println("NACK (OFFSET and LIMIT must be non-negative numbers): " + request.getLine());
+				return null;
+			}
+
+			jukebox.lock();
+			try {
+				Playlist playlist = jukebox.getPlaylist();
+				int start = Math.min(offset, playlist.size());
+				int end = (int) Math.min(playlist.size(), (long) start + limit);
+				for(int i=start; i<end; i++){
+					Playlist.Item item = playlist.get(i);
+					writer.println(item.getId() + "\t" + Request.unquote(item.getSong()));
+				}
+				writer.println("ACK: PLAYLIST OFFSET " + start + " LIMIT " + (end - start) + " TOTAL " + playlist.size()
+						+ " VERSION " + playlist.getVersion());
+			} finally {
+				jukebox.unlock();
+			}
+			return null;
+		}
+
+		jukebox.lock();
+		try {
+			for(Playlist.Item item: jukebox.getPlaylist().getItems()){
+				String tmp = Request.unquote(item.getSong());
+				writer.println(tmp);
+			}
+		} finally {
+			jukebox.unlock();
+		}
+		writer.println("ACK: PLAYLIST");
+		return null;
+	}
+
+	/**
+	 * Parses the id of a song in the playlist (or a version of the playlist).
+	 *
+	 * @param value the id
+	 * @return the id, or -1 if it is not a valid number
+	 */
+	static long parseId(String value){
+		try {
+			return Math.max(-1, Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Finds the current position of the song with the specified id in the playlist.
+	 *
+	 * @param jukebox the Jukebox, whose lock must not be held
+	 * @param id the id of the song
+	 * @return the position
+	 * @throws IOException if there is no such song in the playlist (anymore)
+	 */
+	static int find(Jukebox jukebox, long id) throws IOException {
+		int position;
+		jukebox.lock();
+		try {
+			position = jukebox.getPlaylist().indexOf(id);
+		} finally {
+			jukebox.unlock();
+		}
+		if(position < 0){
+			throw new IOException("No such entry");
+		}
+		return position;
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{
+				"PLAYLIST", "Lists all songs from the current playlist",
+				"PLAYLIST OFFSET n LIMIT m", "Lists m songs of the playlist with their ids, starting with the n-th",
+				"PLAYLIST SINCE v", "Lists the changes of the playlist since version v"};
+	}
+}
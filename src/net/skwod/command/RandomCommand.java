@@ -0,0 +1,103 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Jukebox;
+import net.skwod.Playlist;
+import net.skwod.Session;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * RAND: Plays the next song of the playlist's Shuffle, so that every song is played once before any song is
+ * played again. This requires a Player which can jump to a position of its playlist (mpc, mpd and the simulated
+ * one); the others choose a random song on their own instead (foobar2000), without the Shuffle's guarantees,
+ * or do not support RAND at all (totem). An empty playlist is answered with a NACK.
+ *
+ * "RAND UPCOMING" lists the songs which are going to be played next (as far as they have been decided), each
+ * with its id, and ends with "ACK: RAND UPCOMING".
+ *
+ * @author Maxmanski
+ */
+final class RandomCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		final Jukebox jukebox = session.getJukebox();
+
+		if(request.hasArguments()){
+			if(!request.getArguments().trim().equalsIgnoreCase("UPCOMING")){
+				session.notRecognised(request, writer);
+				return null;
+			}
+
+			jukebox.lock();
+			try {
+				Playlist playlist = jukebox.getPlaylist();
+				for(long id: playlist.getShuffle().getUpcoming()){
+					writer.println(id + "\t" + Request.unquote(playlist.get(playlist.indexOf(id)).getSong()));
+				}
+			} finally {
+				jukebox.unlock();
+			}
+			writer.println("ACK: RAND UPCOMING");
+			return null;
+		}
+
+		return session.submit("RAND", "RAND", new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				if(!player.canJump()){
+					// the Player chooses on its own, so the Shuffle's round must not advance
+					player.random();
+					jukebox.lock();
+					try {
+						jukebox.setPlayback(Jukebox.Playback.PLAYING);
+						jukebox.setCurrentId(-1);
+					} finally {
+						jukebox.unlock();
+					}
+					jukebox.getEvents().publish(Events.Topic.PLAYER, "RAND");
+					return;
+				}
+
+				// the song is chosen when the Player gets to it, after the songs added before have arrived
+				long id;
+				int position;
+				jukebox.lock();
+				try {
+					Playlist playlist = jukebox.getPlaylist();
+					id = playlist.getShuffle().next();
+					position = playlist.indexOf(id);
+				} finally {
+					jukebox.unlock();
+				}
+				if(position < 0){
+					throw new IOException("Playlist is empty");
+				}
+
+				player.jump(position);
+				jukebox.lock();
+				try {
+					jukebox.setPlayback(Jukebox.Playback.PLAYING);
+					jukebox.setCurrentId(id);
+				} finally {
+					jukebox.unlock();
+				}
+				jukebox.getEvents().publish(Events.Topic.PLAYER, "RAND " + id);
+			}
+		}, writer);
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{
+				"RAND", "Plays a random song from the current playlist, which has not been played in this round"
+						+ " (with mpc, mpd or the simulated player; foobar2000 chooses on its own, totem is not supported)",
+				"RAND UPCOMING", "Lists the songs which RAND is going to play next"};
+	}
+}
@@ -0,0 +1,57 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * REMOVE id: Removes the song with the specified id (see PLAYLIST OFFSET) from the playlist.
+ *
+ * @author Maxmanski
+ */
+final class RemoveCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		final long id = request.hasArguments() ? PlaylistCommand.parseId(request.getArguments()) : -1;
+		if(id < 0){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		final Jukebox jukebox = session.getJukebox();
+		try {
+			PlaylistCommand.find(jukebox, id);
+		} catch (IOException e) {
+			writer.println("NACK (" + e.getMessage() + "): " + request.getLine());
+			return null;
+		}
+
+		return session.submit("REMOVE", "REMOVE " + id, new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				// the playlist is only changed by queued actions, so the position cannot change meanwhile
+				int position = PlaylistCommand.find(jukebox, id);
+				player.remove(position);
+
+				jukebox.lock();
+				try {
+					jukebox.getPlaylist().remove(position);
+				} finally {
+					jukebox.unlock();
+				}
+			}
+		}, writer);
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"REMOVE id", "Removes the song with the specified id from the playlist"};
+	}
+}
@@ -0,0 +1,324 @@
+package net.skwod.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single line received from the user, split into the verb (the first word) and the arguments (the rest).
+ *
+ * The line is tokenized in a single pass when the Request is created, which only records the boundaries of
+ * the verb and the arguments; strings are only created when a command asks for them.
+ *
+ * A line may start with a tag ("@" followed by anything but whitespace), which the client can use to match the
+ * reply to the request. The tag is not part of the line as seen by the commands.
+ *
+ * @author Maxmanski
+ */
+public final class Request {
+
+	private final String source;
+	private final String tag;
+	private final int start;
+	private final int end;
+	private final int verbEnd;
+	private final int argumentStart;
+
+	/**
+	 * Tokenizes the line. Leading and trailing whitespace is ignored, the tag ends at the first whitespace and the
+	 * verb ends at the first space.
+	 *
+	 * @param source the received line, without the line terminator
+	 */
+	public Request(String source) {
+		int start = 0;
+		int end = source.length();
+		while((start < end) && (source.charAt(start) <= ' ')){
+			start++;
+		}
+		while((end > start) && (source.charAt(end - 1) <= ' ')){
+			end--;
+		}
+
+		String tag = null;
+		if((start < end) && (source.charAt(start) == '@')){
+			int tagEnd = start + 1;
+			while((tagEnd < end) && (source.charAt(tagEnd) > ' ')){
+				tagEnd++;
+			}
+			tag = source.substring(start + 1, tagEnd);
+			start = tagEnd;
+			while((start < end) && (source.charAt(start) <= ' ')){
+				start++;
+			}
+		}
+
+		int verbEnd = start;
+		while((verbEnd < end) && (source.charAt(verbEnd) != ' ')){
+			verbEnd++;
+		}
+		int argumentStart = verbEnd;
+		while((argumentStart < end) && (source.charAt(argumentStart) <= ' ')){
+			argumentStart++;
+		}
+
+		this.source = source;
+		this.tag = tag;
+		this.start = start;
+		this.end = end;
+		this.verbEnd = verbEnd;
+		this.argumentStart = argumentStart;
+	}
+
+	/**
+	 * Returns the tag of the line, without the "@".
+	 *
+	 * @return the tag, or NULL if the line is not tagged
+	 */
+	public String getTag(){
+		return tag;
+	}
+
+	/**
+	 * Returns whether the line is empty (or consists of whitespace or a tag only).
+	 *
+	 * @return TRUE if the line is empty
+	 */
+	public boolean isEmpty(){
+		return start == end;
+	}
+
+	/**
+	 * Returns the trimmed line, without the tag.
+	 *
+	 * @return the line
+	 */
+	public String getLine(){
+		return source.substring(start, end);
+	}
+
+	/**
+	 * Appends the trimmed line (without the tag) to the builder, without creating a string for it.
+	 *
+	 * @param builder the builder
+	 * @return the builder
+	 */
+	public StringBuilder appendTo(StringBuilder builder){
+		return builder.append(source, start, end);
+	}
+
+	/**
+	 * Returns whether there is anything after the verb.
+	 *
+	 * @return TRUE if there are arguments
+	 */
+	public boolean hasArguments(){
+		return argumentStart < end;
+	}
+
+	/**
+	 * Returns everything after the verb, trimmed.
+	 *
+	 * @return the arguments, or an empty string
+	 */
+	public String getArguments(){
+		return source.substring(argumentStart, end);
+	}
+
+	/**
+	 * Checks whether the arguments are equal to the specified string, ignoring case.
+	 *
+	 * @param argument the string to compare with
+	 * @return TRUE if the arguments match
+	 */
+	public boolean argumentsEqual(String argument){
+		return ((end - argumentStart) == argument.length()) && source.regionMatches(true, argumentStart, argument, 0, argument.length());
+	}
+
+	/**
+	 * Splits the arguments at every ';' and ':'.
+	 * Like String.split(), empty arguments are kept, unless they are at the end.
+	 *
+	 * @return the separate arguments (untrimmed)
+	 */
+	public List<String> getArgumentList(){
+		return split(source, argumentStart, end, ';', ':');
+	}
+
+	/**
+	 * Splits the arguments at whitespace, e.g. for commands which take several numbers or keywords.
+	 * Unlike getArgumentList(), there are no empty words.
+	 *
+	 * @return the words of the arguments
+	 */
+	public List<String> getWords(){
+		List<String> words = new ArrayList<>();
+		int from = argumentStart;
+		while(from < end){
+			int wordEnd = from;
+			while((wordEnd < end) && (source.charAt(wordEnd) > ' ')){
+				wordEnd++;
+			}
+			words.add(source.substring(from, wordEnd));
+			from = wordEnd;
+			while((from < end) && (source.charAt(from) <= ' ')){
+				from++;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the line this Request has been created from.
+	 *
+	 * @return the untrimmed line
+	 */
+	String getSource(){
+		return source;
+	}
+
+	/**
+	 * Returns the index in the source at which the verb starts.
+	 *
+	 * @return the start of the verb
+	 */
+	int getVerbStart(){
+		return start;
+	}
+
+	/**
+	 * Returns the index in the source at which the verb ends.
+	 *
+	 * @return the end of the verb (exclusive)
+	 */
+	int getVerbEnd(){
+		return verbEnd;
+	}
+
+	/**
+	 * Takes options of the form "KEYWORD value" from the end of the arguments, as long as their keywords are
+	 * among the specified ones (ignoring case) and have not been taken yet.
+	 *
+	 * @param arguments the arguments
+	 * @param keywords the keywords of the options
+	 * @return the remaining arguments, followed by the value of each keyword (NULL if it was not given)
+	 */
+	public static String[] takeOptions(String arguments, String... keywords){
+		String[] result = new String[keywords.length + 1];
+
+		while(true){
+			int valueStart = arguments.lastIndexOf(' ') + 1;
+			if(valueStart == 0){
+				break;
+			}
+			String keywordPart = arguments.substring(0, valueStart - 1).trim();
+			int keywordStart = keywordPart.lastIndexOf(' ') + 1;
+			String keyword = keywordPart.substring(keywordStart);
+
+			int index = -1;
+			for(int i=0; i<keywords.length; i++){
+				if(keyword.equalsIgnoreCase(keywords[i]) && (result[i + 1] == null)){
+					index = i;
+				}
+			}
+			if(index < 0){
+				break;
+			}
+			result[index + 1] = arguments.substring(valueStart);
+			arguments = keywordPart.substring(0, keywordStart).trim();
+		}
+
+		result[0] = arguments;
+		return result;
+	}
+
+	/**
+	 * Parses the value of an option which has to be a non-negative number.
+	 *
+	 * @param value the value, or NULL if the option was not given
+	 * @param defaultValue the value to use if the option was not given
+	 * @return the parsed value, or -1 if it is not a valid number
+	 */
+	public static int parseCount(String value, int defaultValue){
+		if(value == null){
+			return defaultValue;
+		}
+		try {
+			return Math.max(-1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Splits the path at every '/' and '\'.
+	 * Like String.split(), empty parts are kept, unless they are at the end.
+	 *
+	 * @param path the path
+	 * @return the parts of the path
+	 */
+	public static String[] splitPath(String path){
+		List<String> parts = split(path, 0, path.length(), '/', '\\');
+		return parts.toArray(new String[parts.size()]);
+	}
+
+	/**
+	 * Splits the specified range of the string at every occurrence of either separator.
+	 * Like String.split(), empty parts are kept, unless they are at the end; a range without any separator is
+	 * returned as a whole, even if it is empty.
+	 *
+	 * @param source the string
+	 * @param start the start of the range
+	 * @param end the end of the range (exclusive)
+	 * @param separator the first separator
+	 * @param otherSeparator the second separator
+	 * @return the parts
+	 */
+	private static List<String> split(String source, int start, int end, char separator, char otherSeparator){
+		List<String> parts = new ArrayList<>();
+		int from = start;
+		int kept = 0;
+
+		for(int i=start; i<=end; i++){
+			if((i == end) || (source.charAt(i) == separator) || (source.charAt(i) == otherSeparator)){
+				parts.add(source.substring(from, i));
+				if(i > from){
+					kept = parts.size();
+				}
+				from = i + 1;
+			}
+		}
+
+		if(parts.size() == 1){
+			return parts;
+		}
+		return parts.subList(0, kept);
+	}
+
+	/**
+	 * Eliminates leading and trailing quotes from the specified String.
+	 *
+	 * @param string the String to remove leading and trailing quotes from
+	 * @return the String without the first leading and trailing quote.
+	 */
+	public static String unquote(String string){
+		string = string.trim();
+		if(string.startsWith("\"") || string.startsWith("'")){
+			string = string.substring(1);
+		}
+		if(string.endsWith("\"") || string.endsWith("'")){
+			string = string.substring(0, string.length() - 1);
+		}
+		return string;
+	}
+
+	/**
+	 * Checks if the specified string contains something that could be interpreted as a directory-up
+	 * ("../" or "..\").
+	 *
+	 * @param str the String to check
+	 * @return TRUE if a directory-up is contained, false otherwise
+	 */
+	public static boolean containsDirUp(String str){
+		return (str.equals("..") || str.contains("../") || str.contains("..\\"));
+	}
+}
@@ -0,0 +1,60 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+import net.skwod.library.TagIndex;
+import net.skwod.library.Track;
+
+/**
+ * SEARCH words: Lists the music files whose title, artist or album contain all of the words (or words starting
+ * with them), best matches first. Every result is printed as its path (which can be passed to PLAY and ADD),
+ * artist, album and title, separated by tabs.
+ *
+ * Like LIST, the results can be paged with "SEARCH words OFFSET n LIMIT m"; without a LIMIT, the first
+ * DEFAULT_LIMIT results are listed. The reply ends with "ACK: SEARCH OFFSET n LIMIT m TOTAL t QUERY words".
+ *
+ * @author Maxmanski
+ */
+final class SearchCommand implements Command {
+
+	private static final int DEFAULT_LIMIT = 50;
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		String[] options = Request.takeOptions(request.getArguments(), "OFFSET", "LIMIT");
+		String query = Request.unquote(options[0]);
+		int offset = Request.parseCount(options[1], 0);
+		int limit = Request.parseCount(options[2], DEFAULT_LIMIT);
+
+		if(query.isEmpty()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+		if((offset < 0) || (limit < 0)){
+			writer.println("NACK (OFFSET and LIMIT must be non-negative numbers): " + request.getLine());
+			return null;
+		}
+
+		TagIndex index = session.getJukebox().getLibrary().getTagIndex();
+		List<Track> results = index.search(query);
+
+		int start = Math.min(offset, results.size());
+		int end = (int) Math.min(results.size(), (long) start + limit);
+		for(int i=start; i<end; i++){
+			Track track = results.get(i);
+			writer.println(track.getPath() + "\t" + track.getArtist() + "\t" + track.getAlbum() + "\t" + track.getTitle());
+		}
+		writer.println("ACK: SEARCH OFFSET " + start + " LIMIT " + (end - start) + " TOTAL " + results.size() + " QUERY " + query);
+		return null;
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{
+				"SEARCH words", "Lists the songs whose title, artist or album contain all of the words, best matches first",
+				"SEARCH words OFFSET n LIMIT m", "Lists m results, starting with the n-th"};
+	}
+}
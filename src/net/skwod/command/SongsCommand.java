@@ -0,0 +1,188 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Jukebox;
+import net.skwod.Playlist;
+import net.skwod.Session;
+import net.skwod.library.Directory;
+import net.skwod.library.Entry;
+import net.skwod.library.Library;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+import net.skwod.stats.Stats;
+
+/**
+ * PLAY song1;song2;... and ADD song1;song2;...: Creates a new playlist with the specified songs and starts
+ * playing, or adds the specified songs to the current playlist.
+ * Each song is resolved against the Library, where every part of its path only has to be a unique substring.
+ *
+ * PLAY without any songs resumes playback.
+ *
+ * @author Maxmanski
+ */
+final class SongsCommand implements Command {
+
+	private final boolean replace;
+	private final String name;
+
+	/**
+	 * Creates the PLAY or the ADD command.
+	 *
+	 * @param replace TRUE for PLAY, which replaces the playlist, FALSE for ADD
+	 */
+	public SongsCommand(boolean replace) {
+		this.replace = replace;
+		this.name = replace ? "PLAY" : "ADD";
+	}
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(!request.hasArguments()){
+			if(replace){
+				return PlayerCommand.PLAY.execute(session, request, writer);
+			}
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		final Jukebox jukebox = session.getJukebox();
+		Library library = jukebox.getLibrary();
+		String musicDir = jukebox.getMusicDir();
+		String quote = "\"";
+
+		List<String> problems = new LinkedList<>();
+		List<String> usedParams = new LinkedList<>();
+		String ackParams = "";
+
+		long start = System.nanoTime();
+		for(String param: request.getArgumentList()){
+
+			if(Request.containsDirUp(param)){
+				problems.add(param);
+
+			}else{
+				param = Request.unquote(param.trim());
+				String[] pathSplit = Request.splitPath(param);
+
+				if(pathSplit.length == 0){
+					// nothing but separators
+					problems.add(param);
+
+				}else{
+					String[] pathParts = new String[pathSplit.length - 1];
+					for(int i=0; i<pathParts.length; i++){
+						pathParts[i] = pathSplit[i];
+					}
+					Directory dir = library.findDirectory(pathParts);
+
+					if(dir == null){
+						problems.add(param);
+
+					}else{
+
+						String fileName = pathSplit[pathSplit.length - 1];
+						Entry file = library.findFile(dir, fileName);
+
+						if(file == null){
+							problems.add(param);
+						}else{
+							param = file.getPath();
+						}
+					}
+				}
+			}
+
+			if(!problems.contains(param)){
+				param = (param.startsWith(musicDir)) ? param.substring(musicDir.length()) : param;
+				usedParams.add(param);
+
+				String tmp = param.replace('\\', '/');
+				ackParams += quote + tmp + quote + " ";
+			}
+		}
+
+		ackParams = ackParams.trim();
+		Stats.getInstance().record(Stats.Phase.RESOLVE, System.nanoTime() - start);
+
+		// execute if there were no problems
+		// tell the problem otherwise
+		if(problems.isEmpty() && !usedParams.isEmpty()){
+
+			// the playlist shows the songs as they were given, relative to the music directory
+			final List<String> songs = new ArrayList<>(usedParams);
+			final List<String> entries = new ArrayList<>();
+			for(String str: usedParams){
+				String tmp = Request.unquote(str.trim());
+				if(tmp.startsWith(musicDir)){
+					tmp = tmp.substring(musicDir.length());
+				}
+				if((tmp.startsWith("/") || tmp.startsWith("\\")) && (tmp.length() >= 1)){
+					tmp = tmp.substring(1);
+				}
+				entries.add(tmp);
+			}
+
+			return session.submit(name, name + " " + ackParams, new PlayerQueue.Task() {
+
+				@Override
+				public void execute(Player player) throws IOException {
+					if(replace){
+						player.playSongs(songs);
+					}else{
+						player.addSongs(songs);
+					}
+
+					// only reached if the player succeeded
+					jukebox.lock();
+					try {
+						Playlist playlist = jukebox.getPlaylist();
+						if(replace){
+							playlist.clear();
+						}
+						playlist.addAll(entries);
+						if(replace){
+							jukebox.setPlayback(Jukebox.Playback.PLAYING);
+							jukebox.setCurrentId(playlist.get(0).getId());
+						}
+					} finally {
+						jukebox.unlock();
+					}
+					if(replace){
+						jukebox.getEvents().publish(Events.Topic.PLAYER, "PLAY");
+					}
+				}
+			}, writer);
+
+		}else if(problems.isEmpty()){
+			writer.println("NACK (No songs found): " + request.getLine());
+
+		}else{
+			String problemString = "";
+			for(int i=0; i<problems.size(); i++){
+				problemString += problems.get(i);
+				if(i < (problems.size() - 1)){
+					problemString += "; ";
+				}
+			}
+			writer.println("NACK (" + problemString + "): " + request.getLine());
+		}
+		return null;
+	}
+
+	@Override
+	public String[] getHelp() {
+		if(replace){
+			return new String[]{
+					"PLAY song1;song2;...", "Create a new playlist with the specified songs and start playing",
+					"PLAY", "Resume playback or re-start playback"};
+		}
+		return new String[]{"ADD song1;song2;...", "Adds the specified songs to the current playlist"};
+	}
+}
@@ -0,0 +1,34 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Session;
+import net.skwod.stats.Stats;
+
+/**
+ * STATS: Lists the latencies of the commands and of the phases of handling them, and the counters of the
+ * server (see Stats.report()).
+ *
+ * @author Maxmanski
+ */
+final class StatsCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(request.hasArguments()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+		for(String line: Stats.getInstance().report()){
+			writer.println(line);
+		}
+		writer.println("ACK: STATS");
+		return null;
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"STATS", "Lists the latencies (p50, p99, p99.9 and maximum in microseconds) and counters of the server"};
+	}
+}
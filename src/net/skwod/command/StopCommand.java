@@ -0,0 +1,50 @@
+package net.skwod.command;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.player.Player;
+import net.skwod.player.PlayerQueue;
+
+/**
+ * STOP: Stops playback and deletes the current playlist.
+ *
+ * @author Maxmanski
+ */
+final class StopCommand implements Command {
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		if(request.hasArguments()){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		final Jukebox jukebox = session.getJukebox();
+		return session.submit("STOP", "STOP", new PlayerQueue.Task() {
+
+			@Override
+			public void execute(Player player) throws IOException {
+				player.stop();
+				jukebox.lock();
+				try {
+					jukebox.getPlaylist().clear();
+					jukebox.setPlayback(Jukebox.Playback.STOPPED);
+					jukebox.setCurrentId(-1);
+				} finally {
+					jukebox.unlock();
+				}
+				jukebox.getEvents().publish(Events.Topic.PLAYER, "STOP");
+			}
+		}, writer);
+	}
+
+	@Override
+	public String[] getHelp() {
+		return new String[]{"STOP", "Stops playback and deletes current playlist"};
+	}
+}
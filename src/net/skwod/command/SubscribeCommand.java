@@ -0,0 +1,90 @@
+package net.skwod.command;
+
+import java.io.PrintWriter;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import net.skwod.Events;
+import net.skwod.Session;
+
+/**
+ * SUBSCRIBE topics and UNSUBSCRIBE topics: Starts or stops pushing the events of the topics (playlist, player
+ * and library, all of them if none are given) to the session, as lines of the form "EVENT topic event".
+ *
+ * @author Maxmanski
+ */
+final class SubscribeCommand implements Command {
+
+	private final boolean subscribe;
+
+	/**
+	 * Creates either SUBSCRIBE or UNSUBSCRIBE.
+	 *
+	 * @param subscribe TRUE for SUBSCRIBE, FALSE for UNSUBSCRIBE
+	 */
+	public SubscribeCommand(boolean subscribe) {
+		this.subscribe = subscribe;
+	}
+
+	@Override
+	public CompletableFuture<String> execute(Session session, Request request, PrintWriter writer) {
+		Set<Events.Topic> topics = parseTopics(request);
+		if(topics == null){
+			session.notRecognised(request, writer);
+			return null;
+		}
+
+		if(subscribe){
+			session.subscribe(topics);
+		}else{
+			session.unsubscribe(topics);
+		}
+		writer.println("ACK: " + (subscribe ? "SUBSCRIBE" : "UNSUBSCRIBE") + toString(topics));
+		return null;
+	}
+
+	/**
+	 * Parses the topics given as the arguments of the request, separated by whitespace.
+	 *
+	 * @param request the request
+	 * @return the topics (all of them if none are given), or NULL if one of them is unknown
+	 */
+	static Set<Events.Topic> parseTopics(Request request){
+		if(!request.hasArguments()){
+			return EnumSet.allOf(Events.Topic.class);
+		}
+		Set<Events.Topic> topics = EnumSet.noneOf(Events.Topic.class);
+		for(String name: request.getWords()){
+			Events.Topic topic = Events.Topic.forName(name);
+			if(topic == null){
+				return null;
+			}
+			topics.add(topic);
+		}
+		return topics;
+	}
+
+	/**
+	 * Lists the names of the topics, each preceded by a blank.
+	 *
+	 * @param topics the topics
+	 * @return the names
+	 */
+	static String toString(Set<Events.Topic> topics){
+		StringBuilder builder = new StringBuilder();
+		for(Events.Topic topic: topics){
+			builder.append(' ').append(topic.getName());
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String[] getHelp() {
+		if(subscribe){
+			return new String[]{
+					"SUBSCRIBE topic1 topic2 ...", "Pushes the events of the topics (playlist, player, library; default: all) as they happen"};
+		}
+		return new String[]{"UNSUBSCRIBE topic1 topic2 ...", "Stops pushing the events of the topics (default: all)"};
+	}
+}
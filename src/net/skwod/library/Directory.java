@@ -0,0 +1,64 @@
+package net.skwod.library;
+
+/**
+ * A directory in the Library.
+ * The contents of a directory are held in an immutable Listing, which is replaced as a whole when the
+ * contents change. Readers therefore always see a consistent state without having to lock anything.
+ *
+ * A directory which is watched by a LibraryWatcher is known to be up to date; the Listings of all other
+ * directories have to be validated against the file system before they are relied upon.
+ *
+ * @author Maxmanski
+ */
+public class Directory extends Entry {
+
+	private volatile Listing listing;
+	private volatile boolean watched;
+
+	Directory(String name, Directory parent) {
+		super(name, parent);
+		this.listing = Listing.EMPTY;
+		this.watched = false;
+	}
+
+	@Override
+	public boolean isDirectory(){
+		return true;
+	}
+
+	/**
+	 * Returns the current contents of this directory.
+	 *
+	 * @return the current Listing
+	 */
+	public Listing getListing(){
+		return listing;
+	}
+
+	/**
+	 * Replaces the contents of this directory.
+	 *
+	 * @param listing the new Listing
+	 */
+	void setListing(Listing listing){
+		this.listing = listing;
+	}
+
+	/**
+	 * Returns whether a LibraryWatcher keeps this directory up to date.
+	 *
+	 * @return TRUE if this directory is being watched
+	 */
+	public boolean isWatched(){
+		return watched;
+	}
+
+	/**
+	 * Sets whether a LibraryWatcher keeps this directory up to date.
+	 *
+	 * @param watched TRUE if this directory is being watched
+	 */
+	void setWatched(boolean watched){
+		this.watched = watched;
+	}
+}
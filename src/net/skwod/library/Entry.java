@@ -0,0 +1,94 @@
+package net.skwod.library;
+
+import java.io.File;
+
+/**
+ * A file or directory in the Library.
+ * Its name is stored together with its lower-case version, so that lookups do not have to convert it again,
+ * and whether it is a music file is determined once when it is created.
+ *
+ * @author Maxmanski
+ */
+public class Entry {
+
+	private final String name;
+	private final String lowerName;
+	private final Directory parent;
+	private final boolean music;
+
+	Entry(String name, Directory parent) {
+		this.name = name;
+		this.lowerName = name.toLowerCase();
+		this.parent = parent;
+		this.music = isMusicName(lowerName);
+	}
+
+	/**
+	 * Returns whether a file with the specified lower-case name is a music file.
+	 *
+	 * @param lowerName the lower-case name
+	 * @return TRUE if the name ends with "mp3" or "wav"
+	 */
+	public static boolean isMusicName(String lowerName){
+		return lowerName.endsWith("mp3") || lowerName.endsWith("wav");
+	}
+
+	/**
+	 * Returns the name of the file or directory.
+	 *
+	 * @return the name
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * Returns the lower-case version of the name.
+	 *
+	 * @return the lower-case name
+	 */
+	public String getLowerName(){
+		return lowerName;
+	}
+
+	/**
+	 * Returns the directory which contains this entry, or NULL for the root directory of the Library.
+	 *
+	 * @return the containing directory
+	 */
+	public Directory getParent(){
+		return parent;
+	}
+
+	/**
+	 * Returns whether this entry is a directory.
+	 *
+	 * @return TRUE if this entry is a directory, FALSE if it is a file
+	 */
+	public boolean isDirectory(){
+		return false;
+	}
+
+	/**
+	 * Returns whether this entry is a music file.
+	 *
+	 * @return TRUE if this entry is a file with a music file extension
+	 */
+	public boolean isMusic(){
+		return music && !isDirectory();
+	}
+
+	/**
+	 * Returns the path of this entry relative to the root directory of the Library, using the system's
+	 * separator. The root directory's path is the empty String.
+	 *
+	 * @return the relative path
+	 */
+	public String getPath(){
+		if(parent == null){
+			return "";
+		}
+		String parentPath = parent.getPath();
+		return parentPath.isEmpty() ? name : (parentPath + File.separator + name);
+	}
+}
@@ -0,0 +1,667 @@
+package net.skwod.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An in-memory index of the music directory.
+ * The Library is built once by scanning the music directory, or loaded from a LibrarySnapshot and validated.
+ * Both are done by a ForkJoinPool, which splits the work by subdirectory; the number of threads and the number
+ * of directories which may be read at the same time can be tuned to the disks holding the music directory.
+ * Afterwards, names can be resolved against it without touching the file system, while a LibraryWatcher keeps
+ * it up to date.
+ *
+ * @author Maxmanski
+ */
+public class Library {
+
+	/** The default budget of the ListingCache, in bytes */
+	public static final long DEFAULT_LISTING_CACHE_SIZE = 16L * 1024 * 1024;
+
+	private static final ForkJoinPool.ForkJoinWorkerThreadFactory THREAD_FACTORY = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("rmc-scanner-" + thread.getPoolIndex());
+			return thread;
+		}
+	};
+
+	private final File rootFile;
+	private final Directory root;
+	private volatile ScanListener scanListener;
+	private volatile ForkJoinPool scanPool;
+	private volatile Semaphore ioPermits;
+	private volatile ScanProgress progress;
+	private final ListingCache listingCache;
+	private final TagIndex tagIndex;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a new, empty Library for the specified music directory. Use scan() to fill it.
+	 *
+	 * @param rootFile the music directory
+	 */
+	public Library(File rootFile) {
+		this.rootFile = rootFile;
+		this.root = new Directory(rootFile.getName(), null);
+		this.scanListener = null;
+		this.scanPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), THREAD_FACTORY, null, false);
+		this.ioPermits = new Semaphore(Integer.MAX_VALUE);
+		this.progress = new ScanProgress();
+		this.progress.finish();
+		this.listingCache = new ListingCache(this, DEFAULT_LISTING_CACHE_SIZE);
+		this.tagIndex = new TagIndex(this);
+		this.stopped = false;
+	}
+
+	/**
+	 * Sets the listener which is notified about every directory before it is scanned.
+	 *
+	 * @param scanListener the listener, or NULL
+	 */
+	void setScanListener(ScanListener scanListener){
+		this.scanListener = scanListener;
+	}
+
+	/**
+	 * Returns the music directory.
+	 *
+	 * @return the music directory
+	 */
+	public File getRootFile(){
+		return rootFile;
+	}
+
+	/**
+	 * Returns the root directory of the Library, i.e. the music directory.
+	 *
+	 * @return the root directory
+	 */
+	public Directory getRoot(){
+		return root;
+	}
+
+	/**
+	 * Returns the sorted view of the directory's contents, from the ListingCache.
+	 *
+	 * @param dir the directory
+	 * @return the ListingView
+	 */
+	public ListingView getView(Directory dir){
+		return listingCache.getView(dir);
+	}
+
+	/**
+	 * Sets the maximum estimated size of the sorted views which are kept in the ListingCache.
+	 *
+	 * @param bytes the budget in bytes
+	 */
+	public void setListingCacheSize(long bytes){
+		listingCache.setBudget(bytes);
+	}
+
+	/**
+	 * Returns the index of the tags of the music files. It has to be filled by running it.
+	 *
+	 * @return the TagIndex
+	 */
+	public TagIndex getTagIndex(){
+		return tagIndex;
+	}
+
+	/**
+	 * Returns the File in the file system that the specified entry stands for.
+	 *
+	 * @param entry the entry
+	 * @return the corresponding File
+	 */
+	public File toFile(Entry entry){
+		String path = entry.getPath();
+		return path.isEmpty() ? rootFile : new File(rootFile, path);
+	}
+
+	/**
+	 * Sets how many threads scan the music directory, and how many of them may read from the file system at the
+	 * same time. Scans which are already running keep their previous settings.
+	 *
+	 * @param threads the number of threads
+	 * @param queueDepth the maximum number of directories (or files) being read at the same time, 0 for no limit
+	 */
+	public void setScanParallelism(int threads, int queueDepth){
+		ForkJoinPool old = scanPool;
+		scanPool = new ForkJoinPool(Math.max(1, threads), THREAD_FACTORY, null, false);
+		ioPermits = new Semaphore((queueDepth > 0) ? queueDepth : Integer.MAX_VALUE);
+		old.shutdown();
+	}
+
+	/**
+	 * Stops the TagIndex, the LibraryWatcher (if there is one) and the threads of the scanner, once the Library
+	 * is no longer used (e.g. because the music directory has been changed). Scans and validations which are already running are abandoned: the
+	 * directories which have not been read yet are skipped, so the contents are incomplete afterwards.
+	 */
+	public void shutdown(){
+		stopped = true;
+		tagIndex.shutdown();
+		scanPool.shutdown();
+		ScanListener listener = scanListener;
+		if(listener != null){
+			listener.shutdown();
+		}
+	}
+
+	/**
+	 * Checks whether the Library has been shut down, e.g. to discard the result of an abandoned scan.
+	 *
+	 * @return TRUE if shutdown() has been called
+	 */
+	public boolean isShutdown(){
+		return stopped;
+	}
+
+	/**
+	 * Returns the progress of the current (or last) scan or validation of the entire Library.
+	 *
+	 * @return the ScanProgress
+	 */
+	public ScanProgress getProgress(){
+		return progress;
+	}
+
+	/**
+	 * Scans the entire music directory and replaces the contents of the Library.
+	 *
+	 * @return the number of entries found
+	 */
+	public int scan(){
+		if(stopped){
+			return 0;
+		}
+		ScanProgress progress = new ScanProgress();
+		this.progress = progress;
+		try {
+			Path path = toFile(root).toPath();
+			return invoke(new ScanTask(root, path, attributes(path), null, progress));
+		} finally {
+			progress.finish();
+		}
+	}
+
+	/**
+	 * Scans the specified directory recursively and replaces its contents.
+	 *
+	 * @param dir the directory to scan
+	 * @return the number of entries found
+	 */
+	int scan(Directory dir){
+		return scan(dir.getParent(), Collections.singletonList(dir), new ScanProgress());
+	}
+
+	/**
+	 * Scans the specified subdirectories of a directory recursively, in parallel, and replaces their contents.
+	 *
+	 * @param parent the directory containing the subdirectories, or NULL for the root directory
+	 * @param subDirs the subdirectories to scan
+	 * @param progress the progress to update
+	 * @return the number of entries found
+	 */
+	private int scan(Directory parent, List<Directory> subDirs, ScanProgress progress){
+		if(subDirs.isEmpty()){
+			return 0;
+		}
+		Ancestor ancestors = null;
+		for(Directory dir = parent; dir != null; dir = dir.getParent()){
+			Object key = fileKey(toFile(dir).toPath());
+			if(key != null){
+				ancestors = new Ancestor(key, ancestors);
+			}
+		}
+
+		final List<ScanTask> tasks = new ArrayList<>();
+		for(Directory subDir: subDirs){
+			Path path = toFile(subDir).toPath();
+			tasks.add(new ScanTask(subDir, path, attributes(path), ancestors, progress));
+		}
+		return invoke(new RecursiveTask<Integer>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Integer compute() {
+				int count = 0;
+				invokeAll(tasks);
+				for(ScanTask task: tasks){
+					count += task.join();
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Validates the contents of the Library (e.g. after they have been loaded from a LibrarySnapshot) against
+	 * the file system: Only directories whose modification time differs from the one of their Listing are read
+	 * again, and only their new subdirectories are scanned entirely.
+	 *
+	 * @return the number of directories which had to be read again
+	 */
+	public int validate(){
+		if(stopped){
+			return 0;
+		}
+		ScanProgress progress = new ScanProgress();
+		this.progress = progress;
+		try {
+			return invoke(new ValidateTask(root, progress));
+		} finally {
+			progress.finish();
+		}
+	}
+
+	/**
+	 * Reads the specified directory again if its modification time differs from the one of its Listing.
+	 * New subdirectories are scanned entirely, the other ones are left as they are.
+	 *
+	 * @param dir the directory
+	 * @return the directory's current Listing
+	 */
+	Listing refresh(Directory dir){
+		return update(dir, toFile(dir).toPath(), new HashSet<Directory>(), new ScanProgress());
+	}
+
+	/**
+	 * Reads the specified directory again if its modification time differs from the one of its Listing,
+	 * re-using the entries which are still there. New subdirectories are scanned entirely.
+	 *
+	 * @param dir the directory in the Library
+	 * @param path the directory in the file system
+	 * @param scanned the set to add the new subdirectories to
+	 * @param progress the progress to update
+	 * @return the directory's current Listing
+	 */
+	private Listing update(Directory dir, Path path, Set<Directory> scanned, ScanProgress progress){
+		Listing listing = dir.getListing();
+		long modified = lastModified(path);
+		if((modified >= 0) && (modified == listing.getModified())){
+			progress.add(0);
+			return listing;
+		}
+
+		List<Entry> entries = new ArrayList<>();
+		List<Directory> subDirs = new ArrayList<>();
+		Semaphore permits = acquireIo();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+			for(Path child: stream){
+				String name = child.getFileName().toString();
+				Entry old = listing.get(name);
+				BasicFileAttributes childAttributes = attributes(child);
+				if(childAttributes == null){
+					continue;
+				}
+				if(childAttributes.isDirectory()){
+					if((old != null) && old.isDirectory()){
+						entries.add(old);
+					}else{
+						Directory subDir = new Directory(name, dir);
+						entries.add(subDir);
+						subDirs.add(subDir);
+					}
+				}else if(childAttributes.isRegularFile()){
+					entries.add(((old != null) && !old.isDirectory()) ? old : new Entry(name, dir));
+				}
+			}
+		} catch (IOException e) {
+			// an unreadable directory is treated as empty
+		} finally {
+			permits.release();
+		}
+		progress.add(entries.size());
+
+		scanned.addAll(subDirs);
+		scan(dir, subDirs, progress);
+		listing = new Listing(entries, modified);
+		dir.setListing(listing);
+		return listing;
+	}
+
+	/**
+	 * Executes the task in the scanner's pool, or directly if the current thread is already part of it.
+	 *
+	 * @param task the task
+	 * @return the result of the task
+	 */
+	<T> T invoke(ForkJoinTask<T> task){
+		ForkJoinPool pool = scanPool;
+		Thread thread = Thread.currentThread();
+		if((thread instanceof ForkJoinWorkerThread) && (((ForkJoinWorkerThread) thread).getPool() == pool)){
+			return task.invoke();
+		}
+		return pool.invoke(task);
+	}
+
+	/**
+	 * Waits until the file system may be read, considering the maximum number of concurrent reads.
+	 *
+	 * @return the semaphore which has to be released after reading
+	 */
+	Semaphore acquireIo(){
+		Semaphore permits = ioPermits;
+		permits.acquireUninterruptibly();
+		return permits;
+	}
+
+	/**
+	 * The file keys of the directories which are being scanned further up, to detect cycles.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Ancestor {
+
+		private final Object key;
+		private final Ancestor parent;
+
+		public Ancestor(Object key, Ancestor parent) {
+			this.key = key;
+			this.parent = parent;
+		}
+
+		public boolean contains(Object key){
+			for(Ancestor ancestor = this; ancestor != null; ancestor = ancestor.parent){
+				if(ancestor.key.equals(key)){
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Scans a directory and forks a task for every subdirectory.
+	 * Symbolic links are followed, but directories that are already being scanned further up are skipped,
+	 * to prevent cycles.
+	 *
+	 * @author Maxmanski
+	 */
+	private final class ScanTask extends RecursiveTask<Integer> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Directory dir;
+		private final Path path;
+		private final BasicFileAttributes attributes;
+		private final Ancestor ancestors;
+		private final ScanProgress progress;
+
+		/**
+		 * @param dir the directory in the Library
+		 * @param path the directory in the file system
+		 * @param attributes the attributes of the directory, or NULL if they cannot be read
+		 * @param ancestors the directories which are being scanned further up
+		 * @param progress the progress to update
+		 */
+		public ScanTask(Directory dir, Path path, BasicFileAttributes attributes, Ancestor ancestors, ScanProgress progress) {
+			this.dir = dir;
+			this.path = path;
+			this.attributes = attributes;
+			this.ancestors = ancestors;
+			this.progress = progress;
+		}
+
+		@Override
+		protected Integer compute() {
+			if(stopped){
+				return 0;
+			}
+			Object key = (attributes != null) ? attributes.fileKey() : null;
+			long modified = (attributes != null) ? attributes.lastModifiedTime().toMillis() : -1;
+			if((key != null) && (ancestors != null) && ancestors.contains(key)){
+				return 0;
+			}
+			Ancestor chain = (key != null) ? new Ancestor(key, ancestors) : ancestors;
+
+			List<Entry> entries = new ArrayList<>();
+			List<ScanTask> subTasks = new ArrayList<>();
+
+			ScanListener listener = scanListener;
+			if(listener != null){
+				listener.scanning(dir, path);
+			}
+
+			Semaphore permits = acquireIo();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for(Path child: stream){
+					String name = child.getFileName().toString();
+					BasicFileAttributes childAttributes = attributes(child);
+					if(childAttributes == null){
+						continue;
+					}
+					if(childAttributes.isDirectory()){
+						Directory subDir = new Directory(name, dir);
+						entries.add(subDir);
+						subTasks.add(new ScanTask(subDir, child, childAttributes, chain, progress));
+					}else if(childAttributes.isRegularFile()){
+						entries.add(new Entry(name, dir));
+					}
+				}
+			} catch (IOException e) {
+				// an unreadable directory is treated as empty
+			} finally {
+				permits.release();
+			}
+			progress.add(entries.size());
+
+			int count = entries.size();
+			invokeAll(subTasks);
+			for(ScanTask task: subTasks){
+				count += task.join();
+			}
+			dir.setListing(new Listing(entries, modified));
+			return count;
+		}
+	}
+
+	/**
+	 * Validates a directory (see validate()) and forks a task for every subdirectory which has not been
+	 * scanned entirely.
+	 *
+	 * @author Maxmanski
+	 */
+	private final class ValidateTask extends RecursiveTask<Integer> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Directory dir;
+		private final ScanProgress progress;
+
+		public ValidateTask(Directory dir, ScanProgress progress) {
+			this.dir = dir;
+			this.progress = progress;
+		}
+
+		@Override
+		protected Integer compute() {
+			if(stopped){
+				return 0;
+			}
+			Path path = toFile(dir).toPath();
+			ScanListener listener = scanListener;
+			if(listener != null){
+				listener.scanning(dir, path);
+			}
+
+			Listing old = dir.getListing();
+			Set<Directory> scanned = new HashSet<>();
+			Listing listing = update(dir, path, scanned, progress);
+			int count = (listing != old) ? 1 : 0;
+
+			List<ValidateTask> subTasks = new ArrayList<>();
+			for(Entry entry: listing.getEntries()){
+				if(entry.isDirectory() && !scanned.contains(entry)){
+					subTasks.add(new ValidateTask((Directory) entry, progress));
+				}
+			}
+			invokeAll(subTasks);
+			for(ValidateTask task: subTasks){
+				count += task.join();
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Returns the attributes of the specified path, following symbolic links.
+	 *
+	 * @param path the path
+	 * @return the attributes or NULL, if they cannot be read
+	 */
+	private static BasicFileAttributes attributes(Path path){
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the file key of the specified path, following symbolic links.
+	 *
+	 * @param path the path
+	 * @return the file key or NULL, if it cannot be determined
+	 */
+	static Object fileKey(Path path){
+		BasicFileAttributes attributes = attributes(path);
+		return (attributes != null) ? attributes.fileKey() : null;
+	}
+
+	/**
+	 * Returns the modification time of the specified path, following symbolic links.
+	 *
+	 * @param path the path
+	 * @return the modification time in milliseconds or -1, if it cannot be determined
+	 */
+	static long lastModified(Path path){
+		BasicFileAttributes attributes = attributes(path);
+		return (attributes != null) ? attributes.lastModifiedTime().toMillis() : -1;
+	}
+
+	/**
+	 * Tries to find a directory, starting at the root directory, which is identified by the path parts.
+	 * Each path part does not have to (but can) match a subfolder's name exactly, but has to identify a subfolder uniquely.
+	 * If a subfolder cannot be identified uniquely, NULL will be returned.
+	 *
+	 * Example: For the following folder structure...
+	 * root/folder 1/subfolder/subsubfolder
+	 * root/folder 1/subfolder 1/
+	 * root/folder 2/subfolder/
+	 * root/forgotten folder/subfolder
+	 *
+	 * findDirectory({"fo", "subfolder"}) would return NULL - "fo" is not a unique substring in the names
+	 * of the subfolders of root - "folder 1", "folder 2" and "forgotten folder" contain it.
+	 *
+	 * findDirectory({"1", "1"}) would return "root/folder 1/subfolder 1" since both path parts uniquely
+	 * identify subfolders.
+	 *
+	 * findDirectory({"1", "subfolder"}) would return "root/folder 1/subfolder" since all path parts
+	 * uniquely identify subfolders or match their name exactly.
+	 *
+	 * @param pathParts an array containing the sequence of unique substrings from the names of subfolders
+	 * @return NULL if the construction of a unique path from the parts failed; the found directory otherwise
+	 */
+	public Directory findDirectory(String[] pathParts){
+		Directory dir = root;
+
+		for(String part: pathParts){
+			if(part.isEmpty() || part.equals(".")){
+				continue;
+
+			}else if(part.equals("..")){
+				dir = dir.getParent();
+				if(dir == null){
+					return null;
+				}
+				continue;
+			}
+
+			Listing listing = dir.getListing();
+			Entry exact = listing.get(part);
+			if(exact != null){
+				if(!exact.isDirectory()){
+					// the given directory name exists but is not a directory: problem
+					return null;
+				}
+				dir = (Directory) exact;
+
+			}else{
+				// the given directory name could be a substring
+				dir = listing.findUniqueDirectory(part.toLowerCase());
+				if(dir == null){
+					// it either does not exist or was not unique: problem
+					return null;
+				}
+			}
+		}
+
+		return dir;
+	}
+
+	/**
+	 * Checks if there exists a file in the given directory which is uniquely identified with the specified
+	 * file name. If such a file exists, it will be returned. Otherwise, NULL will be returned.
+	 *
+	 * First, a check is performed if the specified filename matches a file exactly.
+	 * If no file fits exactly, a count of all files whose names contain the specified file name as a substring
+	 * will be created. If this count is one (1), this file will be returned.
+	 * Otherwise, NULL will be returned.
+	 *
+	 * @param dir the directory where the file should be located in
+	 * @param fileName the substring to be checked against unambiguity
+	 * @return the unambigiously defined file or NULL
+	 */
+	public Entry findFile(Directory dir, String fileName){
+		Listing listing = dir.getListing();
+		Entry exact = listing.get(fileName);
+		if((exact != null) && !exact.isDirectory()){
+			return exact;
+		}
+		return listing.findUniqueFile(fileName.toLowerCase());
+	}
+
+	/**
+	 * Returns the entry at the specified path. Unlike findDirectory() and findFile(), every part has to match a
+	 * name exactly; empty parts and "." are skipped.
+	 *
+	 * @param pathParts the parts of the path, relative to the music directory
+	 * @return the entry, or NULL if there is none
+	 */
+	public Entry getEntry(String[] pathParts){
+		Entry entry = root;
+		for(String part: pathParts){
+			if(part.isEmpty() || part.equals(".")){
+				continue;
+			}
+			if(!entry.isDirectory()){
+				return null;
+			}
+			entry = ((Directory) entry).getListing().get(part);
+			if(entry == null){
+				return null;
+			}
+		}
+		return entry;
+	}
+}
@@ -0,0 +1,215 @@
+package net.skwod.library;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the contents of a Library from and to a compact binary file, so that the music directory
+ * does not have to be scanned again when RMC is restarted.
+ *
+ * The file starts with a header (magic number, version and the path of the music directory), followed by
+ * the directories in pre-order. Each directory is stored as its modification time, the number of its
+ * entries, and for each entry a flag (directory or file) and its name. The subdirectories follow their
+ * parent directory in the order in which they appear in its entries.
+ * Strings are stored as their length in bytes, followed by their UTF-8 encoding.
+ *
+ * The lookup structures are not stored; they are built while the file is read.
+ * Since the contents may be outdated, the Library should be validated after it has been read.
+ *
+ * @author Maxmanski
+ */
+public class LibrarySnapshot {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x524D434C;
+	private static final int VERSION = 1;
+	private static final byte FLAG_FILE = 0;
+	private static final byte FLAG_DIRECTORY = 1;
+
+	private LibrarySnapshot() {}
+
+	/**
+	 * Reads the snapshot from the specified file into the (empty) Library.
+	 * The file is memory-mapped, so that it does not have to be copied into the heap first.
+	 * If the file does not exist, is corrupt or belongs to another music directory, the Library is left empty.
+	 *
+	 * @param library the Library to fill
+	 * @param file the snapshot file
+	 * @return the number of entries read, or -1 if the snapshot could not be used
+	 */
+	public static int read(Library library, File file){
+		if(!file.isFile()){
+			return -1;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			Reader reader = new Reader(buffer);
+
+			if((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)){
+				return -1;
+			}
+			if(!reader.readString().equals(rootPath(library))){
+				return -1;
+			}
+			return reader.readDirectory(library.getRoot());
+
+		} catch (IOException e) {
+			library.getRoot().setListing(Listing.EMPTY);
+			return -1;
+		} catch (RuntimeException e) {
+			// the snapshot is corrupt or truncated
+			library.getRoot().setListing(Listing.EMPTY);
+			return -1;
+		}
+	}
+
+	/**
+	 * Writes the current contents of the Library into the specified file.
+	 * The snapshot is first written into a temporary file, which then replaces the file, so that a crash
+	 * cannot leave a half-written snapshot behind.
+	 *
+	 * @param library the Library to write
+	 * @param file the snapshot file
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public static void write(Library library, File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, rootPath(library));
+			writeDirectory(out, library.getRoot());
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Writes the specified directory and, recursively, its subdirectories.
+	 *
+	 * @param out the stream to write to
+	 * @param dir the directory to write
+	 * @throws IOException if writing fails
+	 */
+	private static void writeDirectory(DataOutputStream out, Directory dir) throws IOException {
+		Listing listing = dir.getListing();
+		List<Entry> entries = listing.getEntries();
+
+		out.writeLong(listing.getModified());
+		out.writeInt(entries.size());
+		for(Entry entry: entries){
+			out.writeByte(entry.isDirectory() ? FLAG_DIRECTORY : FLAG_FILE);
+			writeString(out, entry.getName());
+		}
+
+		for(Entry entry: entries){
+			if(entry.isDirectory()){
+				writeDirectory(out, (Directory) entry);
+			}
+		}
+	}
+
+	/**
+	 * Writes the length of the string's UTF-8 encoding, followed by the encoding.
+	 *
+	 * @param out the stream to write to
+	 * @param string the string to write
+	 * @throws IOException if writing fails
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Returns the path of the Library's music directory, as stored in the header.
+	 *
+	 * @param library the Library
+	 * @return the absolute path of the music directory
+	 */
+	private static String rootPath(Library library){
+		return library.getRootFile().getAbsolutePath();
+	}
+
+	/**
+	 * Reads directories and strings from the mapped snapshot.
+	 *
+	 * @author Maxmanski
+	 */
+	private static class Reader {
+
+		private final ByteBuffer buffer;
+		private byte[] scratch;
+
+		public Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.scratch = new byte[256];
+		}
+
+		/**
+		 * Reads the contents of the specified directory and, recursively, its subdirectories.
+		 *
+		 * @param dir the directory to fill
+		 * @return the number of entries read
+		 */
+		public int readDirectory(Directory dir){
+			long modified = buffer.getLong();
+			int size = buffer.getInt();
+			if((size < 0) || (size > buffer.remaining())){
+				throw new IllegalStateException("Invalid number of entries: " + size);
+			}
+
+			List<Entry> entries = new ArrayList<>(size);
+			for(int i=0; i<size; i++){
+				byte flag = buffer.get();
+				String name = readString();
+				entries.add((flag == FLAG_DIRECTORY) ? new Directory(name, dir) : new Entry(name, dir));
+			}
+
+			int count = size;
+			for(Entry entry: entries){
+				if(entry.isDirectory()){
+					count += readDirectory((Directory) entry);
+				}
+			}
+			dir.setListing(new Listing(entries, modified));
+			return count;
+		}
+
+		/**
+		 * Reads a string.
+		 *
+		 * @return the read string
+		 */
+		public String readString(){
+			int length = buffer.getInt();
+			if((length < 0) || (length > buffer.remaining())){
+				throw new IllegalStateException("Invalid string length: " + length);
+			}
+			if(scratch.length < length){
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			buffer.get(scratch, 0, length);
+			return new String(scratch, 0, length, UTF8);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package net.skwod.library;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.skwod.log.Log;
+
+/**
+ * Keeps a Library up to date with the music directory, based on the events of a WatchService.
+ *
+ * Every directory of the Library is registered with the WatchService. The events are collected in batches,
+ * and every directory affected by a batch gets a new Listing, which is built from its previous Listing and the
+ * current state of the changed names. New subdirectories are scanned (and registered) as a whole, removed
+ * subdirectories are unregistered. A file which has been modified (e.g. while it was being ripped, or because
+ * it has been tagged anew) gets a new Entry, so that the TagIndex reads its tags again. If events were lost (OVERFLOW), the contents of the affected directory are
+ * compared against the file system; its subdirectories are only scanned if they are new.
+ *
+ * Since a Listing is replaced atomically, no lock is needed: Readers see a directory either before or after
+ * the update.
+ *
+ * @author Maxmanski
+ */
+public class LibraryWatcher implements Runnable, ScanListener {
+
+	private static final long BATCH_WINDOW = 250;
+	private static final long MAX_BATCH_DURATION = 2000;
+
+	private final Library library;
+	private final WatchService watchService;
+	private final Map<WatchKey, Directory> directories;
+	private final Map<Directory, WatchKey> keys;
+	private volatile boolean running;
+	private volatile boolean limitReported;
+
+	/**
+	 * Creates a new LibraryWatcher for the specified Library.
+	 * The watcher has to be created before the Library is scanned, because the directories are registered
+	 * while they are being scanned.
+	 *
+	 * @param library the Library to keep up to date
+	 * @throws IOException if no WatchService is available
+	 */
+	public LibraryWatcher(Library library) throws IOException {
+		this.library = library;
+		this.watchService = library.toFile(library.getRoot()).toPath().getFileSystem().newWatchService();
+		this.directories = new ConcurrentHashMap<>();
+		this.keys = new ConcurrentHashMap<>();
+		this.running = false;
+		this.limitReported = false;
+		library.setScanListener(this);
+	}
+
+	/**
+	 * Registers the directory with the WatchService before it is scanned, so that no change is missed.
+	 */
+	@Override
+	public void scanning(Directory dir, Path path) {
+		try {
+			WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			WatchKey old = keys.put(dir, key);
+			if((old != null) && (old != key)){
+				directories.remove(old);
+			}
+			directories.put(key, dir);
+			dir.setWatched(true);
+		} catch (IOException e) {
+			dir.setWatched(false);
+			if(!limitReported){
+				limitReported = true;
+				Log.getInstance().warn("Could not watch " + path + " for changes, the Library might become stale: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Processes the events of the WatchService until the watcher is stopped.
+	 */
+	@Override
+	public void run() {
+		running = true;
+
+		try {
+			while(running){
+				Map<Directory, Set<String>> changes = new LinkedHashMap<>();
+				Map<Directory, Set<String>> modifications = new LinkedHashMap<>();
+				Set<Directory> overflows = new HashSet<>();
+
+				WatchKey key = watchService.take();
+				long batchEnd = System.currentTimeMillis() + MAX_BATCH_DURATION;
+
+				// collect everything that happens shortly after the first event
+				while(key != null){
+					collect(key, changes, modifications, overflows);
+					long remaining = batchEnd - System.currentTimeMillis();
+					key = (remaining > 0) ? watchService.poll(Math.min(BATCH_WINDOW, remaining), TimeUnit.MILLISECONDS) : null;
+				}
+
+				apply(changes, modifications, overflows);
+			}
+
+		} catch (InterruptedException e) {
+
+		} catch (ClosedWatchServiceException e) {
+
+		} finally {
+			running = false;
+		}
+	}
+
+	/**
+	 * Stops the watcher and releases the WatchService, e.g. once the Library has been shut down.
+	 */
+	@Override
+	public void shutdown(){
+		running = false;
+		try {
+			watchService.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Records the events of the specified key and resets it.
+	 *
+	 * @param key the signalled key
+	 * @param changes the created or deleted names per directory
+	 * @param modifications the modified names per directory
+	 * @param overflows the directories for which events were lost
+	 */
+	private void collect(WatchKey key, Map<Directory, Set<String>> changes, Map<Directory, Set<String>> modifications,
+			Set<Directory> overflows){
+		Directory dir = directories.get(key);
+
+		for(WatchEvent<?> event: key.pollEvents()){
+			if(dir == null){
+				continue;
+			}
+
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+				overflows.add(dir);
+			}else{
+				Map<Directory, Set<String>> target = (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) ? modifications : changes;
+				Set<String> names = target.get(dir);
+				if(names == null){
+					names = new HashSet<>();
+					target.put(dir, names);
+				}
+				names.add(((Path) event.context()).getFileName().toString());
+			}
+		}
+
+		if(!key.reset()){
+			// the directory is gone; its parent will be notified about that
+			directories.remove(key);
+			if(dir != null){
+				keys.remove(dir, key);
+				dir.setWatched(false);
+			}
+		}
+	}
+
+	/**
+	 * Updates the Listings of all directories affected by the batch.
+	 * First, all changes are determined and removed directories are unregistered, then all new directories are
+	 * scanned, and finally the new Listings are published. This way, a directory which has been moved from one
+	 * directory to another is unregistered at its old location before it is registered at its new one.
+	 *
+	 * @param changes the created or deleted names per directory
+	 * @param modifications the modified names per directory
+	 * @param overflows the directories for which events were lost
+	 */
+	private void apply(Map<Directory, Set<String>> changes, Map<Directory, Set<String>> modifications, Set<Directory> overflows){
+		Map<Directory, Listing> listings = new LinkedHashMap<>();
+		List<Directory> added = new ArrayList<>();
+
+		for(Directory dir: overflows){
+			if(isDetached(dir)){
+				continue;
+			}
+			Set<String> names = new HashSet<>();
+			for(Entry entry: dir.getListing().getEntries()){
+				names.add(entry.getName());
+			}
+			String[] current = library.toFile(dir).list();
+			if(current != null){
+				for(String name: current){
+					names.add(name);
+				}
+			}
+			Listing listing = update(dir, names, modified(modifications, dir), true, added);
+			if(listing != null){
+				listings.put(dir, listing);
+			}
+		}
+
+		Set<Directory> changed = new LinkedHashSet<>(changes.keySet());
+		changed.addAll(modifications.keySet());
+		for(Directory dir: changed){
+			if(overflows.contains(dir) || isDetached(dir)){
+				continue;
+			}
+			Set<String> names = changes.get(dir);
+			Listing listing = update(dir, (names != null) ? names : Collections.<String>emptySet(), modified(modifications, dir), false, added);
+			if(listing != null){
+				listings.put(dir, listing);
+			}
+		}
+
+		for(Directory subDir: added){
+			library.scan(subDir);
+		}
+
+		for(Map.Entry<Directory, Listing> listing: listings.entrySet()){
+			listing.getKey().setListing(listing.getValue());
+		}
+
+		if(!listings.isEmpty()){
+			Log.getInstance().info("Library updated: " + listings.size() + " directories changed, " + added.size() + " directories added");
+		}
+	}
+
+	/**
+	 * Returns the modified names of the directory.
+	 *
+	 * @param modifications the modified names per directory
+	 * @param dir the directory
+	 * @return the modified names, possibly empty
+	 */
+	private static Set<String> modified(Map<Directory, Set<String>> modifications, Directory dir){
+		Set<String> names = modifications.get(dir);
+		return (names != null) ? names : Collections.<String>emptySet();
+	}
+
+	/**
+	 * Compares the specified names in the directory against the file system and determines the directory's
+	 * new entries. Entries which are gone are unregistered, new directories are added to the list of
+	 * directories to scan, and files which have been modified get a new Entry.
+	 *
+	 * A directory with a changed name is considered new, since it could have been removed and created again or
+	 * replaced by another one in the meantime. Only if keepDirectories is set, existing directories are kept.
+	 * A modified directory is left alone, since its modification only concerns its attributes.
+	 *
+	 * @param dir the directory
+	 * @param names the created or deleted names to check
+	 * @param rewritten the modified names
+	 * @param keepDirectories whether directories which are still present should be kept as they are
+	 * @param added the list to which new directories are added
+	 * @return the new Listing of the directory, or NULL if nothing changed
+	 */
+	private Listing update(Directory dir, Set<String> names, Set<String> rewritten, boolean keepDirectories, List<Directory> added){
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		for(Entry entry: dir.getListing().getEntries()){
+			entries.put(entry.getName(), entry);
+		}
+
+		Path dirPath = library.toFile(dir).toPath();
+		long modified = Library.lastModified(dirPath);
+		boolean changed = false;
+
+		for(String name: names){
+			Entry old = entries.get(name);
+			Path path = dirPath.resolve(name);
+
+			if(Files.isDirectory(path)){
+				if(keepDirectories && (old != null) && old.isDirectory()){
+					continue;
+				}
+				Directory subDir = new Directory(name, dir);
+				entries.put(name, subDir);
+				added.add(subDir);
+				forget(old);
+				changed = true;
+
+			}else if(Files.isRegularFile(path)){
+				if((old != null) && !old.isDirectory() && !rewritten.contains(name)){
+					continue;
+				}
+				entries.put(name, new Entry(name, dir));
+				forget(old);
+				changed = true;
+
+			}else if(old != null){
+				entries.remove(name);
+				forget(old);
+				changed = true;
+			}
+		}
+
+		for(String name: rewritten){
+			Entry old = entries.get(name);
+			if(names.contains(name) || (old == null) || old.isDirectory()){
+				continue;
+			}
+			if(Files.isRegularFile(dirPath.resolve(name))){
+				entries.put(name, new Entry(name, dir));
+				changed = true;
+			}
+		}
+
+		return changed ? new Listing(new ArrayList<>(entries.values()), modified) : null;
+	}
+
+	/**
+	 * Unregisters the specified entry and, if it is a directory, all of its subdirectories.
+	 *
+	 * @param entry the removed entry, or NULL
+	 */
+	private void forget(Entry entry){
+		if((entry == null) || !entry.isDirectory()){
+			return;
+		}
+		Directory dir = (Directory) entry;
+		dir.setWatched(false);
+		WatchKey key = keys.remove(dir);
+		if(key != null){
+			directories.remove(key);
+			key.cancel();
+		}
+		for(Entry child: dir.getListing().getEntries()){
+			forget(child);
+		}
+	}
+
+	/**
+	 * Checks whether the directory has been removed from the Library in the meantime.
+	 *
+	 * @param dir the directory
+	 * @return TRUE if the directory is no longer part of the Library
+	 */
+	private boolean isDetached(Directory dir){
+		for(Directory current = dir; current.getParent() != null; current = current.getParent()){
+			if(current.getParent().getListing().get(current.getName()) != current){
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,94 @@
+package net.skwod.library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The immutable contents of a Directory, together with the lookup structures used for resolving names:
+ * A map from the exact names to the entries, and NameTables for the subdirectories and the files.
+ * The Listing also remembers the modification time of the directory it was read from.
+ *
+ * @author Maxmanski
+ */
+public final class Listing {
+
+	static final Listing EMPTY = new Listing(Collections.<Entry>emptyList(), -1);
+
+	private final List<Entry> entries;
+	private final Map<String, Entry> byName;
+	private final NameTable directories;
+	private final NameTable files;
+	private final long modified;
+
+	Listing(List<Entry> entries, long modified) {
+		List<Directory> dirs = new ArrayList<>();
+		List<Entry> regularFiles = new ArrayList<>();
+		this.byName = new HashMap<>();
+
+		for(Entry entry: entries){
+			byName.put(entry.getName(), entry);
+			if(entry.isDirectory()){
+				dirs.add((Directory) entry);
+			}else{
+				regularFiles.add(entry);
+			}
+		}
+
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+		this.directories = new NameTable(dirs);
+		this.files = new NameTable(regularFiles);
+		this.modified = modified;
+	}
+
+	/**
+	 * Returns the time of the directory's last modification, as read before its contents were read.
+	 * If the directory's current modification time differs, the Listing may be outdated.
+	 *
+	 * @return the modification time in milliseconds, or -1 if it is unknown
+	 */
+	public long getModified(){
+		return modified;
+	}
+
+	/**
+	 * Returns all entries of the directory.
+	 *
+	 * @return an unmodifiable list of the entries
+	 */
+	public List<Entry> getEntries(){
+		return entries;
+	}
+
+	/**
+	 * Returns the entry with exactly the specified name.
+	 *
+	 * @param name the exact name
+	 * @return the entry or NULL if there is none
+	 */
+	public Entry get(String name){
+		return byName.get(name);
+	}
+
+	/**
+	 * Finds the subdirectory which is uniquely identified by the specified lower-case name (see NameTable).
+	 *
+	 * @param lowerName the lower-case name or substring
+	 * @return the subdirectory or NULL
+	 */
+	Directory findUniqueDirectory(String lowerName){
+		return (Directory) directories.findUnique(lowerName);
+	}
+
+	/**
+	 * Finds the file which is uniquely identified by the specified lower-case name (see NameTable).
+	 *
+	 * @param lowerName the lower-case name or substring
+	 * @return the file or NULL
+	 */
+	Entry findUniqueFile(String lowerName){
+		return files.findUnique(lowerName);
+	}
+}
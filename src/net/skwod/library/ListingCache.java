@@ -0,0 +1,131 @@
+package net.skwod.library;
+
+import java.text.Collator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the ListingViews of the directories which have been listed recently.
+ *
+ * A cached view stays valid as long as its directory has the same Listing. For directories which are watched
+ * by a LibraryWatcher, this is all there is to check, so a repeated lookup does not touch the file system at
+ * all. The Listings of directories which are not watched are validated against the directory's modification
+ * time (at most once per VALIDATION_INTERVAL), and read again if it has changed.
+ *
+ * The views are evicted in least-recently-used order as soon as their estimated size exceeds the budget.
+ *
+ * @author Maxmanski
+ */
+public class ListingCache {
+
+	private static final long VALIDATION_INTERVAL = 1000;
+
+	private final Library library;
+	private final Collator collator;
+	private final LinkedHashMap<Directory, Cached> views;
+	private long budget;
+	private long used;
+
+	/**
+	 * Creates a new, empty ListingCache.
+	 *
+	 * @param library the Library whose directories are cached
+	 * @param budget the maximum estimated size of all cached views, in bytes
+	 */
+	public ListingCache(Library library, long budget) {
+		this.library = library;
+		this.collator = Collator.getInstance();
+		this.collator.setStrength(Collator.SECONDARY);
+		this.views = new LinkedHashMap<>(16, 0.75f, true);
+		this.budget = budget;
+		this.used = 0;
+	}
+
+	/**
+	 * Sets the maximum estimated size of all cached views and evicts views if necessary.
+	 *
+	 * @param budget the budget in bytes
+	 */
+	public synchronized void setBudget(long budget){
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Returns the view of the directory's current contents, building it if necessary.
+	 *
+	 * @param dir the directory
+	 * @return the ListingView
+	 */
+	public ListingView getView(Directory dir){
+		long now = System.currentTimeMillis();
+		Listing listing = dir.getListing();
+
+		synchronized (this) {
+			Cached cached = views.get(dir);
+			if((cached != null) && (cached.view.getListing() == listing)){
+				if(dir.isWatched() || ((now - cached.validated) < VALIDATION_INTERVAL)){
+					return cached.view;
+				}
+			}
+		}
+
+		if(!dir.isWatched()){
+			listing = library.refresh(dir);
+		}
+
+		synchronized (this) {
+			Cached cached = views.get(dir);
+			if((cached != null) && (cached.view.getListing() == listing)){
+				cached.validated = now;
+				return cached.view;
+			}
+		}
+
+		// built outside of the lock, since this takes a while for large directories
+		ListingView view;
+		Collator own;
+		synchronized (collator) {
+			own = (Collator) collator.clone();
+		}
+		view = new ListingView(listing, own);
+
+		synchronized (this) {
+			Cached old = views.put(dir, new Cached(view, now));
+			if(old != null){
+				used -= old.view.getMemory();
+			}
+			used += view.getMemory();
+			evict();
+		}
+		return view;
+	}
+
+	/**
+	 * Evicts the least recently used views until the budget is kept, except for the most recent one.
+	 */
+	private void evict(){
+		Iterator<Map.Entry<Directory, Cached>> it = views.entrySet().iterator();
+		while((used > budget) && (views.size() > 1) && it.hasNext()){
+			used -= it.next().getValue().view.getMemory();
+			it.remove();
+		}
+	}
+
+	/**
+	 * A cached view, together with the time at which its Listing has last been validated.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Cached {
+
+		private final ListingView view;
+		private long validated;
+
+		public Cached(ListingView view, long validated) {
+			this.view = view;
+			this.validated = validated;
+		}
+	}
+}
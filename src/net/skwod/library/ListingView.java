@@ -0,0 +1,169 @@
+package net.skwod.library;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The contents of a Listing the way they are presented to the user: the subdirectories first, followed by the
+ * music files, each sorted by their names according to the Collator of the ListingCache (and by their exact
+ * names, if those are equal according to the Collator). All other files are left out.
+ *
+ * Every entry is stored together with its collation key, which is computed once when the view is built.
+ * A ListingView is immutable, so that fetching a range of it costs only as much as the size of the range.
+ *
+ * @author Maxmanski
+ */
+public final class ListingView {
+
+	private static final Comparator<Item> ORDER = new Comparator<Item>() {
+
+		@Override
+		public int compare(Item o1, Item o2) {
+			int result = o1.key.compareTo(o2.key);
+			return (result != 0) ? result : o1.entry.getName().compareTo(o2.entry.getName());
+		}
+	};
+
+	private final Listing listing;
+	private final Collator collator;
+	private final Entry[] entries;
+	private final CollationKey[] keys;
+	private final int directoryCount;
+	private final long memory;
+
+	/**
+	 * Builds the view of the specified Listing.
+	 *
+	 * @param listing the Listing
+	 * @param collator the Collator defining the order; it is used by this view only
+	 */
+	ListingView(Listing listing, Collator collator) {
+		List<Item> dirs = new ArrayList<>();
+		List<Item> music = new ArrayList<>();
+		long memory = 96;
+
+		for(Entry entry: listing.getEntries()){
+			if(entry.isDirectory() || entry.isMusic()){
+				Item item = new Item(entry, collator.getCollationKey(entry.getName()));
+				(entry.isDirectory() ? dirs : music).add(item);
+				// the references, the key object and its content
+				memory += 16 + 32 + (4L * entry.getName().length());
+			}
+		}
+		Item[] sorted = new Item[dirs.size() + music.size()];
+		Item[] sortedDirs = dirs.toArray(new Item[dirs.size()]);
+		Item[] sortedMusic = music.toArray(new Item[music.size()]);
+		Arrays.sort(sortedDirs, ORDER);
+		Arrays.sort(sortedMusic, ORDER);
+		System.arraycopy(sortedDirs, 0, sorted, 0, sortedDirs.length);
+		System.arraycopy(sortedMusic, 0, sorted, sortedDirs.length, sortedMusic.length);
+
+		this.listing = listing;
+		this.collator = collator;
+		this.entries = new Entry[sorted.length];
+		this.keys = new CollationKey[sorted.length];
+		for(int i=0; i<sorted.length; i++){
+			entries[i] = sorted[i].entry;
+			keys[i] = sorted[i].key;
+		}
+		this.directoryCount = sortedDirs.length;
+		this.memory = memory;
+	}
+
+	/**
+	 * Returns the Listing this view has been built from.
+	 *
+	 * @return the Listing
+	 */
+	Listing getListing(){
+		return listing;
+	}
+
+	/**
+	 * Returns an estimate of the memory occupied by this view, in bytes.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	long getMemory(){
+		return memory;
+	}
+
+	/**
+	 * Returns the number of entries in the view.
+	 *
+	 * @return the number of entries
+	 */
+	public int size(){
+		return entries.length;
+	}
+
+	/**
+	 * Returns the entry at the specified position.
+	 *
+	 * @param index the position
+	 * @return the entry
+	 */
+	public Entry get(int index){
+		return entries[index];
+	}
+
+	/**
+	 * Returns the number of subdirectories, which come before the files.
+	 *
+	 * @return the number of subdirectories
+	 */
+	public int getDirectoryCount(){
+		return directoryCount;
+	}
+
+	/**
+	 * Finds the position of the first entry which comes after an entry with the specified name and type,
+	 * whether or not such an entry is part of the view.
+	 *
+	 * @param directory whether the entry is a directory
+	 * @param name the name of the entry
+	 * @return the position of the first entry after it
+	 */
+	public int indexAfter(boolean directory, String name){
+		int low = directory ? 0 : directoryCount;
+		int high = directory ? directoryCount : entries.length;
+		CollationKey key;
+		synchronized (collator) {
+			key = collator.getCollationKey(name);
+		}
+
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			int result = keys[middle].compareTo(key);
+			if(result == 0){
+				result = entries[middle].getName().compareTo(name);
+			}
+			if(result <= 0){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * An entry together with its collation key, while the view is being sorted.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Item {
+
+		private final Entry entry;
+		private final CollationKey key;
+
+		public Item(Entry entry, CollationKey key) {
+			this.entry = entry;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package net.skwod.library;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable lookup structure over the lower-case names of a set of entries, answering the question
+ * "which single entry is identified by this (lower-case) name or substring?".
+ *
+ * The lower-case names are concatenated into one String, separated by a character that cannot occur in
+ * file names. A substring search then only needs two calls to String.indexOf: one to find the first match,
+ * and one to check whether there is a second match in any of the following entries.
+ *
+ * @author Maxmanski
+ */
+final class NameTable {
+
+	private static final char SEPARATOR = '\0';
+
+	private final Entry[] entries;
+	private final int[] offsets;
+	private final String names;
+	private final Map<String, Entry> byLowerName;
+
+	NameTable(List<? extends Entry> entries) {
+		this.entries = entries.toArray(new Entry[entries.size()]);
+		this.offsets = new int[this.entries.length];
+		this.byLowerName = new HashMap<>();
+
+		StringBuilder builder = new StringBuilder();
+		for(int i=0; i<this.entries.length; i++){
+			Entry entry = this.entries[i];
+			if(i > 0){
+				builder.append(SEPARATOR);
+			}
+			offsets[i] = builder.length();
+			builder.append(entry.getLowerName());
+			if(!byLowerName.containsKey(entry.getLowerName())){
+				byLowerName.put(entry.getLowerName(), entry);
+			}
+		}
+		this.names = builder.toString();
+	}
+
+	/**
+	 * Finds the entry which is uniquely identified by the specified lower-case name:
+	 * If an entry's lower-case name equals it, this entry is returned.
+	 * Otherwise, if exactly one entry's lower-case name contains it, this entry is returned.
+	 * Otherwise, NULL is returned.
+	 *
+	 * @param lowerName the lower-case name or substring
+	 * @return the uniquely identified entry or NULL
+	 */
+	Entry findUnique(String lowerName){
+		Entry exact = byLowerName.get(lowerName);
+		if(exact != null){
+			return exact;
+		}
+
+		if((entries.length == 0) || (lowerName.indexOf(SEPARATOR) >= 0)){
+			return null;
+		}
+
+		int pos = names.indexOf(lowerName);
+		if(pos < 0){
+			return null;
+		}
+
+		int index = indexAt(pos);
+		int next = (index + 1 < offsets.length) ? offsets[index + 1] : names.length();
+		int other = names.indexOf(lowerName, next);
+		if((other >= 0) && (other < names.length())){
+			// there is another entry containing the substring
+			return null;
+		}
+		return entries[index];
+	}
+
+	/**
+	 * Returns the index of the entry whose name contains the specified position of the concatenated names.
+	 *
+	 * @param pos the position in the concatenated names
+	 * @return the index of the entry
+	 */
+	private int indexAt(int pos){
+		int low = 0;
+		int high = offsets.length - 1;
+		while(low < high){
+			int mid = (low + high + 1) >>> 1;
+			if(offsets[mid] <= pos){
+				low = mid;
+			}else{
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,25 @@
+package net.skwod.library;
+
+import java.nio.file.Path;
+
+/**
+ * A listener which is notified by the Library whenever a directory is about to be scanned, and once the Library
+ * has been shut down. Since directories are scanned in parallel, it may be called by several threads at the same time.
+ *
+ * @author Maxmanski
+ */
+interface ScanListener {
+
+	/**
+	 * Called before the contents of the specified directory are read.
+	 *
+	 * @param dir the directory in the Library
+	 * @param path the directory in the file system
+	 */
+	public void scanning(Directory dir, Path path);
+
+	/**
+	 * Called once the Library has been shut down, so that the listener can stop as well.
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,93 @@
+package net.skwod.library;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the directories which have been read by a scan (or validation) of the Library and the entries found in
+ * them. The counts may be read while the scan is still running.
+ *
+ * @author Maxmanski
+ */
+public final class ScanProgress {
+
+	private final LongAdder directories;
+	private final LongAdder entries;
+	private final long start;
+	private volatile long end;
+
+	ScanProgress() {
+		this.directories = new LongAdder();
+		this.entries = new LongAdder();
+		this.start = System.nanoTime();
+		this.end = -1;
+	}
+
+	/**
+	 * Records a directory which has been read.
+	 *
+	 * @param count the number of entries in the directory
+	 */
+	void add(int count){
+		directories.increment();
+		entries.add(count);
+	}
+
+	/**
+	 * Marks the scan as finished.
+	 */
+	void finish(){
+		end = System.nanoTime();
+	}
+
+	/**
+	 * Returns whether the scan has finished.
+	 *
+	 * @return TRUE if the scan has finished
+	 */
+	public boolean isFinished(){
+		return end >= 0;
+	}
+
+	/**
+	 * Returns the number of directories which have been read so far.
+	 *
+	 * @return the number of directories
+	 */
+	public long getDirectories(){
+		return directories.sum();
+	}
+
+	/**
+	 * Returns the number of entries (files and directories) which have been found so far.
+	 *
+	 * @return the number of entries
+	 */
+	public long getEntries(){
+		return entries.sum();
+	}
+
+	/**
+	 * Returns the time the scan has taken so far, or has taken in total if it has finished.
+	 *
+	 * @return the duration in milliseconds
+	 */
+	public long getElapsed(){
+		long until = isFinished() ? end : System.nanoTime();
+		return (until - start) / 1000000;
+	}
+
+	/**
+	 * Returns the number of entries found per second.
+	 *
+	 * @return the throughput
+	 */
+	public long getThroughput(){
+		return (getEntries() * 1000) / Math.max(1, getElapsed());
+	}
+
+	@Override
+	public String toString() {
+		return getDirectories() + " directories, " + getEntries() + " entries in " + getElapsed() + " ms ("
+				+ getThroughput() + " entries/s)";
+	}
+}
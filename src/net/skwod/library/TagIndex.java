@@ -0,0 +1,457 @@
+package net.skwod.library;
+
+import java.text.Normalizer;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+import net.skwod.log.Log;
+
+/**
+ * An inverted index over the titles, artists and albums of the music files in a Library.
+ *
+ * The tags are read in the background: Every pass walks the Library and reads the tags of the music files in
+ * the directories whose Listing has changed since the last pass, using the Library's scanner to read several
+ * directories in parallel. Files which are still part of the new Listing are not read again (the Library keeps
+ * their entries, unless the LibraryWatcher has seen them being modified), so a pass over an unchanged Library
+ * only compares the Listings.
+ *
+ * After a pass which found changes, a new snapshot of the index is built and replaces the old one, so searches
+ * never need a lock. A snapshot consists of the Tracks sorted by their paths, and the sorted tokens of their
+ * tags, each with the list of Tracks (and fields) in which it occurs.
+ *
+ * A search matches every word of the query against the tokens as a prefix, and finds the Tracks which match
+ * all of them. Matches in the title count more than matches of the artist, which count more than matches of
+ * the album; whole-word matches count twice as much as prefixes.
+ *
+ * @author Maxmanski
+ */
+public class TagIndex implements Runnable {
+
+	private static final long UPDATE_INTERVAL = 10000;
+	private static final long PUBLISH_INTERVAL = 2000;
+	private static final int BATCH_SIZE = 256;
+
+	private static final int TITLE = 0;
+	private static final int ARTIST = 1;
+	private static final int ALBUM = 2;
+	private static final int[] WEIGHTS = {3, 2, 1};
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/**
+	 * The immutable state of the index.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Snapshot {
+
+		private final Track[] tracks;
+		private final String[] tokens;
+		private final int[][] postings;
+
+		public Snapshot(Track[] tracks, String[] tokens, int[][] postings) {
+			this.tracks = tracks;
+			this.tokens = tokens;
+			this.postings = postings;
+		}
+	}
+
+	/**
+	 * The Tracks of a directory, together with the Listing they have been read for.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Indexed {
+
+		private final Listing listing;
+		private final List<Track> tracks;
+
+		public Indexed(Listing listing, List<Track> tracks) {
+			this.listing = listing;
+			this.tracks = tracks;
+		}
+	}
+
+	/**
+	 * A growable list of postings.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Postings {
+
+		private int[] values = new int[4];
+		private int size = 0;
+
+		public void add(int value){
+			if((size > 0) && (values[size - 1] == value)){
+				return;
+			}
+			if(size == values.length){
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * Reads the tags of the music files of a directory which are new since the last update.
+	 *
+	 * @author Maxmanski
+	 */
+	private final class ReadTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Directory dir;
+		private final Listing listing;
+		private final Indexed old;
+		private Indexed result;
+		private int read;
+
+		public ReadTask(Directory dir, Listing listing, Indexed old) {
+			this.dir = dir;
+			this.listing = listing;
+			this.old = old;
+		}
+
+		@Override
+		protected void compute() {
+			Map<Entry, Track> previous = new HashMap<>();
+			if(old != null){
+				for(Track track: old.tracks){
+					previous.put(track.getEntry(), track);
+				}
+			}
+
+			List<Track> tracks = new ArrayList<>();
+			Semaphore permits = null;
+			try {
+				for(Entry entry: listing.getEntries()){
+					if(entry.isMusic()){
+						Track track = previous.get(entry);
+						if(track == null){
+							if(permits == null){
+								permits = library.acquireIo();
+							}
+							track = TagReader.read(entry, library.toFile(entry));
+							read++;
+						}
+						tracks.add(track);
+					}
+				}
+			} finally {
+				if(permits != null){
+					permits.release();
+				}
+			}
+			result = new Indexed(listing, tracks);
+		}
+	}
+
+	private final Library library;
+	private volatile Snapshot snapshot;
+	private Map<Directory, Indexed> indexed;
+	private volatile boolean stopped;
+	private volatile Runnable listener;
+
+	/**
+	 * Creates a new, empty TagIndex for the specified Library. Use update() or run() to fill it.
+	 *
+	 * @param library the Library
+	 */
+	public TagIndex(Library library) {
+		this.library = library;
+		this.snapshot = new Snapshot(new Track[0], new String[0], new int[0][]);
+		this.indexed = new HashMap<>();
+		this.stopped = false;
+		this.listener = null;
+	}
+
+	/**
+	 * Sets the listener which is run (by the updating thread) whenever an update has changed the index.
+	 *
+	 * @param listener the listener, or NULL
+	 */
+	public void setListener(Runnable listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Updates the index every few seconds until it is stopped.
+	 */
+	@Override
+	public void run() {
+		if(stopped){
+			return;
+		}
+		long start = System.currentTimeMillis();
+		int read = update();
+		Log.getInstance().info("Read the tags of " + read + " music files in " + (System.currentTimeMillis() - start) + " ms");
+
+		try {
+			while(!stopped){
+				Thread.sleep(UPDATE_INTERVAL);
+				update();
+			}
+		} catch (InterruptedException e) {}
+	}
+
+	/**
+	 * Stops updating the index. If the index has not been started yet, it will not start at all.
+	 */
+	public void shutdown(){
+		stopped = true;
+	}
+
+	/**
+	 * Reads the tags of all music files which are new since the last update, and publishes a new snapshot if
+	 * anything has changed. The changed directories are read in parallel by the Library's scanner, in batches;
+	 * while a lot of tags are being read, the intermediate state is published every few seconds.
+	 *
+	 * @return the number of files whose tags have been read
+	 */
+	public synchronized int update(){
+		Map<Directory, Indexed> current = new HashMap<>();
+		List<ReadTask> changed = new ArrayList<>();
+		Deque<Directory> pending = new ArrayDeque<>();
+		pending.push(library.getRoot());
+
+		while(!pending.isEmpty()){
+			Directory dir = pending.pop();
+			Listing listing = dir.getListing();
+			Indexed old = indexed.get(dir);
+
+			if((old != null) && (old.listing == listing)){
+				current.put(dir, old);
+			}else{
+				changed.add(new ReadTask(dir, listing, old));
+			}
+			for(Entry entry: listing.getEntries()){
+				if(entry.isDirectory()){
+					pending.push((Directory) entry);
+				}
+			}
+		}
+
+		int read = 0;
+		long published = System.currentTimeMillis();
+		for(int from=0; from<changed.size(); from+=BATCH_SIZE){
+			final List<ReadTask> batch = changed.subList(from, Math.min(changed.size(), from + BATCH_SIZE));
+			library.invoke(new RecursiveAction() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(batch);
+				}
+			});
+			for(ReadTask task: batch){
+				current.put(task.dir, task.result);
+				read += task.read;
+			}
+
+			if(((from + BATCH_SIZE) < changed.size()) && ((System.currentTimeMillis() - published) > PUBLISH_INTERVAL)){
+				// the directories which have not been read yet keep their previous state meanwhile
+				Map<Directory, Indexed> partial = new HashMap<>(indexed);
+				partial.putAll(current);
+				snapshot = build(partial);
+				published = System.currentTimeMillis();
+			}
+		}
+
+		boolean modified = !changed.isEmpty() || (current.size() != indexed.size());
+		if(modified){
+			snapshot = build(current);
+		}
+		indexed = current;
+
+		Runnable notify = listener;
+		if(modified && (notify != null)){
+			notify.run();
+		}
+		return read;
+	}
+
+	/**
+	 * Returns the number of Tracks in the index.
+	 *
+	 * @return the number of Tracks
+	 */
+	public int size(){
+		return snapshot.tracks.length;
+	}
+
+	/**
+	 * Finds the Tracks matching every word of the query, ranked by how well they match.
+	 * Tracks which match equally well are sorted by their paths.
+	 *
+	 * @param query the query
+	 * @return the matching Tracks, best first
+	 */
+	public List<Track> search(String query){
+		final Snapshot current = snapshot;
+		String[] terms = tokenize(query);
+		int count = current.tracks.length;
+		if((terms.length == 0) || (count == 0)){
+			return Collections.emptyList();
+		}
+
+		// matched[i] is the number of terms Track i has matched so far; only those matching all of them are kept
+		int[] matched = new int[count];
+		int[] score = new int[count];
+		int[] best = new int[count];
+		int[] touched = new int[count];
+		int touchedCount = 0;
+
+		for(int k=0; k<terms.length; k++){
+			String term = terms[k];
+			touchedCount = 0;
+
+			for(int t=lowerBound(current.tokens, term); (t < current.tokens.length) && current.tokens[t].startsWith(term); t++){
+				int factor = (current.tokens[t].length() == term.length()) ? 2 : 1;
+				for(int posting: current.postings[t]){
+					int id = posting >>> 2;
+					if(matched[id] != k){
+						continue;
+					}
+					int weight = WEIGHTS[posting & 3] * factor;
+					if(best[id] == 0){
+						touched[touchedCount++] = id;
+					}
+					if(weight > best[id]){
+						best[id] = weight;
+					}
+				}
+			}
+
+			if(touchedCount == 0){
+				return Collections.emptyList();
+			}
+			for(int i=0; i<touchedCount; i++){
+				int id = touched[i];
+				matched[id]++;
+				score[id] += best[id];
+				best[id] = 0;
+			}
+		}
+
+		// the Tracks touched by the last term are the ones which matched all terms
+		final long[] ranking = new long[touchedCount];
+		for(int i=0; i<touchedCount; i++){
+			int id = touched[i];
+			ranking[i] = (((long) (Integer.MAX_VALUE - score[id])) << 32) | id;
+		}
+		Arrays.sort(ranking);
+
+		return new AbstractList<Track>() {
+
+			@Override
+			public Track get(int index) {
+				return current.tracks[(int) ranking[index]];
+			}
+
+			@Override
+			public int size() {
+				return ranking.length;
+			}
+		};
+	}
+
+	/**
+	 * Builds a snapshot of the specified Tracks.
+	 *
+	 * @param directories the Tracks per directory
+	 * @return the snapshot
+	 */
+	private static Snapshot build(Map<Directory, Indexed> directories){
+		List<Track> all = new ArrayList<>();
+		for(Indexed dir: directories.values()){
+			all.addAll(dir.tracks);
+		}
+		Track[] tracks = all.toArray(new Track[all.size()]);
+		Arrays.sort(tracks, new Comparator<Track>() {
+
+			@Override
+			public int compare(Track o1, Track o2) {
+				return o1.getPath().compareTo(o2.getPath());
+			}
+		});
+
+		Map<String, Postings> tokens = new HashMap<>();
+		for(int id=0; id<tracks.length; id++){
+			String[] fields = {tracks[id].getTitle(), tracks[id].getArtist(), tracks[id].getAlbum()};
+			for(int field=TITLE; field<=ALBUM; field++){
+				for(String token: tokenize(fields[field])){
+					Postings postings = tokens.get(token);
+					if(postings == null){
+						postings = new Postings();
+						tokens.put(token, postings);
+					}
+					postings.add((id << 2) | field);
+				}
+			}
+		}
+
+		String[] sortedTokens = tokens.keySet().toArray(new String[tokens.size()]);
+		Arrays.sort(sortedTokens);
+		int[][] postings = new int[sortedTokens.length][];
+		for(int i=0; i<sortedTokens.length; i++){
+			Postings list = tokens.get(sortedTokens[i]);
+			postings[i] = Arrays.copyOf(list.values, list.size);
+		}
+		return new Snapshot(tracks, sortedTokens, postings);
+	}
+
+	/**
+	 * Finds the position of the first token which is not less than the specified one.
+	 *
+	 * @param tokens the sorted tokens
+	 * @param token the token
+	 * @return the position
+	 */
+	private static int lowerBound(String[] tokens, String token){
+		int low = 0;
+		int high = tokens.length;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(tokens[middle].compareTo(token) < 0){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Splits the text into lower-case words without accents.
+	 *
+	 * @param text the text
+	 * @return the words
+	 */
+	static String[] tokenize(String text){
+		String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+		folded = folded.toLowerCase(Locale.ROOT);
+		List<String> tokens = new ArrayList<>();
+		for(String token: SEPARATORS.split(folded)){
+			if(!token.isEmpty()){
+				tokens.add(token);
+			}
+		}
+		return tokens.toArray(new String[tokens.size()]);
+	}
+}
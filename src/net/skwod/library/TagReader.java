@@ -0,0 +1,443 @@
+package net.skwod.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads the title, artist and album of a music file.
+ *
+ * MP3 files are read from their ID3v2 tag (versions 2.2 to 2.4) at the start of the file; fields which are
+ * missing there are taken from the ID3v1 tag at the end of the file. WAV files are read from the INFO list of
+ * their RIFF container.
+ *
+ * Only the headers of the frames and chunks are read, along with the contents of the few that are needed;
+ * everything else (like embedded pictures or the audio data) is skipped.
+ *
+ * @author Maxmanski
+ */
+final class TagReader {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset UTF_16 = Charset.forName("UTF-16");
+	private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+	private static final int TITLE = 0;
+	private static final int ARTIST = 1;
+	private static final int ALBUM = 2;
+
+	/** Frames and chunks larger than this are not read, text fields never are */
+	private static final int MAX_FIELD_SIZE = 64 * 1024;
+
+	/** Unsynchronised tags are read as a whole, but only up to this size */
+	private static final int MAX_UNSYNCHRONISED_TAG_SIZE = 1024 * 1024;
+
+	private TagReader() {}
+
+	/**
+	 * Reads the tags of the specified music file.
+	 *
+	 * @param entry the music file in the Library
+	 * @param file the music file in the file system
+	 * @return the Track, which uses the file name as title if the file has no (readable) title
+	 */
+	static Track read(Entry entry, File file){
+		String[] fields = new String[3];
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			if(entry.getLowerName().endsWith("wav")){
+				readRiff(in, fields);
+			}else{
+				readId3v2(in, fields);
+				if((fields[TITLE] == null) || (fields[ARTIST] == null) || (fields[ALBUM] == null)){
+					readId3v1(in, fields);
+				}
+			}
+		} catch (IOException e) {
+			// an unreadable file is indexed by its name
+		}
+
+		if(fields[TITLE] == null){
+			String name = entry.getName();
+			int dot = name.lastIndexOf('.');
+			fields[TITLE] = (dot > 0) ? name.substring(0, dot) : name;
+		}
+		return new Track(entry, fields[TITLE], (fields[ARTIST] == null) ? "" : fields[ARTIST],
+				(fields[ALBUM] == null) ? "" : fields[ALBUM]);
+	}
+
+	/**
+	 * Reads the ID3v2 tag at the start of the file, if there is one.
+	 *
+	 * @param in the file
+	 * @param fields the fields to fill in
+	 * @throws IOException if the file cannot be read
+	 */
+	private static void readId3v2(RandomAccessFile in, String[] fields) throws IOException {
+		long length = in.length();
+		byte[] header = new byte[10];
+		if(length < header.length){
+			return;
+		}
+		in.seek(0);
+		in.readFully(header);
+		if((header[0] != 'I') || (header[1] != 'D') || (header[2] != '3')){
+			return;
+		}
+
+		int version = header[3];
+		int flags = header[5] & 0xFF;
+		int size = syncsafe(header, 6);
+		if((version < 2) || (version > 4) || (size < 0) || ((version == 2) && ((flags & 0x40) != 0))){
+			// unknown version, or compressed (2.2)
+			return;
+		}
+
+		// positions are relative to the end of the tag header
+		byte[] tag = null;
+		long end = Math.min(size, length - header.length);
+		long position = 0;
+
+		if(((flags & 0x80) != 0) && (version < 4)){
+			// the whole tag is unsynchronised, so the frame sizes only apply after undoing it
+			if(end > MAX_UNSYNCHRONISED_TAG_SIZE){
+				return;
+			}
+			tag = new byte[(int) end];
+			in.readFully(tag);
+			tag = resynchronise(tag, 0, tag.length);
+			end = tag.length;
+		}
+
+		byte[] buffer = new byte[10];
+		if((flags & 0x40) != 0){
+			if(!read(in, tag, position, buffer, 4)){
+				return;
+			}
+			// the extended header's size does not include the size field itself in version 2.3
+			position += (version == 3) ? (4 + int32(buffer, 0)) : syncsafe(buffer, 0);
+		}
+
+		int idLength = (version == 2) ? 3 : 4;
+		int headerLength = (version == 2) ? 6 : 10;
+
+		while(((position + headerLength) <= end) && read(in, tag, position, buffer, headerLength)){
+			if(buffer[0] == 0){
+				// padding
+				break;
+			}
+
+			int frameSize;
+			int formatFlags = 0;
+			if(version == 2){
+				frameSize = ((buffer[3] & 0xFF) << 16) | ((buffer[4] & 0xFF) << 8) | (buffer[5] & 0xFF);
+			}else if(version == 3){
+				frameSize = int32(buffer, 4);
+				// compression, encryption
+				formatFlags = buffer[9] & 0xC0;
+			}else{
+				frameSize = syncsafe(buffer, 4);
+				// compression, encryption (unsynchronisation and the data length are handled below)
+				formatFlags = buffer[9] & 0x0C;
+			}
+			if((frameSize <= 0) || ((position + headerLength + frameSize) > end)){
+				break;
+			}
+
+			int field = field(new String(buffer, 0, idLength, ISO_8859_1));
+			if((field >= 0) && (fields[field] == null) && (formatFlags == 0) && (frameSize <= MAX_FIELD_SIZE)){
+				byte[] content = new byte[frameSize];
+				if(read(in, tag, position + headerLength, content, frameSize)){
+					int offset = 0;
+					int contentLength = frameSize;
+					if((version == 4) && ((buffer[9] & 0x02) != 0)){
+						content = resynchronise(content, 0, contentLength);
+						contentLength = content.length;
+					}
+					if((version == 4) && ((buffer[9] & 0x01) != 0)){
+						// data length indicator
+						offset += 4;
+					}
+					fields[field] = text(content, offset, contentLength - offset);
+				}
+			}
+			position += headerLength + frameSize;
+		}
+	}
+
+	/**
+	 * Reads the ID3v1 tag at the end of the file, if there is one, and fills in the fields which are still
+	 * missing.
+	 *
+	 * @param in the file
+	 * @param fields the fields to fill in
+	 * @throws IOException if the file cannot be read
+	 */
+	private static void readId3v1(RandomAccessFile in, String[] fields) throws IOException {
+		long length = in.length();
+		byte[] tag = new byte[128];
+		if(length < tag.length){
+			return;
+		}
+		in.seek(length - tag.length);
+		in.readFully(tag);
+		if((tag[0] != 'T') || (tag[1] != 'A') || (tag[2] != 'G')){
+			return;
+		}
+
+		int[] offsets = {3, 33, 63};
+		for(int field=TITLE; field<=ALBUM; field++){
+			if(fields[field] == null){
+				// the fields are filled up with zeros, anything after the first one is garbage
+				String value = new String(tag, offsets[field], 30, ISO_8859_1);
+				int zero = value.indexOf('\0');
+				fields[field] = clean((zero >= 0) ? value.substring(0, zero) : value);
+			}
+		}
+	}
+
+	/**
+	 * Reads the INFO list of a RIFF file, if there is one.
+	 *
+	 * @param in the file
+	 * @param fields the fields to fill in
+	 * @throws IOException if the file cannot be read
+	 */
+	private static void readRiff(RandomAccessFile in, String[] fields) throws IOException {
+		long length = in.length();
+		byte[] header = new byte[12];
+		if(length < header.length){
+			return;
+		}
+		in.seek(0);
+		in.readFully(header);
+		if(!new String(header, 0, 4, ISO_8859_1).equals("RIFF") || !new String(header, 8, 4, ISO_8859_1).equals("WAVE")){
+			return;
+		}
+
+		long position = header.length;
+		byte[] chunkHeader = new byte[8];
+		while((position + chunkHeader.length) <= length){
+			in.seek(position);
+			in.readFully(chunkHeader);
+			long chunkSize = littleEndian(chunkHeader, 4);
+			long chunkEnd = position + chunkHeader.length + chunkSize;
+
+			if(new String(chunkHeader, 0, 4, ISO_8859_1).equals("LIST") && (chunkSize >= 4)
+					&& (chunkSize <= MAX_FIELD_SIZE) && (chunkEnd <= length)){
+				byte[] list = new byte[(int) chunkSize];
+				in.readFully(list);
+				if(new String(list, 0, 4, ISO_8859_1).equals("INFO")){
+					readInfo(list, fields);
+				}
+			}
+			// chunks are padded to an even size
+			position = chunkEnd + (chunkSize & 1);
+		}
+	}
+
+	/**
+	 * Reads the sub-chunks of an INFO list.
+	 *
+	 * @param list the contents of the list, starting with "INFO"
+	 * @param fields the fields to fill in
+	 */
+	private static void readInfo(byte[] list, String[] fields){
+		int position = 4;
+		while((position + 8) <= list.length){
+			String id = new String(list, position, 4, ISO_8859_1);
+			long size = littleEndian(list, position + 4);
+			if((position + 8 + size) > list.length){
+				break;
+			}
+
+			int field = id.equals("INAM") ? TITLE : id.equals("IART") ? ARTIST : id.equals("IPRD") ? ALBUM : -1;
+			if((field >= 0) && (fields[field] == null)){
+				fields[field] = clean(decode(list, position + 8, (int) size));
+			}
+			position += 8 + (int) size + (int) (size & 1);
+		}
+	}
+
+	/**
+	 * Returns the field which the ID3v2 frame stands for.
+	 *
+	 * @param id the ID of the frame
+	 * @return the field, or -1 if the frame is not needed
+	 */
+	private static int field(String id){
+		switch (id) {
+		case "TIT2":
+		case "TT2":
+			return TITLE;
+		case "TPE1":
+		case "TP1":
+			return ARTIST;
+		case "TALB":
+		case "TAL":
+			return ALBUM;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads bytes either from the file (relative to the end of the ID3v2 header) or from the tag, if it has
+	 * been read as a whole.
+	 *
+	 * @param in the file
+	 * @param tag the tag, or NULL if it has to be read from the file
+	 * @param position the position to read from
+	 * @param buffer the buffer to read into
+	 * @param length the number of bytes to read
+	 * @return FALSE if there are not enough bytes
+	 * @throws IOException if the file cannot be read
+	 */
+	private static boolean read(RandomAccessFile in, byte[] tag, long position, byte[] buffer, int length) throws IOException {
+		if(tag != null){
+			if((position + length) > tag.length){
+				return false;
+			}
+			System.arraycopy(tag, (int) position, buffer, 0, length);
+			return true;
+		}
+		if((10 + position + length) > in.length()){
+			return false;
+		}
+		in.seek(10 + position);
+		in.readFully(buffer, 0, length);
+		return true;
+	}
+
+	/**
+	 * Decodes the contents of an ID3v2 text frame, whose first byte specifies the encoding.
+	 * Multiple values are joined with "/".
+	 *
+	 * @param content the contents of the frame
+	 * @param offset the start of the frame's data
+	 * @param length the length of the frame's data
+	 * @return the text, or NULL if it is empty
+	 */
+	private static String text(byte[] content, int offset, int length){
+		if(length < 1){
+			return null;
+		}
+		Charset charset;
+		switch (content[offset]) {
+		case 0:
+			charset = ISO_8859_1;
+			break;
+		case 1:
+			charset = UTF_16;
+			break;
+		case 2:
+			charset = UTF_16BE;
+			break;
+		case 3:
+			charset = UTF_8;
+			break;
+		default:
+			return null;
+		}
+		return clean(new String(content, offset + 1, length - 1, charset));
+	}
+
+	/**
+	 * Decodes text which is supposed to be ISO-8859-1, but is often written in UTF-8.
+	 *
+	 * @param data the bytes
+	 * @param offset the start of the text
+	 * @param length the length of the text
+	 * @return the text
+	 */
+	private static String decode(byte[] data, int offset, int length){
+		try {
+			return UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(data, offset, length)).toString();
+		} catch (CharacterCodingException e) {
+			return new String(data, offset, length, ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Removes byte order marks and terminating zeros, joins multiple values with "/" and trims the text.
+	 *
+	 * @param text the text
+	 * @return the cleaned text, or NULL if it is empty
+	 */
+	private static String clean(String text){
+		text = text.replace("\uFEFF", "");
+		int end = text.length();
+		while((end > 0) && (text.charAt(end - 1) == '\0')){
+			end--;
+		}
+		text = text.substring(0, end);
+		// ID3v2.4 separates multiple values with zeros
+		text = text.replace('\0', '/').trim();
+		return text.isEmpty() ? null : text;
+	}
+
+	/**
+	 * Removes the zero byte after every 0xFF byte, which has been inserted by the unsynchronisation scheme.
+	 *
+	 * @param data the unsynchronised data
+	 * @param offset the start of the data
+	 * @param length the length of the data
+	 * @return the original data
+	 */
+	private static byte[] resynchronise(byte[] data, int offset, int length){
+		byte[] result = new byte[length];
+		int count = 0;
+		for(int i=offset; i<(offset + length); i++){
+			result[count++] = data[i];
+			if(((data[i] & 0xFF) == 0xFF) && ((i + 1) < (offset + length)) && (data[i + 1] == 0)){
+				i++;
+			}
+		}
+		byte[] trimmed = new byte[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	/**
+	 * Reads a "syncsafe" integer, which only uses the lower seven bits of each of its four bytes.
+	 *
+	 * @param data the bytes
+	 * @param offset the position of the integer
+	 * @return the integer
+	 */
+	private static int syncsafe(byte[] data, int offset){
+		return ((data[offset] & 0x7F) << 21) | ((data[offset + 1] & 0x7F) << 14)
+				| ((data[offset + 2] & 0x7F) << 7) | (data[offset + 3] & 0x7F);
+	}
+
+	/**
+	 * Reads a big-endian 32 bit integer.
+	 *
+	 * @param data the bytes
+	 * @param offset the position of the integer
+	 * @return the integer
+	 */
+	private static int int32(byte[] data, int offset){
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+				| ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Reads an unsigned little-endian 32 bit integer.
+	 *
+	 * @param data the bytes
+	 * @param offset the position of the integer
+	 * @return the integer
+	 */
+	private static long littleEndian(byte[] data, int offset){
+		return (data[offset] & 0xFFL) | ((data[offset + 1] & 0xFFL) << 8)
+				| ((data[offset + 2] & 0xFFL) << 16) | ((data[offset + 3] & 0xFFL) << 24);
+	}
+}
@@ -0,0 +1,69 @@
+package net.skwod.library;
+
+/**
+ * A music file in the Library together with the metadata read from its tags.
+ * Fields which are not tagged are empty; if the title is missing, the file name (without the extension) is used.
+ *
+ * @author Maxmanski
+ */
+public final class Track {
+
+	private final Entry entry;
+	private final String path;
+	private final String title;
+	private final String artist;
+	private final String album;
+
+	Track(Entry entry, String title, String artist, String album) {
+		this.entry = entry;
+		this.path = entry.getPath().replace('\\', '/');
+		this.title = title;
+		this.artist = artist;
+		this.album = album;
+	}
+
+	/**
+	 * Returns the music file.
+	 *
+	 * @return the entry in the Library
+	 */
+	public Entry getEntry(){
+		return entry;
+	}
+
+	/**
+	 * Returns the path of the music file relative to the music directory, using "/" as separator.
+	 *
+	 * @return the relative path
+	 */
+	public String getPath(){
+		return path;
+	}
+
+	/**
+	 * Returns the title.
+	 *
+	 * @return the title
+	 */
+	public String getTitle(){
+		return title;
+	}
+
+	/**
+	 * Returns the artist.
+	 *
+	 * @return the artist, or the empty String
+	 */
+	public String getArtist(){
+		return artist;
+	}
+
+	/**
+	 * Returns the album.
+	 *
+	 * @return the album, or the empty String
+	 */
+	public String getAlbum(){
+		return album;
+	}
+}
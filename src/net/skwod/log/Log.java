@@ -0,0 +1,663 @@
+package net.skwod.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The log of the server: Messages are handed over to a background thread, which formats them and writes them to
+ * the console or to a file, so that logging never waits for I/O. On the console, warnings and errors go to
+ * System.err and everything else to System.out.
+ *
+ * The messages are passed through a ring buffer of preallocated entries: Logging a message only claims the next
+ * entry, copies the message into the entry's own buffer and publishes it, without taking a lock or allocating
+ * anything (as long as the message is not longer than the ones before). Timestamps are taken as milliseconds and
+ * only formatted by the writer thread. Messages below the Level of the Log are discarded right away; callers
+ * should check isEnabled() before building a message, so that disabled messages cost nothing at all.
+ *
+ * If the writer cannot keep up and the ring buffer is full, the Overflow policy decides whether the logging
+ * thread waits for space (BLOCK) or the message is dropped (DROP); dropped messages are counted and reported in
+ * the log once there is space again.
+ *
+ * A log file is rotated once it has reached its maximum size: "rmc.log" becomes "rmc.log.1", "rmc.log.1" becomes
+ * "rmc.log.2" and so on, up to the configured number of files.
+ *
+ * @author Maxmanski
+ */
+public final class Log {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT)
+			.withZone(ZoneId.systemDefault());
+	private static final long IDLE_PARK_NANOS = 10000000L;
+	private static final long FULL_PARK_NANOS = 50000L;
+	private static final int MAX_RETAINED_LENGTH = 4096;
+
+	private static volatile Log instance = null;
+
+	/**
+	 * The severity of a message.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Level {
+
+		/** Details which are only of interest when looking for a problem */
+		DEBUG,
+
+		/** The normal operation of the server, e.g. connections and commands */
+		INFO,
+
+		/** Something went wrong, but the server can carry on */
+		WARN,
+
+		/** Something went wrong which the server cannot recover from */
+		ERROR;
+
+		/**
+		 * Finds the Level with the specified name, ignoring the case.
+		 *
+		 * @param name the name of the Level
+		 * @return the Level, or NULL if there is no such Level
+		 */
+		public static Level forName(String name){
+			for(Level level: values()){
+				if(level.name().equalsIgnoreCase(name.trim())){
+					return level;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * What happens to a message if the ring buffer is full.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Overflow {
+
+		/** The logging thread waits until the writer has made space; no message is lost */
+		BLOCK,
+
+		/** The message is dropped; the logging thread never waits */
+		DROP;
+
+		/**
+		 * Finds the Overflow policy with the specified name, ignoring the case.
+		 *
+		 * @param name the name of the policy
+		 * @return the Overflow policy, or NULL if there is no such policy
+		 */
+		public static Overflow forName(String name){
+			for(Overflow overflow: values()){
+				if(overflow.name().equalsIgnoreCase(name.trim())){
+					return overflow;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * An entry of the ring buffer. Its fields are written by the thread which has claimed it, and become visible
+	 * to the writer thread by publishing its sequence number.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Entry {
+
+		private volatile long sequence;
+		private long time;
+		private Level level;
+		private StringBuilder text;
+		private Throwable error;
+
+		public Entry(long sequence) {
+			this.sequence = sequence;
+			this.text = new StringBuilder(128);
+		}
+	}
+
+	private final Entry[] entries;
+	private final int mask;
+	private final Overflow overflow;
+	private final File file;
+	private final long maxFileSize;
+	private final int maxFiles;
+
+	private volatile Level level;
+	private final AtomicLong claimed;
+	private volatile long consumed;
+	private final LongAdder dropped;
+	private volatile boolean writerParked;
+	private volatile boolean closing;
+	private final Thread writerThread;
+	private final Thread shutdownHook;
+
+	// only used by the writer thread
+	private CountingOutputStream stream;
+	private Writer out;
+	private Writer errorOut;
+	private Writer lastOut;
+	private final StringBuilder line;
+	private long lastSecond;
+	private String lastSecondText;
+
+	/**
+	 * Creates a new Log and starts its writer thread.
+	 *
+	 * @param level the lowest Level to log
+	 * @param capacity the number of entries of the ring buffer, rounded up to a power of two
+	 * @param overflow what to do if the ring buffer is full
+	 * @param file the file to log to, or NULL for the console
+	 * @param maxFileSize the size in bytes at which the file is rotated, 0 meaning never
+	 * @param maxFiles the number of rotated files to keep
+	 * @throws IOException if the file cannot be opened
+	 */
+	private Log(Level level, int capacity, Overflow overflow, File file, long maxFileSize, int maxFiles) throws IOException {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.entries = new Entry[size];
+		for(int i=0; i<size; i++){
+			// the sequence of the entry's previous use, so that it does not count as published
+			entries[i] = new Entry(i - size);
+		}
+		this.mask = size - 1;
+		this.overflow = overflow;
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = Math.max(0, maxFiles);
+
+		this.level = level;
+		this.claimed = new AtomicLong(0);
+		this.consumed = 0;
+		this.dropped = new LongAdder();
+		this.writerParked = false;
+		this.closing = false;
+		this.line = new StringBuilder(256);
+		this.lastSecond = Long.MIN_VALUE;
+		this.lastSecondText = null;
+		open();
+
+		this.writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				write();
+			}
+		}, "rmc-log");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		this.shutdownHook = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				close();
+			}
+		}, "rmc-log-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Returns the log of the server. Unless it has been started with a configuration, it logs everything from
+	 * INFO on to the console.
+	 *
+	 * @return the shared Log
+	 */
+	public static Log getInstance(){
+		Log log = instance;
+		if(log != null){
+			return log;
+		}
+		synchronized (Log.class) {
+			if(instance == null){
+				try {
+					instance = new Log(Level.INFO, 8192, Overflow.BLOCK, null, 0, 0);
+				} catch (IOException e) {
+					// the console does not need to be opened
+					throw new IllegalStateException(e);
+				}
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Replaces the log of the server with a new one, closing the old one after it has written its messages.
+	 *
+	 * @param level the lowest Level to log
+	 * @param capacity the number of entries of the ring buffer, rounded up to a power of two
+	 * @param overflow what to do if the ring buffer is full
+	 * @param file the file to log to, or NULL for the console
+	 * @param maxFileSize the size in bytes at which the file is rotated, 0 meaning never
+	 * @param maxFiles the number of rotated files to keep
+	 * @return the new Log
+	 * @throws IOException if the file cannot be opened; the old Log is kept in that case
+	 */
+	public static synchronized Log start(Level level, int capacity, Overflow overflow, File file, long maxFileSize, int maxFiles)
+			throws IOException {
+		Log log = new Log(level, capacity, overflow, file, maxFileSize, maxFiles);
+		Log old = instance;
+		instance = log;
+		if(old != null){
+			old.close();
+			Runtime.getRuntime().removeShutdownHook(old.shutdownHook);
+		}
+		return log;
+	}
+
+	/**
+	 * Checks whether messages of the Level are logged.
+	 *
+	 * @param level the Level
+	 * @return TRUE if they are logged
+	 */
+	public boolean isEnabled(Level level){
+		return level.compareTo(this.level) >= 0;
+	}
+
+	/**
+	 * Changes the lowest Level to log.
+	 *
+	 * @param level the Level
+	 */
+	public void setLevel(Level level){
+		this.level = level;
+	}
+
+	/**
+	 * Returns the lowest Level which is logged.
+	 *
+	 * @return the Level
+	 */
+	public Level getLevel(){
+		return level;
+	}
+
+	/**
+	 * Returns the number of messages which have been dropped because the ring buffer was full.
+	 *
+	 * @return the number of dropped messages
+	 */
+	public long getDropped(){
+		return dropped.sum();
+	}
+
+	/**
+	 * Logs a message with Level DEBUG.
+	 *
+	 * @param message the message; it is copied, so it may be reused afterwards
+	 */
+	public void debug(CharSequence message){
+		log(Level.DEBUG, message, null);
+	}
+
+	/**
+	 * Logs a message with Level INFO.
+	 *
+	 * @param message the message; it is copied, so it may be reused afterwards
+	 */
+	public void info(CharSequence message){
+		log(Level.INFO, message, null);
+	}
+
+	/**
+	 * Logs a message with Level WARN.
+	 *
+	 * @param message the message; it is copied, so it may be reused afterwards
+	 */
+	public void warn(CharSequence message){
+		log(Level.WARN, message, null);
+	}
+
+	/**
+	 * Logs a message with Level ERROR.
+	 *
+	 * @param message the message; it is copied, so it may be reused afterwards
+	 */
+	public void error(CharSequence message){
+		log(Level.ERROR, message, null);
+	}
+
+	/**
+	 * Logs a message with Level ERROR, followed by the stack trace of the error.
+	 *
+	 * @param message the message; it is copied, so it may be reused afterwards
+	 * @param error the error
+	 */
+	public void error(CharSequence message, Throwable error){
+		log(Level.ERROR, message, error);
+	}
+
+	/**
+	 * Logs a message, if its Level is enabled.
+	 *
+	 * @param level the Level of the message
+	 * @param message the message; it is copied, so it may be reused afterwards
+	 * @param error an error whose stack trace is logged after the message, or NULL
+	 */
+	public void log(Level level, CharSequence message, Throwable error){
+		if(!isEnabled(level)){
+			return;
+		}
+		long time = System.currentTimeMillis();
+		if(closing){
+			// e.g. from another shutdown hook: there is nobody left to write it
+			writeDirectly(time, level, message, error);
+			return;
+		}
+
+		long sequence = claim();
+		if(sequence < 0){
+			dropped.increment();
+			return;
+		}
+		Entry entry = entries[(int) (sequence & mask)];
+		entry.time = time;
+		entry.level = level;
+		entry.text.setLength(0);
+		entry.text.append(message);
+		entry.error = error;
+		entry.sequence = sequence;
+
+		if(writerParked){
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	/**
+	 * Writes all messages which have been logged so far and stops the writer thread.
+	 * Messages which are logged afterwards are written directly.
+	 */
+	public void close(){
+		closing = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Claims the next entry of the ring buffer, applying the Overflow policy if it is full.
+	 *
+	 * @return the sequence number of the entry, or -1 if the message has to be dropped
+	 */
+	private long claim(){
+		while(true){
+			long sequence = claimed.get();
+			if((sequence - consumed) >= entries.length){
+				if(overflow == Overflow.DROP){
+					return -1;
+				}
+				if(writerParked){
+					LockSupport.unpark(writerThread);
+				}
+				LockSupport.parkNanos(this, FULL_PARK_NANOS);
+				if(closing){
+					return -1;
+				}
+				continue;
+			}
+			if(claimed.compareAndSet(sequence, sequence + 1)){
+				return sequence;
+			}
+		}
+	}
+
+	/**
+	 * The loop of the writer thread: Writes the published entries in order, and flushes the output whenever it
+	 * has caught up, until the Log is closed and all claimed entries have been written.
+	 */
+	private void write(){
+		long sequence = 0;
+		long reportedDrops = 0;
+		boolean dirty = false;
+
+		while(true){
+			Entry entry = entries[(int) (sequence & mask)];
+			if(entry.sequence != sequence){
+				// caught up: report the dropped messages, and make everything visible
+				long drops = dropped.sum();
+				if(drops != reportedDrops){
+					writeEntry(System.currentTimeMillis(), Level.WARN, (drops - reportedDrops) + " log messages dropped, the log buffer was full", null);
+					reportedDrops = drops;
+					dirty = true;
+				}
+				if(dirty){
+					flush();
+					dirty = false;
+				}
+				if(closing && (claimed.get() == sequence)){
+					break;
+				}
+				writerParked = true;
+				if(entry.sequence != sequence){
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				writerParked = false;
+				continue;
+			}
+
+			writeEntry(entry.time, entry.level, entry.text, entry.error);
+			entry.error = null;
+			if(entry.text.length() > MAX_RETAINED_LENGTH){
+				// do not keep the memory of an exceptionally long message forever
+				entry.text = new StringBuilder(128);
+			}
+			sequence++;
+			consumed = sequence;
+			dirty = true;
+		}
+
+		flush();
+		if(file != null){
+			closeOutput();
+		}
+	}
+
+	/**
+	 * Formats a message and writes it to the output, rotating the file if it has become too large.
+	 *
+	 * @param time the time of the message, in milliseconds
+	 * @param level the Level of the message
+	 * @param message the message
+	 * @param error an error whose stack trace to write, or NULL
+	 */
+	private void writeEntry(long time, Level level, CharSequence message, Throwable error){
+		long second = Math.floorDiv(time, 1000);
+		if(second != lastSecond){
+			lastSecond = second;
+			lastSecondText = SECONDS.format(Instant.ofEpochSecond(second));
+		}
+		line.setLength(0);
+		format(line, lastSecondText, time, level, message, error);
+		if(out == null){
+			return;
+		}
+		Writer target = ((errorOut != null) && (level.compareTo(Level.WARN) >= 0)) ? errorOut : out;
+		try {
+			if((lastOut != null) && (lastOut != target)){
+				// keeps the messages in order if both streams end up in the same place
+				lastOut.flush();
+			}
+			lastOut = target;
+			target.append(line);
+			if((file != null) && (maxFileSize > 0) && (stream.getCount() >= maxFileSize)){
+				rotate();
+			}
+		} catch (IOException e) {
+			// the log cannot log its own failure
+			System.err.println("Could not write the log: " + e.getMessage());
+			System.err.print(line);
+		}
+	}
+
+	/**
+	 * Formats a message as a line, "yyyy-MM-dd HH:mm:ss:SSS LEVEL message".
+	 *
+	 * @param line the buffer to which to append the line
+	 * @param secondText the formatted time of the message, without the milliseconds
+	 * @param time the time of the message, in milliseconds
+	 * @param level the Level of the message
+	 * @param message the message
+	 * @param error an error whose stack trace to append, or NULL
+	 */
+	private static void format(StringBuilder line, String secondText, long time, Level level, CharSequence message, Throwable error){
+		int millis = Math.floorMod(time, 1000);
+		line.append(secondText).append(':');
+		if(millis < 100){
+			line.append('0');
+		}
+		if(millis < 10){
+			line.append('0');
+		}
+		line.append(millis).append(' ').append(level.name());
+		for(int i=level.name().length(); i<5; i++){
+			line.append(' ');
+		}
+		line.append(' ').append(message).append(System.lineSeparator());
+
+		if(error != null){
+			StringWriter trace = new StringWriter();
+			error.printStackTrace(new PrintWriter(trace));
+			line.append(trace);
+		}
+	}
+
+	/**
+	 * Writes a message on the calling thread, after the writer thread has stopped.
+	 *
+	 * @param time the time of the message, in milliseconds
+	 * @param level the Level of the message
+	 * @param message the message
+	 * @param error an error whose stack trace to write, or NULL
+	 */
+	private static void writeDirectly(long time, Level level, CharSequence message, Throwable error){
+		StringBuilder text = new StringBuilder();
+		format(text, SECONDS.format(Instant.ofEpochMilli(time)), time, level, message, error);
+		System.err.print(text);
+	}
+
+	/**
+	 * Opens the output: the log file (appending to it) or the console.
+	 *
+	 * @throws IOException if the file cannot be opened
+	 */
+	private void open() throws IOException {
+		if(file == null){
+			stream = new CountingOutputStream(System.out, 0);
+			out = new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()), 16384);
+			errorOut = new BufferedWriter(new OutputStreamWriter(System.err, Charset.defaultCharset()), 4096);
+			return;
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if((parent != null) && !parent.isDirectory()){
+			parent.mkdirs();
+		}
+		stream = new CountingOutputStream(new FileOutputStream(file, true), file.length());
+		out = new BufferedWriter(new OutputStreamWriter(stream, UTF8), 16384);
+	}
+
+	/**
+	 * Closes the log file and starts a new one, shifting the older files by one.
+	 *
+	 * @throws IOException if the new file cannot be opened
+	 */
+	private void rotate() throws IOException {
+		closeOutput();
+		if(maxFiles == 0){
+			file.delete();
+		}else{
+			new File(file.getPath() + "." + maxFiles).delete();
+			for(int i=maxFiles-1; i>=1; i--){
+				File older = new File(file.getPath() + "." + i);
+				if(older.exists()){
+					older.renameTo(new File(file.getPath() + "." + (i + 1)));
+				}
+			}
+			file.renameTo(new File(file.getPath() + ".1"));
+		}
+		open();
+	}
+
+	/**
+	 * Flushes the output, so that the messages become visible.
+	 */
+	private void flush(){
+		try {
+			if(out != null){
+				out.flush();
+			}
+			if(errorOut != null){
+				errorOut.flush();
+			}
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Closes the output, which must be a file.
+	 */
+	private void closeOutput(){
+		try {
+			if(out != null){
+				out.close();
+			}
+		} catch (IOException e) {}
+		out = null;
+		lastOut = null;
+	}
+
+	/**
+	 * An OutputStream which counts the bytes written, for the rotation of the log file.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		public CountingOutputStream(OutputStream out, long count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		/**
+		 * Returns the size of the output, including what it had before.
+		 *
+		 * @return the number of bytes
+		 */
+		public long getCount(){
+			return count;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package net.skwod.player;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds command lines for players which accept several files per invocation, packing as many files into each
+ * invocation as the operating system's limit for the length of a command line allows.
+ * The files are distributed over the invocations in their original order.
+ *
+ * @author Maxmanski
+ */
+class CommandLine {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+	/**
+	 * The maximum length of a command line. Windows allows 32767 characters; on other systems, the limit for
+	 * all arguments and the environment together is usually a lot higher, but a single argument must not exceed
+	 * 128 KiB on Linux. Both values leave some room for the environment and for the quoting by the JVM.
+	 */
+	static final int MAX_LENGTH = WINDOWS ? 30000 : 128 * 1024;
+
+	private CommandLine() {}
+
+	/**
+	 * Creates the command lines for the specified files. Every command line consists of the prefix, followed by
+	 * as many files as fit. A file which does not fit into a command line on its own gets a command line anyway.
+	 *
+	 * @param prefix the executable and the arguments preceding the files
+	 * @param files the files, in the order in which they should be passed
+	 * @return the command lines; none if there are no files
+	 */
+	static List<String[]> pack(String[] prefix, List<String> files){
+		List<String[]> commands = new ArrayList<>();
+		int prefixLength = 0;
+		for(String argument: prefix){
+			prefixLength += length(argument);
+		}
+
+		List<String> batch = new ArrayList<>();
+		int length = prefixLength;
+		for(String file: files){
+			int fileLength = length(file);
+			if(!batch.isEmpty() && ((length + fileLength) > MAX_LENGTH)){
+				commands.add(concat(prefix, batch));
+				batch.clear();
+				length = prefixLength;
+			}
+			batch.add(file);
+			length += fileLength;
+		}
+		if(!batch.isEmpty()){
+			commands.add(concat(prefix, batch));
+		}
+		return commands;
+	}
+
+	/**
+	 * Estimates the space the argument takes up in a command line: On Windows, the characters plus quotes and a
+	 * separating space; elsewhere, the encoded bytes plus the terminating NUL and the pointer to the argument.
+	 *
+	 * @param argument the argument
+	 * @return the estimated length
+	 */
+	private static int length(String argument){
+		if(WINDOWS){
+			return argument.length() + 3;
+		}
+		return argument.getBytes(UTF8).length + 1 + 8;
+	}
+
+	/**
+	 * Concatenates the prefix and the files into a single command.
+	 *
+	 * @param prefix the prefix
+	 * @param files the files
+	 * @return the command
+	 */
+	private static String[] concat(String[] prefix, List<String> files){
+		String[] command = Arrays.copyOf(prefix, prefix.length + files.size());
+		for(int i=0; i<files.size(); i++){
+			command[prefix.length + i] = files.get(i);
+		}
+		return command;
+	}
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.skwod.player.ProcessExecutor.TimeoutPolicy;
+
 /**
  * This class handles the construction and execution of commands, specific for the Player "mpd" / "mpc" for Linux,
  * which can be used on servers and completely without GUI.
@@ -13,91 +15,92 @@ import java.util.List;
  */
 public class MPC implements Player {
 
+	private ProcessExecutor executor;
 	private String playerCommand;
-	private int playlistSize;
 
 	public MPC(String playerDir) {
 		this(playerDir, "mpc");
 	}
 
 	public MPC(String playerDir, String playerExec) {
+		this.executor = ProcessExecutor.getInstance();
 		this.playerCommand = playerDir;
 		if(!playerCommand.endsWith(File.separator)){
 			playerCommand += File.separator;
 		}
 		playerCommand += playerExec;
 		playerCommand = playerCommand.trim();
-		playlistSize = 0;
 	}
 
 	@Override
 	public void play() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "play"});
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "play");
 	}
 
 	@Override
 	public void pause() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "pause"});
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "pause");
 	}
 
 	@Override
 	public void stop() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "stop"});
-		sleep(50);
-		this.clear();
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "stop");
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "clear");
 	}
 
 	@Override
 	public void playSongs(List<String> songs) throws IOException {
-		playlistSize = 0;
 		songs = new ArrayList<>(songs);
 		stop();
-		sleep(50);
 		addSongs(songs);
-		sleep(50);
 		play();
 	}
 
 	@Override
 	public void addSongs(List<String> songs) throws IOException {
 		for(String str: songs){
-			playlistSize++;
 			if(str.startsWith("./")){
 				str = str.substring(2);
 			}
-			Runtime.getRuntime().exec(new String[]{playerCommand, "add", str});
+			executor.execute(TimeoutPolicy.KILL, playerCommand, "add", str);
 		}
 	}
 
 	@Override
 	public void next() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "next"});
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "next");
 
 	}
 
 	@Override
 	public void previous() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "prev"});
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "prev");
 	}
 
 	@Override
 	public void random() throws IOException {
-		if(playlistSize <= 0){
-			return;
-		}
+		// never used, since the server chooses the random songs itself and jump()s to them
+		throw new UnsupportedOperationException("random");
+	}
 
-		int pos = ((int)(Math.random() * playlistSize) + 1);
-		Runtime.getRuntime().exec(new String[]{playerCommand, "play", Integer.toString(pos)});
+	@Override
+	public void remove(int position) throws IOException {
+		// mpc counts from 1
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "del", Integer.toString(position + 1));
 	}
 
-	public void clear() throws IOException {
-		playlistSize = 0;
-		Runtime.getRuntime().exec(new String[]{playerCommand, "clear"});
+	@Override
+	public void move(int from, int to) throws IOException {
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "move", Integer.toString(from + 1), Integer.toString(to + 1));
 	}
 
-	private void sleep(long ms) {
-		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException ignored) {}
+	@Override
+	public void jump(int position) throws IOException {
+		executor.execute(TimeoutPolicy.KILL, playerCommand, "play", Integer.toString(position + 1));
+	}
+
+	@Override
+	public boolean canJump() {
+		return true;
 	}
 }
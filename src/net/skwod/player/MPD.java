@@ -0,0 +1,393 @@
+package net.skwod.player;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class controls the music player daemon "mpd" directly via its text protocol, over a persistent connection.
+ * Unlike MPC, it does not need to start a process per action: All commands of an action are sent as a single
+ * command list, so that e.g. playing a new playlist takes only one round trip.
+ *
+ * The daemon is located the same way "mpc" does it: via the environment variables MPD_HOST
+ * (optionally "password@host") and MPD_PORT, defaulting to "localhost" and 6600.
+ *
+ * @author Maxmanski
+ */
+public class MPD implements Player, Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int DEFAULT_PORT = 6600;
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT = 10000;
+	private static final long PROBE_AFTER = 5000;
+
+	private final String host;
+	private final int port;
+	private final String password;
+	private final long probeAfter;
+	private final int readTimeout;
+	private Socket socket;
+	private BufferedReader reader;
+	private Writer writer;
+	private long lastUsed;
+
+	public MPD() {
+		this(System.getenv("MPD_HOST"), System.getenv("MPD_PORT"));
+	}
+
+	public MPD(String host, String port) {
+		this(host, port, PROBE_AFTER, READ_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new MPD with the specified timings, e.g. for testing.
+	 *
+	 * @param host the host, optionally "password@host"
+	 * @param port the port
+	 * @param probeAfter the time (in milliseconds) after which an idle connection is probed before it is used
+	 * @param readTimeout the time (in milliseconds) to wait for a reply
+	 */
+	MPD(String host, String port, long probeAfter, int readTimeout) {
+		String pass = null;
+		if((host == null) || host.trim().isEmpty()){
+			host = "localhost";
+		}else if(host.contains("@")){
+			pass = host.substring(0, host.lastIndexOf('@'));
+			host = host.substring(host.lastIndexOf('@') + 1);
+		}
+
+		int portNo = DEFAULT_PORT;
+		try {
+			portNo = Integer.parseInt(port.trim());
+		} catch (Exception e) {}
+
+		this.host = host.trim();
+		this.port = portNo;
+		this.password = pass;
+		this.probeAfter = probeAfter;
+		this.readTimeout = readTimeout;
+		this.lastUsed = 0;
+	}
+
+	@Override
+	public synchronized void play() throws IOException {
+		execute("play");
+	}
+
+	@Override
+	public synchronized void pause() throws IOException {
+		execute("pause 1");
+	}
+
+	@Override
+	public synchronized void stop() throws IOException {
+		execute("stop", "clear");
+	}
+
+	@Override
+	public synchronized void playSongs(List<String> songs) throws IOException {
+		List<String> commands = new ArrayList<>();
+		commands.add("clear");
+		for(String song: songs){
+			commands.add(add(song));
+		}
+		commands.add("play");
+		execute(commands.toArray(new String[commands.size()]));
+	}
+
+	@Override
+	public synchronized void addSongs(List<String> songs) throws IOException {
+		List<String> commands = new ArrayList<>();
+		for(String song: songs){
+			commands.add(add(song));
+		}
+		execute(commands.toArray(new String[commands.size()]));
+	}
+
+	@Override
+	public synchronized void next() throws IOException {
+		execute("next");
+	}
+
+	@Override
+	public synchronized void previous() throws IOException {
+		execute("previous");
+	}
+
+	@Override
+	public synchronized void random() throws IOException {
+		int playlistLength = 0;
+		for(String line: execute("status")){
+			if(line.startsWith("playlistlength: ")){
+				playlistLength = Integer.parseInt(line.substring("playlistlength: ".length()).trim());
+			}
+		}
+
+		if(playlistLength <= 0){
+			return;
+		}
+
+		int pos = (int)(Math.random() * playlistLength);
+		execute("play " + pos);
+	}
+
+	@Override
+	public synchronized void remove(int position) throws IOException {
+		execute("delete " + position);
+	}
+
+	@Override
+	public synchronized void move(int from, int to) throws IOException {
+		execute("move " + from + " " + to);
+	}
+
+	@Override
+	public synchronized void jump(int position) throws IOException {
+		execute("play " + position);
+	}
+
+	@Override
+	public boolean canJump() {
+		return true;
+	}
+
+	/**
+	 * Creates the command for adding the specified song to the playlist.
+	 *
+	 * @param song the song, relative to the music directory
+	 * @return the "add" command
+	 */
+	private static String add(String song){
+		if(song.startsWith("./")){
+			song = song.substring(2);
+		}
+		return "add " + quote(song.replace('\\', '/'));
+	}
+
+	/**
+	 * Quotes the argument for the protocol, escaping backslashes and double quotes.
+	 *
+	 * @param argument the argument to quote
+	 * @return the quoted argument
+	 */
+	private static String quote(String argument){
+		StringBuilder builder = new StringBuilder(argument.length() + 2);
+		builder.append('"');
+		for(int i=0; i<argument.length(); i++){
+			char c = argument.charAt(i);
+			if((c == '"') || (c == '\\')){
+				builder.append('\\');
+			}
+			builder.append(c);
+		}
+		builder.append('"');
+		return builder.toString();
+	}
+
+	/**
+	 * Sends the commands to the daemon and waits for the reply.
+	 * More than one command is sent as a command list, which the daemon executes as a whole.
+	 *
+	 * The commands are only sent once more if they certainly have not been executed: A connection which has been
+	 * idle for a while (and might have been closed by the daemon meanwhile) is probed with "ping" before it is used,
+	 * and if writing the commands fails, the daemon has not received them completely, so it has not executed them
+	 * either (it only executes complete lines, and a command list only once it has been ended).
+	 * Once the commands have been sent, any failure (including a timeout while waiting for the reply) is reported
+	 * as it is, since the daemon might have executed them already.
+	 *
+	 * @param commands the commands to send
+	 * @return the lines of the reply, short of the final "OK"
+	 * @throws IOException if the daemon could not be reached or reported an error
+	 */
+	private List<String> execute(String... commands) throws IOException {
+		if(commands.length == 0){
+			return new ArrayList<>();
+		}
+
+		if((socket != null) && ((System.currentTimeMillis() - lastUsed) >= probeAfter) && !probe()){
+			disconnect();
+		}
+
+		boolean fresh = (socket == null);
+		String request = request(commands);
+		try {
+			write(request);
+		} catch (IOException e) {
+			disconnect();
+			if(fresh){
+				throw e;
+			}
+			try {
+				write(request);
+			} catch (IOException e2) {
+				disconnect();
+				throw e2;
+			}
+		}
+
+		try {
+			List<String> reply = readReply();
+			lastUsed = System.currentTimeMillis();
+			return reply;
+		} catch (MPDException e) {
+			lastUsed = System.currentTimeMillis();
+			throw e;
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks whether the connection still works, by sending "ping".
+	 *
+	 * @return TRUE if the daemon has answered
+	 */
+	private boolean probe(){
+		try {
+			writer.write("ping\n");
+			writer.flush();
+			readReply();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the request for the commands: a single command, or a command list.
+	 *
+	 * @param commands the commands
+	 * @return the request, ending with a newline
+	 */
+	private static String request(String... commands){
+		StringBuilder request = new StringBuilder();
+		if(commands.length > 1){
+			request.append("command_list_begin\n");
+		}
+		for(String command: commands){
+			request.append(command).append('\n');
+		}
+		if(commands.length > 1){
+			request.append("command_list_end\n");
+		}
+		return request.toString();
+	}
+
+	/**
+	 * Writes the request over the (possibly new) connection.
+	 *
+	 * @param request the request
+	 * @throws IOException if the daemon could not be reached, or the request could not be written completely
+	 */
+	private void write(String request) throws IOException {
+		connect();
+		writer.write(request);
+		writer.flush();
+	}
+
+	/**
+	 * Reads the lines of a reply up to and including "OK" or "ACK".
+	 *
+	 * @return the lines of the reply, short of the final "OK"
+	 * @throws IOException if the connection broke or the daemon reported an error
+	 */
+	private List<String> readReply() throws IOException {
+		List<String> lines = new ArrayList<>();
+		String line;
+		while((line = reader.readLine()) != null){
+			if(line.equals("OK")){
+				return lines;
+			}else if(line.startsWith("ACK ")){
+				throw new MPDException(line.substring(4));
+			}
+			lines.add(line);
+		}
+		throw new IOException("Connection to mpd closed");
+	}
+
+	/**
+	 * Establishes the connection to the daemon, unless it is already established.
+	 *
+	 * @throws IOException if the daemon could not be reached
+	 */
+	private void connect() throws IOException {
+		if(socket != null){
+			return;
+		}
+
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			s.setSoTimeout(readTimeout);
+			s.setTcpNoDelay(true);
+			reader = new BufferedReader(new InputStreamReader(s.getInputStream(), UTF8));
+			writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), UTF8));
+			socket = s;
+
+			String greeting = reader.readLine();
+			if((greeting == null) || !greeting.startsWith("OK MPD")){
+				throw new IOException("Not an mpd: " + host + ":" + port);
+			}
+			if(password != null){
+				writer.write("password " + quote(password) + "\n");
+				writer.flush();
+				readReply();
+			}
+			lastUsed = System.currentTimeMillis();
+
+		} catch (IOException e) {
+			disconnect();
+			try {
+				s.close();
+			} catch (IOException ignored) {}
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the connection to the daemon, e.g. when the Player is replaced. It is opened again by the next action.
+	 */
+	@Override
+	public synchronized void close(){
+		disconnect();
+	}
+
+	/**
+	 * Closes the connection to the daemon, if there is one.
+	 */
+	private void disconnect(){
+		try {
+			if(socket != null){
+				socket.close();
+			}
+		} catch (IOException ignored) {}
+		socket = null;
+		reader = null;
+		writer = null;
+	}
+
+	/**
+	 * An error reported by the daemon (a reply starting with "ACK"), as opposed to a broken connection.
+	 *
+	 * @author Maxmanski
+	 */
+	private static class MPDException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public MPDException(String message) {
+			super(message);
+		}
+	}
+}
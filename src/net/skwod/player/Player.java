@@ -70,8 +70,45 @@ public interface Player {
 	/**
 	 * Stops the play-back of the current song and starts play-back of a
 	 * random song in the playlist.
+	 * This is only used if the Player cannot jump() (see canJump()), since the
+	 * server chooses the random songs itself otherwise.
 	 *
 	 * @throws IOException
 	 */
 	public void random() throws IOException;
+
+	/**
+	 * Removes the song at the specified position from the currently loaded playlist.
+	 *
+	 * @param position the position of the song, starting at 0
+	 * @throws IOException
+	 */
+	public void remove(int position) throws IOException;
+
+	/**
+	 * Moves the song at the specified position in the currently loaded playlist, so that it ends up at the
+	 * other position.
+	 *
+	 * @param from the current position of the song, starting at 0
+	 * @param to the new position of the song, starting at 0
+	 * @throws IOException
+	 */
+	public void move(int from, int to) throws IOException;
+
+	/**
+	 * Stops the play-back of the current song and starts play-back of the
+	 * song at the specified position in the playlist.
+	 *
+	 * @param position the position of the song, starting at 0
+	 * @throws IOException
+	 */
+	public void jump(int position) throws IOException;
+
+	/**
+	 * Checks whether the Player supports jump(), so that the server can decide
+	 * which song to play before asking the Player to do so.
+	 *
+	 * @return TRUE if jump() is supported
+	 */
+	public boolean canJump();
 }
@@ -11,6 +11,7 @@ public class PlayerFactory {
 
 	/**
 	 * Creates an instance of a Player, depending on the specified playerExec (name of the executable) string.
+	 * If it starts with "simulated", a SimulatedPlayer is configured from it instead (see SimulatedPlayer).
 	 * The music directory will be passed on to the player, as it might be needed for finding the audio files.
 	 *
 	 * @param playerDir the directory in which the executable can be found
@@ -21,14 +22,33 @@ public class PlayerFactory {
 	 */
 	public static Player getPlayer(String playerDir, String playerExec, String musicDir) throws NoSuchPlayerException{
 		String lowerPlayerExec = playerExec.toLowerCase();
-		if(lowerPlayerExec.contains("foobar2000")){
+		if(isSimulated(playerExec)){
+			try {
+				return new SimulatedPlayer(playerExec);
+			} catch (IllegalArgumentException e) {
+				throw new NoSuchPlayerException(playerExec + " (" + e.getMessage() + ")");
+			}
+		}else if(lowerPlayerExec.contains("foobar2000")){
 			return new Foobar2000(playerDir, playerExec, musicDir);
 		}else if(lowerPlayerExec.contains("totem")){
 			return new Totem(playerDir, playerExec, musicDir);
 		}else if(lowerPlayerExec.contains("mpc")){
 			return new MPC(playerDir, playerExec);
+		}else if(lowerPlayerExec.contains("mpd")){
+			return new MPD();
 		}else{
 			throw new NoSuchPlayerException(playerExec);
 		}
 	}
+
+	/**
+	 * Checks whether the playerExec selects the SimulatedPlayer (e.g. "simulated" or "simulated:latency=5"),
+	 * which does not need an executable.
+	 *
+	 * @param playerExec the name of the executable
+	 * @return TRUE if the SimulatedPlayer is selected
+	 */
+	public static boolean isSimulated(String playerExec){
+		return (playerExec != null) && playerExec.trim().toLowerCase().startsWith(SimulatedPlayer.NAME);
+	}
 }
@@ -0,0 +1,134 @@
+package net.skwod.player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import net.skwod.stats.Stats;
+
+/**
+ * Executes the actions on a Player one after another, in the order in which they were submitted, on a single
+ * background thread.
+ *
+ * Submitting an action never blocks: The caller gets a future which is completed once the Player has executed
+ * the action, and can decide whether to wait for it or not. Since the Player is only ever accessed by the
+ * queue's thread, it does not need any further synchronisation. For the same reason, the Player can be replaced
+ * between two actions without any action getting lost (see replace()).
+ *
+ * @author Maxmanski
+ */
+public class PlayerQueue {
+
+	/**
+	 * An action on the Player, executed by the queue's thread.
+	 *
+	 * @author Maxmanski
+	 */
+	public interface Task {
+
+		/**
+		 * Executes the action.
+		 *
+		 * @param player the Player
+		 * @throws IOException if the Player failed to execute the action
+		 */
+		void execute(Player player) throws IOException;
+	}
+
+	private Player player;
+	private final ExecutorService consumer;
+
+	/**
+	 * Creates a new PlayerQueue for the specified Player and starts its thread.
+	 *
+	 * @param player the Player which executes the actions
+	 */
+	public PlayerQueue(Player player) {
+		this.player = player;
+		this.consumer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rmc-player");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Appends the action to the queue.
+	 * The returned future is completed once the action has been executed, or completed exceptionally with
+	 * whatever the Player threw (e.g. an IOException or an UnsupportedOperationException).
+	 *
+	 * @param task the action to execute
+	 * @return the future which signals the action's completion
+	 */
+	public CompletableFuture<Void> submit(final Task task){
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		try {
+			consumer.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						task.execute(player);
+						Stats.getInstance().record(Stats.Phase.PLAYER, System.nanoTime() - start);
+						future.complete(null);
+					} catch (Throwable t) {
+						Stats.getInstance().record(Stats.Phase.PLAYER, System.nanoTime() - start);
+						future.completeExceptionally(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new IOException("The player has been shut down"));
+		}
+
+		return future;
+	}
+
+	/**
+	 * Replaces the Player once the actions which have already been submitted are executed; all actions which are
+	 * submitted afterwards are executed by the new Player. The previous Player is stopped (and closed, if it holds
+	 * a connection), and the new one is brought into the state of the previous one by the restore action, which
+	 * is executed before any other action reaches the new Player.
+	 *
+	 * @param replacement the new Player
+	 * @param restore the action which restores the state of the previous Player on the new one
+	 * @return the future which signals the completion of the restore action
+	 */
+	public CompletableFuture<Void> replace(final Player replacement, final Task restore){
+		return submit(new Task() {
+
+			@Override
+			public void execute(Player previous) throws IOException {
+				player = replacement;
+				if(previous != null){
+					try {
+						previous.stop();
+					} catch (IOException | UnsupportedOperationException e) {}
+					if(previous instanceof Closeable){
+						try {
+							((Closeable) previous).close();
+						} catch (IOException e) {}
+					}
+				}
+				restore.execute(replacement);
+			}
+		});
+	}
+
+	/**
+	 * Stops the queue's thread once the actions which have already been submitted are executed.
+	 */
+	public void shutdown(){
+		consumer.shutdown();
+	}
+}
@@ -0,0 +1,251 @@
+package net.skwod.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.skwod.log.Log;
+
+/**
+ * Executes the commands of the process-based Players.
+ *
+ * Every process gets its output (STDOUT and STDERR) drained by a background thread, so that it can never block
+ * on a full pipe, and its pipes are closed as soon as the output ends.
+ * The number of processes which are being waited for at the same time is bounded.
+ * If a process does not exit within the timeout, it is either killed and reported as failed, or left running
+ * (see TimeoutPolicy). If it exits with a code other than 0, this is reported together with the beginning of its
+ * output.
+ *
+ * @author Maxmanski
+ */
+public class ProcessExecutor {
+
+	private static final Charset CHARSET = Charset.defaultCharset();
+	private static final int DEFAULT_MAX_CONCURRENT = 4;
+	private static final long DEFAULT_TIMEOUT = 10000;
+	private static final long DEFAULT_DETACH_TIMEOUT = 2000;
+	private static final long KILL_TIMEOUT = 1000;
+	private static final long OUTPUT_TIMEOUT = 200;
+	private static final int MAX_OUTPUT = 1024;
+
+	private static ProcessExecutor instance = null;
+
+	/**
+	 * Defines what happens with a process that does not exit within the timeout.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum TimeoutPolicy {
+		/**
+		 * The process is killed and the command is reported as failed.
+		 */
+		KILL,
+
+		/**
+		 * The process is left running (e.g. because the command started the player itself) and the command is
+		 * considered successful. The process' output is still drained until it exits.
+		 */
+		DETACH
+	}
+
+	private final Semaphore permits;
+	private final long timeout;
+	private final long detachTimeout;
+	private final ExecutorService drainers;
+	private volatile boolean logCommands;
+
+	/**
+	 * Returns the ProcessExecutor which is shared by all Players.
+	 *
+	 * @return the shared ProcessExecutor
+	 */
+	public static synchronized ProcessExecutor getInstance(){
+		if(instance == null){
+			instance = new ProcessExecutor(DEFAULT_MAX_CONCURRENT, DEFAULT_TIMEOUT, DEFAULT_DETACH_TIMEOUT);
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new ProcessExecutor.
+	 *
+	 * @param maxConcurrent the maximum number of processes being waited for at the same time
+	 * @param timeout the time in milliseconds after which a process is considered hung (TimeoutPolicy.KILL)
+	 * @param detachTimeout the time in milliseconds after which a process is left running (TimeoutPolicy.DETACH)
+	 */
+	public ProcessExecutor(int maxConcurrent, long timeout, long detachTimeout) {
+		this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+		this.timeout = timeout;
+		this.detachTimeout = detachTimeout;
+		this.logCommands = false;
+		this.drainers = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rmc-process-output");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Sets whether every executed command should be logged, including all of its arguments.
+	 * This allows checking which invocations a Player makes, and in which order.
+	 *
+	 * @param logCommands TRUE if the commands should be logged
+	 */
+	public void setLogCommands(boolean logCommands){
+		this.logCommands = logCommands;
+	}
+
+	/**
+	 * Returns whether every executed command should be logged.
+	 *
+	 * @return TRUE if the commands should be logged
+	 */
+	public boolean isLogCommands(){
+		return logCommands;
+	}
+
+	/**
+	 * Executes the command and waits for it to exit.
+	 *
+	 * @param policy what to do if the process does not exit in time
+	 * @param command the executable and its arguments
+	 * @throws IOException if the process could not be started, exited with a code other than 0 or was killed
+	 */
+	public void execute(TimeoutPolicy policy, String... command) throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to execute " + describe(command));
+		}
+
+		try {
+			if(logCommands){
+				StringBuilder line = new StringBuilder("exec:");
+				for(String argument: command){
+					line.append(" \"").append(argument).append('"');
+				}
+				Log.getInstance().info(line);
+			}
+
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			Process process = builder.start();
+			process.getOutputStream().close();
+
+			OutputCollector output = new OutputCollector(process.getInputStream());
+			drainers.execute(output);
+
+			long wait = (policy == TimeoutPolicy.DETACH) ? detachTimeout : timeout;
+			if(!process.waitFor(wait, TimeUnit.MILLISECONDS)){
+				if(policy == TimeoutPolicy.DETACH){
+					Log.getInstance().warn(describe(command) + " is still running after " + wait + " ms, leaving it running");
+					return;
+				}
+
+				// kill whatever the process has started as well, so that nothing outlives it
+				process.descendants().forEach(ProcessHandle::destroyForcibly);
+				process.destroy();
+				if(!process.waitFor(KILL_TIMEOUT, TimeUnit.MILLISECONDS)){
+					process.destroyForcibly();
+				}
+				throw new IOException(describe(command) + " timed out after " + timeout + " ms");
+			}
+
+			int exitCode = process.exitValue();
+			if(exitCode != 0){
+				String message = output.await(OUTPUT_TIMEOUT);
+				throw new IOException(describe(command) + " exited with " + exitCode
+						+ (message.isEmpty() ? "" : (": " + message)));
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while executing " + describe(command));
+
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Creates a short description of the command for error messages: the executable's name and its first argument.
+	 *
+	 * @param command the command
+	 * @return the description
+	 */
+	private static String describe(String[] command){
+		String description = new File(command[0]).getName();
+		if(command.length > 1){
+			description += " " + command[1];
+		}
+		return description;
+	}
+
+	/**
+	 * Reads the output of a process until it ends, keeping only its beginning, and closes it afterwards.
+	 *
+	 * @author Maxmanski
+	 */
+	private static class OutputCollector implements Runnable {
+
+		private final InputStream input;
+		private final byte[] kept;
+		private final CountDownLatch done;
+		private volatile int keptLength;
+
+		public OutputCollector(InputStream input) {
+			this.input = input;
+			this.kept = new byte[MAX_OUTPUT];
+			this.done = new CountDownLatch(1);
+			this.keptLength = 0;
+		}
+
+		@Override
+		public void run() {
+			byte[] buffer = new byte[4096];
+			int length = 0;
+			try {
+				int read;
+				while((read = input.read(buffer)) >= 0){
+					int keep = Math.min(read, kept.length - length);
+					if(keep > 0){
+						System.arraycopy(buffer, 0, kept, length, keep);
+						length += keep;
+						keptLength = length;
+					}
+				}
+			} catch (IOException e) {
+
+			} finally {
+				try {
+					input.close();
+				} catch (IOException e) {}
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Waits for the output to end (at most for the specified time) and returns its beginning.
+		 *
+		 * @param millis the maximum time to wait
+		 * @return the beginning of the output, trimmed and on a single line
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public String await(long millis) throws InterruptedException {
+			done.await(millis, TimeUnit.MILLISECONDS);
+			return new String(kept, 0, keptLength, CHARSET).trim().replaceAll("\\s*[\\r\\n]+\\s*", " ");
+		}
+	}
+}
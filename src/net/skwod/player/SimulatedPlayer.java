@@ -0,0 +1,483 @@
+package net.skwod.player;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.skwod.log.Log;
+
+/**
+ * A Player which only exists in memory, for benchmarking and load-testing the server without a real music
+ * player: It keeps a playlist and the playback state like a real player would, and simulates the cost of every
+ * operation by waiting, and the unreliability of a real player by failing (with an IOException) now and then.
+ *
+ * The simulation is configured in the playerExec itself, e.g.
+ * "simulated:latency=2,jitter=1,dist=pareto,failure=0.001,addsongs.song=5,next.latency=20":
+ * - latency: the fixed time every operation takes, in milliseconds (default 0)
+ * - jitter: the mean of the random time added to the latency, in milliseconds (default 0)
+ * - dist: the distribution of the jitter, "uniform", "exponential" (default) or "pareto" (heavy-tailed)
+ * - song: the time added for every song of playSongs and addSongs, in milliseconds (default 0), e.g. to
+ *   simulate "mpc", which is started once per song
+ * - failure: the probability of an operation failing, from 0 to 1 (default 0)
+ * - seed: the seed of the random numbers, for reproducible runs
+ * Every option except the seed can be set for a single operation by prefixing it with the operation's name
+ * (e.g. "next.latency=20"), overriding the option for all operations. An operation which fails has no effect.
+ *
+ * Like a real player, the SimulatedPlayer executes one operation at a time.
+ *
+ * @author Maxmanski
+ */
+public class SimulatedPlayer implements Player {
+
+	/** The name by which the SimulatedPlayer is selected as the playerExec */
+	public static final String NAME = "simulated";
+
+	/**
+	 * The state of the playback.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum State {
+		STOPPED,
+		PLAYING,
+		PAUSED
+	}
+
+	/**
+	 * The operations of the Player, whose costs are simulated separately.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Operation {
+		PLAY,
+		PAUSE,
+		STOP,
+		PLAY_SONGS,
+		ADD_SONGS,
+		NEXT,
+		PREVIOUS,
+		RANDOM,
+		REMOVE,
+		MOVE,
+		JUMP;
+
+		/**
+		 * Returns the name of the Operation as used in the options, e.g. "addsongs".
+		 *
+		 * @return the name
+		 */
+		public String getName(){
+			return name().replace("_", "").toLowerCase(Locale.ROOT);
+		}
+
+		/**
+		 * Finds the Operation with the specified name, ignoring the case.
+		 *
+		 * @param name the name of the Operation
+		 * @return the Operation, or NULL if there is no such Operation
+		 */
+		public static Operation forName(String name){
+			for(Operation operation: values()){
+				if(operation.getName().equalsIgnoreCase(name)){
+					return operation;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The distributions of the jitter, each with the configured mean.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Distribution {
+
+		/** Evenly distributed between 0 and twice the mean */
+		UNIFORM,
+
+		/** Exponentially distributed, i.e. mostly short with an occasional longer delay */
+		EXPONENTIAL,
+
+		/** Pareto distributed (alpha = 1.5), i.e. with a heavy tail of very long delays, capped at 1000 times the mean */
+		PARETO;
+
+		private static final double PARETO_ALPHA = 1.5;
+		private static final double PARETO_CAP = 1000;
+
+		/**
+		 * Draws a random value.
+		 *
+		 * @param mean the mean of the values
+		 * @param random the source of randomness
+		 * @return the value
+		 */
+		public double sample(double mean, Random random){
+			double u = random.nextDouble();
+			switch(this){
+				case UNIFORM:
+					return 2 * mean * u;
+				case EXPONENTIAL:
+					return -mean * Math.log(1.0 - u);
+				default:
+					double scale = (mean * (PARETO_ALPHA - 1)) / PARETO_ALPHA;
+					return Math.min(PARETO_CAP * mean, scale * Math.pow(1.0 - u, -1.0 / PARETO_ALPHA));
+			}
+		}
+	}
+
+	/**
+	 * The simulated cost and unreliability of an operation.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class Profile {
+
+		private double latency;
+		private double jitter;
+		private Distribution distribution;
+		private double song;
+		private double failure;
+
+		public Profile() {
+			this.latency = 0;
+			this.jitter = 0;
+			this.distribution = Distribution.EXPONENTIAL;
+			this.song = 0;
+			this.failure = 0;
+		}
+
+		public Profile(Profile other) {
+			this.latency = other.latency;
+			this.jitter = other.jitter;
+			this.distribution = other.distribution;
+			this.song = other.song;
+			this.failure = other.failure;
+		}
+
+		/**
+		 * Sets an option of the Profile.
+		 *
+		 * @param key the name of the option
+		 * @param value the value of the option
+		 * @throws IllegalArgumentException if there is no such option or the value is invalid
+		 */
+		public void set(String key, String value){
+			if(key.equals("dist")){
+				for(Distribution d: Distribution.values()){
+					if(d.name().equalsIgnoreCase(value)){
+						distribution = d;
+						return;
+					}
+				}
+				throw new IllegalArgumentException("Unknown distribution: " + value);
+			}
+
+			double number;
+			try {
+				number = Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+			}
+			if(!(number >= 0)){
+				throw new IllegalArgumentException("Negative value for " + key + ": " + value);
+			}
+			if(key.equals("latency")){
+				latency = number;
+			}else if(key.equals("jitter")){
+				jitter = number;
+			}else if(key.equals("song")){
+				song = number;
+			}else if(key.equals("failure") && (number <= 1)){
+				failure = number;
+			}else{
+				throw new IllegalArgumentException("Unknown option or invalid value: " + key + "=" + value);
+			}
+		}
+
+		/**
+		 * Draws the time the operation takes.
+		 *
+		 * @param songs the number of songs the operation handles
+		 * @param random the source of randomness
+		 * @return the time in nanoseconds
+		 */
+		public long sampleNanos(int songs, Random random){
+			double millis = latency + (songs * song);
+			if(jitter > 0){
+				millis += distribution.sample(jitter, random);
+			}
+			return (long) (millis * 1000000);
+		}
+	}
+
+	private final Map<Operation, Profile> profiles;
+	private final Random random;
+	private final List<String> playlist;
+	private State state;
+	private int current;
+
+	/**
+	 * Creates a SimulatedPlayer without any costs or failures.
+	 */
+	public SimulatedPlayer() {
+		this(NAME);
+	}
+
+	/**
+	 * Creates a SimulatedPlayer configured by the specification.
+	 *
+	 * @param spec the specification, i.e. "simulated" optionally followed by ":" and the options separated by ","
+	 * @throws IllegalArgumentException if the specification is invalid
+	 */
+	public SimulatedPlayer(String spec) {
+		Profile defaults = new Profile();
+		Map<Operation, Map<String, String>> overrides = new EnumMap<>(Operation.class);
+		Long seed = null;
+
+		int colon = spec.indexOf(':');
+		String options = (colon < 0) ? "" : spec.substring(colon + 1).trim();
+		for(String option: options.split(",")){
+			option = option.trim();
+			if(option.isEmpty()){
+				continue;
+			}
+			int equals = option.indexOf('=');
+			if(equals <= 0){
+				throw new IllegalArgumentException("Options must be given as name=value: " + option);
+			}
+			String key = option.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+			String value = option.substring(equals + 1).trim();
+
+			int dot = key.indexOf('.');
+			if(key.equals("seed")){
+				try {
+					seed = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid seed: " + value);
+				}
+			}else if(dot < 0){
+				defaults.set(key, value);
+			}else{
+				Operation operation = Operation.forName(key.substring(0, dot));
+				if(operation == null){
+					throw new IllegalArgumentException("Unknown operation: " + key.substring(0, dot));
+				}
+				if(!overrides.containsKey(operation)){
+					overrides.put(operation, new LinkedHashMap<String, String>());
+				}
+				overrides.get(operation).put(key.substring(dot + 1), value);
+			}
+		}
+
+		// the options of single operations override the ones of all operations, whatever their order
+		this.profiles = new EnumMap<>(Operation.class);
+		for(Operation operation: Operation.values()){
+			Profile profile = new Profile(defaults);
+			if(overrides.containsKey(operation)){
+				for(Map.Entry<String, String> override: overrides.get(operation).entrySet()){
+					profile.set(override.getKey(), override.getValue());
+				}
+			}
+			profiles.put(operation, profile);
+		}
+
+		this.random = (seed != null) ? new Random(seed) : new Random();
+		this.playlist = new ArrayList<>();
+		this.state = State.STOPPED;
+		this.current = -1;
+	}
+
+	@Override
+	public synchronized void play() throws IOException {
+		simulate(Operation.PLAY, 0);
+		if(!playlist.isEmpty()){
+			current = Math.max(0, current);
+			state = State.PLAYING;
+		}
+	}
+
+	@Override
+	public synchronized void pause() throws IOException {
+		simulate(Operation.PAUSE, 0);
+		if(state == State.PLAYING){
+			state = State.PAUSED;
+		}
+	}
+
+	@Override
+	public synchronized void stop() throws IOException {
+		simulate(Operation.STOP, 0);
+		// like MPC and MPD, stopping discards the playlist
+		playlist.clear();
+		current = -1;
+		state = State.STOPPED;
+	}
+
+	@Override
+	public synchronized void playSongs(List<String> songs) throws IOException {
+		simulate(Operation.PLAY_SONGS, songs.size());
+		playlist.clear();
+		playlist.addAll(songs);
+		current = playlist.isEmpty() ? -1 : 0;
+		state = playlist.isEmpty() ? State.STOPPED : State.PLAYING;
+	}
+
+	@Override
+	public synchronized void addSongs(List<String> songs) throws IOException {
+		simulate(Operation.ADD_SONGS, songs.size());
+		playlist.addAll(songs);
+	}
+
+	@Override
+	public synchronized void next() throws IOException {
+		simulate(Operation.NEXT, 0);
+		if(state == State.STOPPED){
+			return;
+		}
+		if((current + 1) < playlist.size()){
+			current++;
+		}else{
+			// the end of the playlist has been reached
+			current = -1;
+			state = State.STOPPED;
+		}
+	}
+
+	@Override
+	public synchronized void previous() throws IOException {
+		simulate(Operation.PREVIOUS, 0);
+		if(state != State.STOPPED){
+			current = Math.max(0, current - 1);
+		}
+	}
+
+	@Override
+	public synchronized void random() throws IOException {
+		simulate(Operation.RANDOM, 0);
+		if(!playlist.isEmpty()){
+			current = random.nextInt(playlist.size());
+			state = State.PLAYING;
+		}
+	}
+
+	@Override
+	public synchronized void remove(int position) throws IOException {
+		simulate(Operation.REMOVE, 0);
+		checkPosition(position);
+		playlist.remove(position);
+		if(position < current){
+			current--;
+		}else if(position == current){
+			// the next song takes the place of the removed one
+			if(current >= playlist.size()){
+				current = -1;
+				state = State.STOPPED;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void move(int from, int to) throws IOException {
+		simulate(Operation.MOVE, 0);
+		checkPosition(from);
+		checkPosition(to);
+		playlist.add(to, playlist.remove(from));
+		if(current == from){
+			current = to;
+		}else if((from < current) && (to >= current)){
+			current--;
+		}else if((from > current) && (to <= current)){
+			current++;
+		}
+	}
+
+	@Override
+	public synchronized void jump(int position) throws IOException {
+		simulate(Operation.JUMP, 0);
+		checkPosition(position);
+		current = position;
+		state = State.PLAYING;
+	}
+
+	@Override
+	public boolean canJump() {
+		return true;
+	}
+
+	/**
+	 * Returns the state of the playback.
+	 *
+	 * @return the State
+	 */
+	public synchronized State getState(){
+		return state;
+	}
+
+	/**
+	 * Returns the position of the current song in the playlist.
+	 *
+	 * @return the position, or -1 if the playback is stopped
+	 */
+	public synchronized int getCurrent(){
+		return current;
+	}
+
+	/**
+	 * Returns the songs of the playlist.
+	 *
+	 * @return a copy of the playlist
+	 */
+	public synchronized List<String> getPlaylist(){
+		return Collections.unmodifiableList(new ArrayList<>(playlist));
+	}
+
+	/**
+	 * Simulates the cost of the operation by waiting, and its unreliability by failing at random.
+	 * If command logging is enabled, the operation is logged like the commands of the other Players.
+	 *
+	 * @param operation the Operation
+	 * @param songs the number of songs the operation handles
+	 * @throws IOException if the operation fails (or the waiting was interrupted)
+	 */
+	private void simulate(Operation operation, int songs) throws IOException {
+		if(ProcessExecutor.getInstance().isLogCommands()){
+			Log.getInstance().info("simulated: " + operation.getName() + ((songs > 0) ? (" " + songs + " songs") : ""));
+		}
+
+		Profile profile = profiles.get(operation);
+		long nanos = profile.sampleNanos(songs, random);
+		if(nanos > 0){
+			try {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while simulating " + operation.getName());
+			}
+		}
+
+		if((profile.failure > 0) && (random.nextDouble() < profile.failure)){
+			throw new IOException("Simulated failure of " + operation.getName());
+		}
+	}
+
+	/**
+	 * Checks that the position is within the playlist, the way a real player rejects invalid positions.
+	 *
+	 * @param position the position
+	 * @throws IOException if there is no song at the position
+	 */
+	private void checkPosition(int position) throws IOException {
+		if((position < 0) || (position >= playlist.size())){
+			throw new IOException("No song at position " + position);
+		}
+	}
+}
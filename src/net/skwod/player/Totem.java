@@ -3,8 +3,11 @@ package net.skwod.player;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import net.skwod.player.ProcessExecutor.TimeoutPolicy;
+
 /**
  * This class handles the construction and execution of commands, specific for the Player "totem" for Linux.
  *
@@ -12,6 +15,7 @@ import java.util.List;
  */
 public class Totem implements Player {
 
+	private ProcessExecutor executor;
 	private String playerCommand;
 	private String musicDir;
 
@@ -20,6 +24,7 @@ public class Totem implements Player {
 	}
 
 	public Totem(String playerDir, String playerExec, String musicDir) {
+		this.executor = ProcessExecutor.getInstance();
 		this.playerCommand = playerDir;
 		if(!playerCommand.endsWith(File.separator)){
 			playerCommand += File.separator;
@@ -31,60 +36,91 @@ public class Totem implements Player {
 
 	@Override
 	public void play() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "--play"});
+		executor.execute(TimeoutPolicy.DETACH, playerCommand, "--play");
 
 	}
 
 	@Override
 	public void pause() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "--pause"});
+		executor.execute(TimeoutPolicy.DETACH, playerCommand, "--pause");
 
 	}
 
 	@Override
 	public void stop() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "--quit"});
+		executor.execute(TimeoutPolicy.DETACH, playerCommand, "--quit");
 	}
 
 	@Override
 	public void playSongs(List<String> songs) throws IOException {
-		songs = new ArrayList<>(songs);
-		try {
-			Thread.sleep(100);
-		} catch (InterruptedException e) {}
-		Runtime.getRuntime().exec(new String[]{playerCommand, musicDir + songs.get(0)});
-		songs.remove(0);
-		try {
-			Thread.sleep(100);
-		} catch (InterruptedException e) {}
-		addSongs(songs);
+		// the first invocation replaces the playlist, all following ones enqueue
+		List<String[]> commands = CommandLine.pack(new String[]{playerCommand, "--enqueue"}, paths(songs));
+		for(int i=0; i<commands.size(); i++){
+			String[] command = commands.get(i);
+			if(i == 0){
+				command = Arrays.copyOfRange(command, 1, command.length);
+				command[0] = playerCommand;
+			}
+			executor.execute(TimeoutPolicy.DETACH, command);
+		}
 	}
 
 	@Override
 	public void addSongs(List<String> songs) throws IOException {
-		for(String str: songs){
-			Runtime.getRuntime().exec(new String[]{playerCommand, "--enqueue", musicDir + str});
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {}
+		for(String[] command: CommandLine.pack(new String[]{playerCommand, "--enqueue"}, paths(songs))){
+			executor.execute(TimeoutPolicy.DETACH, command);
 		}
 	}
 
 	@Override
 	public void next() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "--next"});
+		executor.execute(TimeoutPolicy.DETACH, playerCommand, "--next");
 
 	}
 
 	@Override
 	public void previous() throws IOException {
-		Runtime.getRuntime().exec(new String[]{playerCommand, "--previous"});
+		executor.execute(TimeoutPolicy.DETACH, playerCommand, "--previous");
 	}
 
 	@Override
 	public void random() throws IOException {
 		throw new UnsupportedOperationException("random");
-//		Runtime.getRuntime().exec(new String[]{playerCommand});
+//		executor.execute(TimeoutPolicy.DETACH, playerCommand);
+	}
+
+	@Override
+	public void remove(int position) throws IOException {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	@Override
+	public void move(int from, int to) throws IOException {
+		throw new UnsupportedOperationException("move");
+	}
+
+	@Override
+	public void jump(int position) throws IOException {
+		throw new UnsupportedOperationException("jump");
+	}
+
+	@Override
+	public boolean canJump() {
+		return false;
+	}
+
+	/**
+	 * Prepends the music directory to the songs.
+	 *
+	 * @param songs the songs, relative to the music directory
+	 * @return the full paths of the songs
+	 */
+	private List<String> paths(List<String> songs){
+		List<String> paths = new ArrayList<>(songs.size());
+		for(String song: songs){
+			paths.add(musicDir + song);
+		}
+		return paths;
 	}
 
 }
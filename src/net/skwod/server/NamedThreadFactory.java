@@ -0,0 +1,27 @@
+package net.skwod.server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadFactory creating daemon threads with a common name prefix.
+ *
+ * @author Maxmanski
+ */
+class NamedThreadFactory implements ThreadFactory {
+
+	private final String prefix;
+	private final AtomicInteger counter;
+
+	public NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+		this.counter = new AtomicInteger(0);
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, prefix + "-" + counter.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
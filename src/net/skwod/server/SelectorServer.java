@@ -0,0 +1,669 @@
+package net.skwod.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+import net.skwod.Config;
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.log.Log;
+import net.skwod.stats.Stats;
+
+/**
+ * A non-blocking network layer which serves any number of concurrent sessions on a small, fixed set of threads.
+ *
+ * The calling thread accepts incoming connections and distributes them over a fixed number of I/O loops,
+ * each of which owns a Selector and performs all reads and writes of its connections.
+ * Received lines are handed to a fixed pool of worker threads, which execute the commands and pass the replies
+ * back to the I/O loop. Commands are never executed on an I/O loop, and commands which have to wait for the
+ * Player do not occupy a worker while they are waiting.
+ *
+ * The lines of a single session are always executed one after another, in the order they were received.
+ * A client may therefore send several commands without waiting for their replies (pipelining); the replies
+ * to all lines that are already waiting are written to the channel at once.
+ * Ordering between sessions is established by the Jukebox (see there).
+ *
+ * Events which are pushed to a session are handed to its I/O loop just like replies; since replies are always
+ * handed over as a whole, the events end up between them.
+ *
+ * The timeout and maximum session length of each session are tracked by the shared TimeoutWheel, which hands
+ * expired sessions over to their I/O loop. Both are taken from the current Config whenever they are started
+ * (or, for the timeout, reset), so that a changed configuration applies without restarting the server.
+ *
+ * @author Maxmanski
+ */
+public class SelectorServer implements Runnable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final int MAX_LINE_LENGTH = 65536;
+	private static final int MAX_PENDING_LINES = 64;
+	private static final int MAX_BATCH_LENGTH = 65536;
+
+	private final int port;
+	private final Jukebox jukebox;
+	private final IoLoop[] loops;
+	private final ExecutorService workers;
+	private final TimeoutWheel timeouts;
+	private volatile boolean running;
+
+	/**
+	 * Creates a new SelectorServer which is not yet listening.
+	 *
+	 * @param port the TCP port on which to listen
+	 * @param jukebox the state shared by all sessions
+	 * @param selectorThreads the number of I/O loops
+	 * @param workerThreads the number of threads executing commands
+	 * @throws IOException if a Selector could not be opened
+	 */
+	public SelectorServer(int port, Jukebox jukebox, int selectorThreads, int workerThreads) throws IOException {
+
+		this.port = port;
+		this.jukebox = jukebox;
+		this.loops = new IoLoop[Math.max(1, selectorThreads)];
+		for(int i=0; i<loops.length; i++){
+			loops[i] = new IoLoop(Selector.open());
+		}
+		this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), new NamedThreadFactory("rmc-worker"));
+		this.timeouts = TimeoutWheel.getInstance();
+		this.running = false;
+	}
+
+	/**
+	 * Starts the I/O loops and accepts incoming connections on the calling thread until the server is stopped.
+	 */
+	@Override
+	public void run() {
+		ServerSocketChannel serverChannel = null;
+		running = true;
+
+		for(int i=0; i<loops.length; i++){
+			Thread thread = new Thread(loops[i], "rmc-io-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(port));
+			int next = 0;
+
+			while(running){
+				SocketChannel channel = serverChannel.accept();
+				try {
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					IoLoop loop = loops[next];
+					next = (next + 1) % loops.length;
+					loop.register(channel);
+				} catch (IOException e) {
+					close(channel);
+				}
+			}
+
+		} catch (IOException e) {
+			if(running){
+				Log.getInstance().error("The server has stopped accepting connections", e);
+			}
+		} finally {
+			close(serverChannel);
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stops the I/O loops and the worker threads.
+	 */
+	public void shutdown(){
+		running = false;
+		for(IoLoop loop: loops){
+			loop.selector.wakeup();
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * Closes closeable if possible without any error handling.
+	 *
+	 * @param closeable the Closeable to close
+	 */
+	private static void close(Closeable closeable){
+		try {
+			if(closeable != null){
+				closeable.close();
+			}
+		} catch (Exception e) {}
+	}
+
+	/**
+	 * A Selector and the thread which drives it.
+	 * All fields of the connections registered with this loop (short of their line queues) are only ever
+	 * accessed by the loop's thread; other threads have to hand their work over via execute(Runnable).
+	 *
+	 * @author Maxmanski
+	 */
+	private final class IoLoop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Runnable> tasks;
+		private final List<Connection> dirty;
+		private final ByteBuffer readBuffer;
+
+		public IoLoop(Selector selector) {
+			this.selector = selector;
+			this.tasks = new ConcurrentLinkedQueue<>();
+			this.dirty = new ArrayList<>();
+			this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		}
+
+		/**
+		 * Runs the specified task on the loop's thread as soon as possible.
+		 *
+		 * @param task the task to run
+		 */
+		public void execute(Runnable task){
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		/**
+		 * Registers the newly accepted channel with this loop.
+		 *
+		 * @param channel the channel to register
+		 */
+		public void register(final SocketChannel channel){
+			execute(new Runnable() {
+
+				@Override
+				public void run() {
+					// the channel is registered before the Connection opens its Session, which would otherwise be
+					// counted as active for good if the client is already gone
+					SelectionKey key;
+					try {
+						key = channel.register(selector, SelectionKey.OP_READ);
+					} catch (ClosedChannelException e) {
+						close(channel);
+						return;
+					}
+					Connection connection = new Connection(IoLoop.this, channel);
+					connection.key = key;
+					key.attach(connection);
+					connection.startTimeouts();
+					connection.schedule();
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			while(running){
+				try {
+					selector.select();
+				} catch (IOException e) {
+					Log.getInstance().error("A selector thread has stopped", e);
+					break;
+				}
+
+				Runnable task;
+				while((task = tasks.poll()) != null){
+					task.run();
+				}
+				for(Connection connection: dirty){
+					connection.write();
+				}
+				dirty.clear();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()){
+					SelectionKey key = it.next();
+					it.remove();
+					Connection connection = (Connection) key.attachment();
+
+					if(key.isValid() && key.isReadable()){
+						connection.read(readBuffer);
+					}
+					if(key.isValid() && key.isWritable()){
+						connection.write();
+					}
+				}
+			}
+
+			for(SelectionKey key: selector.keys()){
+				((Connection) key.attachment()).close();
+			}
+			close(selector);
+		}
+	}
+
+	/**
+	 * A single connection, i.e. the channel of a session together with its buffers.
+	 *
+	 * @author Maxmanski
+	 */
+	private final class Connection implements Runnable {
+
+		private final IoLoop loop;
+		private final SocketChannel channel;
+		private final Session session;
+		private final ByteArrayOutputStream partialLine;
+		private final Queue<ByteBuffer> output;
+		private SelectionKey key;
+		private TimeoutWheel.Timeout idleTimeout;
+		private TimeoutWheel.Timeout sessionTimeout;
+		private boolean closeAfterWrite;
+		private boolean closed;
+		private boolean dirty;
+
+		// guarded by "this": accessed by the loop as well as the workers
+		private final Queue<String> lines;
+		private boolean opened;
+		private boolean scheduled;
+		private boolean endOfInput;
+		private String carriedReply;
+
+		public Connection(IoLoop loop, SocketChannel channel) {
+			this.loop = loop;
+			this.channel = channel;
+			this.session = new Session(jukebox, channel.socket().getInetAddress(), new Session.Output() {
+
+				@Override
+				public void push(String text) {
+					send(text, false);
+				}
+			});
+			this.partialLine = new ByteArrayOutputStream();
+			this.output = new ArrayDeque<>();
+			this.idleTimeout = null;
+			this.sessionTimeout = null;
+			this.closeAfterWrite = false;
+			this.closed = false;
+			this.dirty = false;
+			this.lines = new ArrayDeque<>();
+			this.opened = false;
+			this.scheduled = false;
+			this.endOfInput = false;
+			this.carriedReply = null;
+		}
+
+		/**
+		 * Reads whatever is available from the channel and hands complete lines over to the workers.
+		 * Called by the loop only.
+		 *
+		 * @param buffer the loop's read buffer
+		 */
+		public void read(ByteBuffer buffer){
+			int read;
+			buffer.clear();
+			try {
+				read = channel.read(buffer);
+			} catch (IOException e) {
+				close();
+				return;
+			}
+
+			if(read < 0){
+				// let the workers finish the lines which have already been received
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				synchronized (this) {
+					endOfInput = true;
+				}
+				schedule();
+				return;
+			}
+
+			Stats.getInstance().bytesRead(read);
+			buffer.flip();
+			int pending = 0;
+			while(buffer.hasRemaining()){
+				byte b = buffer.get();
+				if(b == '\n'){
+					byte[] bytes = partialLine.toByteArray();
+					int length = bytes.length;
+					if((length > 0) && (bytes[length - 1] == '\r')){
+						length--;
+					}
+					partialLine.reset();
+					resetIdleTimeout();
+					synchronized (this) {
+						lines.add(new String(bytes, 0, length, UTF8));
+						pending = lines.size();
+					}
+
+				}else{
+					partialLine.write(b);
+					if(partialLine.size() > MAX_LINE_LENGTH){
+						close();
+						return;
+					}
+				}
+			}
+
+			if(pending > 0){
+				if(pending >= MAX_PENDING_LINES){
+					// stop reading until the workers have caught up
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				}
+				schedule();
+			}
+		}
+
+		/**
+		 * Makes sure that a worker is processing this connection's lines, unless one already is.
+		 */
+		public void schedule(){
+			synchronized (this) {
+				if(scheduled){
+					return;
+				}
+				scheduled = true;
+			}
+			workers.execute(this);
+		}
+
+		/**
+		 * Executed by a worker: Processes the connection's pending lines one after another.
+		 * The replies are collected and handed to the loop together once there are no more pending lines, so that
+		 * pipelined commands are answered with a single write.
+		 * If a command has to wait for the Player, the worker is released; the connection stays scheduled and
+		 * is processed further once the command's reply is there.
+		 */
+		@Override
+		public void run() {
+			StringWriter buffer = new StringWriter();
+			PrintWriter writer = new PrintWriter(buffer);
+			boolean greet;
+
+			synchronized (this) {
+				greet = !opened;
+				opened = true;
+				if(carriedReply != null){
+					buffer.write(carriedReply);
+					carriedReply = null;
+				}
+			}
+			if(greet){
+				session.open(writer);
+				writer.flush();
+			}
+
+			while(true){
+				String line;
+				boolean resume = false;
+				boolean end = false;
+
+				synchronized (this) {
+					line = lines.poll();
+					if(line == null){
+						scheduled = false;
+						end = endOfInput;
+					}else if(lines.size() == (MAX_PENDING_LINES / 2)){
+						resume = true;
+					}
+				}
+
+				if(line == null){
+					// all lines which have been received so far are done: send their replies at once
+					send(buffer.toString(), end);
+					return;
+				}
+
+				if(resume){
+					loop.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							synchronized (Connection.this) {
+								if(endOfInput){
+									return;
+								}
+							}
+							if(!closed && key.isValid()){
+								key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+							}
+						}
+					});
+				}
+
+				if(buffer.getBuffer().length() >= MAX_BATCH_LENGTH){
+					send(buffer.toString(), false);
+					buffer.getBuffer().setLength(0);
+				}
+				CompletableFuture<String> pending = null;
+				try {
+					pending = session.handleLine(line, writer);
+				} catch (RuntimeException e) {
+					session.failed(line, e, writer);
+				}
+				boolean keepOpen = !session.isTerminated();
+				writer.flush();
+
+				if(pending != null){
+					// the command waits for the Player: send what is there and continue once its reply is there,
+					// without blocking a worker
+					send(buffer.toString(), false);
+					pending.whenComplete(new BiConsumer<String, Throwable>() {
+
+						@Override
+						public void accept(String reply, Throwable error) {
+							// the reply is sent together with the replies of the following lines
+							synchronized (Connection.this) {
+								carriedReply = reply;
+							}
+							workers.execute(Connection.this);
+						}
+					});
+					return;
+				}
+
+				if(!keepOpen){
+					send(buffer.toString(), true);
+					synchronized (this) {
+						lines.clear();
+						scheduled = false;
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Hands the reply over to the loop, which will write it to the channel.
+		 *
+		 * @param reply the reply to send; may be NULL
+		 * @param closeAfter whether the connection should be closed after the reply has been written
+		 */
+		public void send(String reply, final boolean closeAfter){
+			final ByteBuffer bytes = ((reply == null) || reply.isEmpty()) ? null : ByteBuffer.wrap(reply.getBytes(UTF8));
+			if((bytes == null) && !closeAfter){
+				return;
+			}
+
+			loop.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					enqueue(bytes, closeAfter);
+				}
+			});
+		}
+
+		/**
+		 * Queues the bytes for writing. They are written once the loop has run all of its pending tasks, together
+		 * with everything else that has been queued in the meantime. Called by the loop only.
+		 *
+		 * @param bytes the bytes to write; may be NULL
+		 * @param closeAfter whether the connection should be closed after the queued bytes have been written
+		 */
+		private void enqueue(ByteBuffer bytes, boolean closeAfter){
+			if(closed || closeAfterWrite){
+				// the session is being terminated: nothing more may be sent
+				return;
+			}
+			if(bytes != null){
+				output.add(bytes);
+			}
+			closeAfterWrite |= closeAfter;
+			if(!dirty){
+				dirty = true;
+				loop.dirty.add(this);
+			}
+		}
+
+		/**
+		 * Writes as much of the queued output as the channel accepts, with a single write. Called by the loop only.
+		 */
+		public void write(){
+			dirty = false;
+			if(closed){
+				return;
+			}
+
+			try {
+				long start = System.nanoTime();
+				long written = 0;
+				if(output.size() == 1){
+					written = channel.write(output.peek());
+				}else if(!output.isEmpty()){
+					written = channel.write(output.toArray(new ByteBuffer[output.size()]));
+				}
+				Stats stats = Stats.getInstance();
+				stats.record(Stats.Phase.WRITE, System.nanoTime() - start);
+				stats.bytesWritten(written);
+				while(!output.isEmpty() && !output.peek().hasRemaining()){
+					output.poll();
+				}
+				if(!output.isEmpty()){
+					// the socket's send buffer is full: wait until it is writable again
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+			} catch (IOException e) {
+				close();
+				return;
+			}
+
+			if(closeAfterWrite){
+				close();
+			}else if(key.isValid()){
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Starts tracking the timeout and the maximum session length. Called by the loop only.
+		 */
+		public void startTimeouts(){
+			resetIdleTimeout();
+			long maxSessionMillis = Config.getCurrent().getMaxSessionLength() * 1000L;
+			if(maxSessionMillis > 0){
+				sessionTimeout = timeouts.schedule(maxSessionMillis, expiry("ACK: SESSION EXPIRED"));
+			}
+		}
+
+		/**
+		 * Moves the timeout to the currently configured time from now, or starts or cancels it if the timeout has
+		 * been switched on or off meanwhile. Called by the loop only.
+		 */
+		private void resetIdleTimeout(){
+			long timeoutMillis = Config.getCurrent().getTimeout() * 1000L;
+			if(timeoutMillis <= 0){
+				if(idleTimeout != null){
+					idleTimeout.cancel();
+					idleTimeout = null;
+				}
+			}else if(idleTimeout != null){
+				idleTimeout.reset(timeoutMillis);
+			}else{
+				idleTimeout = timeouts.schedule(timeoutMillis, expiry("ACK: TIMEOUT"));
+			}
+		}
+
+		/**
+		 * Creates the task which the TimeoutWheel runs once the session has expired: It hands the expiry over to
+		 * the loop.
+		 *
+		 * @param message the message to send to the session
+		 * @return the task
+		 */
+		private Runnable expiry(final String message){
+			return new Runnable() {
+
+				@Override
+				public void run() {
+					loop.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							expire(message);
+						}
+					});
+				}
+			};
+		}
+
+		/**
+		 * Sends the message and closes the connection afterwards, discarding any lines which have not yet been
+		 * processed. Called by the loop only.
+		 *
+		 * @param message the message to send
+		 */
+		private void expire(String message){
+			if(closeAfterWrite || closed){
+				return;
+			}
+			synchronized (this) {
+				lines.clear();
+				endOfInput = true;
+			}
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			enqueue(ByteBuffer.wrap((message + System.lineSeparator()).getBytes(UTF8)), true);
+		}
+
+		/**
+		 * Closes the connection. Called by the loop only.
+		 */
+		public void close(){
+			if(closed){
+				return;
+			}
+			closed = true;
+			synchronized (this) {
+				lines.clear();
+				endOfInput = true;
+			}
+			if(idleTimeout != null){
+				idleTimeout.cancel();
+			}
+			if(sessionTimeout != null){
+				sessionTimeout.cancel();
+			}
+			output.clear();
+			if(key != null){
+				key.cancel();
+			}
+			SelectorServer.close(channel);
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,464 @@
+package net.skwod.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.skwod.Config;
+import net.skwod.Jukebox;
+import net.skwod.Session;
+import net.skwod.log.Log;
+import net.skwod.stats.Stats;
+
+/**
+ * A blocking network layer which serves every accepted connection on its own thread.
+ *
+ * If the Java runtime supports virtual threads, every session gets a virtual thread, which makes blocking reads
+ * and blocking Player calls cheap enough to keep thousands of idle sessions connected.
+ * Otherwise, every session gets a platform thread.
+ *
+ * Lines which have been sent without waiting for their replies (pipelining) are executed in order, and their
+ * replies are flushed together.
+ *
+ * Events which are pushed to a session are queued and written by a thread of their own (which is only started
+ * while there are events to write), so that a slow connection never blocks the publishing thread. To keep them
+ * from ending up in the middle of a reply, every reply is completed in a buffer first, and written under the
+ * same lock as the events.
+ *
+ * The timeout and maximum session length are tracked by the shared TimeoutWheel. An expired session gets its
+ * input shut down, which wakes up its thread; the thread then sends the corresponding message itself. Both are
+ * taken from the current Config whenever they are started (or, for the timeout, reset), so that a changed
+ * configuration applies without restarting the server.
+ *
+ * @author Maxmanski
+ */
+public class ThreadServer implements Runnable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long INPUT_CHECK_INTERVAL = 1000;
+	private static final int INPUT_PEEK_TIMEOUT = 1;
+
+	private final int port;
+	private final Jukebox jukebox;
+	private final ThreadFactory threadFactory;
+	private final TimeoutWheel timeouts;
+	private volatile boolean running;
+	private ServerSocket serverSocket;
+
+	/**
+	 * Creates a new ThreadServer which is not yet listening.
+	 *
+	 * @param port the TCP port on which to listen
+	 * @param jukebox the state shared by all sessions
+	 */
+	public ThreadServer(int port, Jukebox jukebox) {
+		this.port = port;
+		this.jukebox = jukebox;
+
+		ThreadFactory factory = virtualThreadFactory("rmc-session-");
+		if(factory == null){
+			Log.getInstance().warn("Virtual threads are not supported by this Java runtime, using platform threads instead.");
+			factory = new NamedThreadFactory("rmc-session");
+		}
+		this.threadFactory = factory;
+		this.timeouts = TimeoutWheel.getInstance();
+		this.running = false;
+	}
+
+	/**
+	 * Accepts incoming connections on the calling thread until the server is stopped.
+	 */
+	@Override
+	public void run() {
+		running = true;
+
+		try {
+			serverSocket = new ServerSocket(port);
+
+			while(running){
+				Socket client = serverSocket.accept();
+				try {
+					client.setTcpNoDelay(true);
+					threadFactory.newThread(new SessionTask(client)).start();
+				} catch (Exception e) {
+					close(client);
+				}
+			}
+
+		} catch (IOException e) {
+			if(running){
+				Log.getInstance().error("The server has stopped accepting connections", e);
+			}
+		} finally {
+			close(serverSocket);
+			serverSocket = null;
+		}
+	}
+
+	/**
+	 * Stops accepting new connections. Sessions which are already connected are not affected.
+	 */
+	public void shutdown(){
+		running = false;
+		close(serverSocket);
+	}
+
+	/**
+	 * Tries to create a ThreadFactory for virtual threads.
+	 * Since virtual threads are not available in every supported Java version, they are looked up reflectively.
+	 *
+	 * @param prefix the prefix for the names of the created threads
+	 * @return a ThreadFactory creating virtual threads or NULL, if they are not supported
+	 */
+	static ThreadFactory virtualThreadFactory(String prefix){
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Closes closeable if possible without any error handling.
+	 *
+	 * @param closeable the Closeable to close
+	 */
+	private static void close(Closeable closeable){
+		try {
+			if(closeable != null){
+				closeable.close();
+			}
+		} catch (Exception e) {}
+	}
+
+	/**
+	 * An InputStream which counts the bytes read from the connection.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0){
+				Stats.getInstance().bytesRead(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0){
+				Stats.getInstance().bytesRead(read);
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * An OutputStream which counts the bytes written to the connection.
+	 *
+	 * @author Maxmanski
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			Stats.getInstance().bytesWritten(1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			Stats.getInstance().bytesWritten(len);
+		}
+	}
+
+	/**
+	 * The task serving a single connection from the greeting until the connection is terminated.
+	 *
+	 * @author Maxmanski
+	 */
+	private class SessionTask implements Runnable {
+
+		private final Socket client;
+		private volatile Session session;
+		private volatile String expiredMessage;
+
+		private final Queue<String> events;
+		private final AtomicBoolean pushing;
+		private TimeoutWheel.Timeout idleTimeout;
+
+		// guarded by "this": events are written by a thread of their own
+		private PrintWriter writer;
+
+		public SessionTask(Socket client) {
+			this.client = client;
+			this.session = null;
+			this.expiredMessage = null;
+			this.events = new ConcurrentLinkedQueue<>();
+			this.pushing = new AtomicBoolean(false);
+			this.idleTimeout = null;
+			this.writer = null;
+		}
+
+		@Override
+		public void run() {
+			final Session session = new Session(jukebox, client.getInetAddress(), new Session.Output() {
+
+				@Override
+				public void push(String text) {
+					events.add(text);
+					if(pushing.compareAndSet(false, true)){
+						threadFactory.newThread(new Runnable() {
+
+							@Override
+							public void run() {
+								writeEvents();
+							}
+						}).start();
+					}
+				}
+			});
+			this.session = session;
+			BufferedReader reader = null;
+			StringWriter buffer = new StringWriter();
+			PrintWriter reply = new PrintWriter(buffer);
+			TimeoutWheel.Timeout sessionTimeout = null;
+
+			try {
+				reader = new BufferedReader(new InputStreamReader(new CountingInputStream(client.getInputStream()), UTF8));
+				synchronized (this) {
+					writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new CountingOutputStream(client.getOutputStream()), UTF8)));
+					session.open(writer);
+					writer.flush();
+				}
+
+				resetIdleTimeout();
+				long maxSessionMillis = Config.getCurrent().getMaxSessionLength() * 1000L;
+				if(maxSessionMillis > 0){
+					sessionTimeout = timeouts.schedule(maxSessionMillis, expiry("ACK: SESSION EXPIRED"));
+				}
+
+				String line = null;
+				while((line = reader.readLine()) != null){
+					if(expiredMessage != null){
+						break;
+					}
+					resetIdleTimeout();
+
+					CompletableFuture<String> pending = null;
+					try {
+						pending = session.handleLine(line, reply);
+					} catch (RuntimeException e) {
+						session.failed(line, e, reply);
+					}
+					if((pending != null) && !pending.isDone()){
+						// blocking is cheap here: the session has a thread of its own, but the replies so far
+						// must not wait for it (e.g. IDLE may wait for a long time)
+						reply.flush();
+						synchronized (this) {
+							writer.print(buffer);
+							writer.flush();
+						}
+						buffer.getBuffer().setLength(0);
+					}
+					if(pending != null){
+						String text = await(pending, reader);
+						if(text == null){
+							// cancelled: the session has expired or the connection has been closed
+							continue;
+						}
+						reply.print(text);
+					}
+					reply.flush();
+					boolean flush = !reader.ready();
+					long start = System.nanoTime();
+					synchronized (this) {
+						writer.print(buffer);
+						if(flush || session.isTerminated()){
+							// the replies to pipelined lines are flushed together, once all of them are done
+							writer.flush();
+						}
+					}
+					Stats.getInstance().record(Stats.Phase.WRITE, System.nanoTime() - start);
+					buffer.getBuffer().setLength(0);
+					if(session.isTerminated()){
+						break;
+					}
+				}
+
+				synchronized (this) {
+					if(expiredMessage != null){
+						writer.println(expiredMessage);
+					}
+					writer.flush();
+				}
+
+			} catch (IOException e) {
+
+			} finally {
+				if(idleTimeout != null){
+					idleTimeout.cancel();
+				}
+				if(sessionTimeout != null){
+					sessionTimeout.cancel();
+				}
+				close(reader);
+				synchronized (this) {
+					close(writer);
+					writer = null;
+				}
+				close(client);
+				session.close();
+			}
+		}
+
+		/**
+		 * Waits for the reply of a command which is still running (e.g. IDLE, which may wait for a long time),
+		 * while checking every now and then whether the client has closed the connection. If it has, the session
+		 * stops waiting (see Session.cancelIdle()), since it might otherwise wait for an event which never comes.
+		 * Lines which the client sends meanwhile are left for later; while they are waiting, only the session's
+		 * expiry can end the wait.
+		 *
+		 * @param pending the future which is completed with the reply
+		 * @param reader the reader of the connection's input
+		 * @return the reply, or NULL if the command has been cancelled
+		 * @throws IOException if the input could not be checked
+		 */
+		private String await(CompletableFuture<String> pending, BufferedReader reader) throws IOException {
+			try {
+				while(true){
+					try {
+						return pending.get(INPUT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException e) {}
+
+					if(reader.ready()){
+						continue;
+					}
+					client.setSoTimeout(INPUT_PEEK_TIMEOUT);
+					try {
+						reader.mark(1);
+						if(reader.read() < 0){
+							session.cancelIdle();
+						}else{
+							reader.reset();
+						}
+					} catch (SocketTimeoutException e) {
+
+					} finally {
+						client.setSoTimeout(0);
+					}
+				}
+			} catch (CancellationException | ExecutionException e) {
+				return null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		/**
+		 * Moves the timeout to the currently configured time from now, or starts or cancels it if the timeout has
+		 * been switched on or off meanwhile. Called by the session's thread only.
+		 */
+		private void resetIdleTimeout(){
+			long timeoutMillis = Config.getCurrent().getTimeout() * 1000L;
+			if(timeoutMillis <= 0){
+				if(idleTimeout != null){
+					idleTimeout.cancel();
+					idleTimeout = null;
+				}
+			}else if(idleTimeout != null){
+				idleTimeout.reset(timeoutMillis);
+			}else{
+				idleTimeout = timeouts.schedule(timeoutMillis, expiry("ACK: TIMEOUT"));
+			}
+		}
+
+		/**
+		 * Writes the queued events, until there are no more. Only one thread at a time may do so.
+		 */
+		private void writeEvents(){
+			do {
+				synchronized (this) {
+					String text;
+					while((text = events.poll()) != null){
+						if(writer != null){
+							writer.print(text);
+						}
+					}
+					if(writer != null){
+						writer.flush();
+					}
+				}
+				pushing.set(false);
+			} while(!events.isEmpty() && pushing.compareAndSet(false, true));
+		}
+
+		/**
+		 * Creates the task which the TimeoutWheel runs once the session has expired: It shuts down the
+		 * connection's input, so that the session's thread stops reading and sends the message.
+		 *
+		 * @param message the message to send to the session
+		 * @return the task
+		 */
+		private Runnable expiry(final String message){
+			return new Runnable() {
+
+				@Override
+				public void run() {
+					if(expiredMessage == null){
+						expiredMessage = message;
+					}
+					try {
+						client.shutdownInput();
+					} catch (IOException e) {}
+					// the session's thread might be waiting for IDLE rather than reading
+					Session current = session;
+					if(current != null){
+						current.cancelIdle();
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package net.skwod.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.skwod.log.Log;
+
+/**
+ * A hashed timing wheel, which keeps track of the timeouts of all sessions on a single thread.
+ *
+ * Every Timeout sits in the slot of the wheel in which its deadline falls. The wheel's thread advances one slot
+ * per tick and looks at the timeouts in that slot only: Timeouts whose deadline has passed are fired, all others
+ * (because their deadline has been moved in the meantime, or lies more than one revolution ahead) are moved to
+ * the slot of their current deadline.
+ * Since a Timeout is only moved when its slot comes up, resetting it merely means storing a new deadline, which
+ * is O(1) and does not allocate anything, no matter how often it happens. The precision is one tick.
+ *
+ * @author Maxmanski
+ */
+final class TimeoutWheel implements Runnable {
+
+	private static final long TICK = 100;
+	private static final int SLOTS = 512;
+
+	private static TimeoutWheel instance = null;
+
+	private final Timeout[] slots;
+	private final Queue<Timeout> added;
+	private final long start;
+	private long tick;
+
+	/**
+	 * Returns the TimeoutWheel which is shared by all sessions, starting its thread if necessary.
+	 *
+	 * @return the shared TimeoutWheel
+	 */
+	public static synchronized TimeoutWheel getInstance(){
+		if(instance == null){
+			instance = new TimeoutWheel();
+			Thread thread = new Thread(instance, "rmc-timeouts");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	private TimeoutWheel() {
+		this.slots = new Timeout[SLOTS];
+		this.added = new ConcurrentLinkedQueue<>();
+		this.start = now();
+		this.tick = 0;
+	}
+
+	/**
+	 * Returns the current time of the wheel in milliseconds. The wheel's clock is monotonic, i.e. it is not
+	 * affected by changes of the system time.
+	 *
+	 * @return the current time in milliseconds
+	 */
+	static long now(){
+		return System.nanoTime() / 1000000L;
+	}
+
+	/**
+	 * Creates a new Timeout, which runs the task once the specified delay has passed without the Timeout being
+	 * reset or cancelled.
+	 * The task is run on the wheel's thread, so it should only hand the actual work over to another thread.
+	 *
+	 * @param delay the delay in milliseconds
+	 * @param task the task to run
+	 * @return the new Timeout
+	 */
+	public Timeout schedule(long delay, Runnable task){
+		Timeout timeout = new Timeout(task, now() + delay);
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Advances the wheel by one slot per tick, forever.
+	 */
+	@Override
+	public void run() {
+		while(true){
+			long sleep = (start + ((tick + 1) * TICK)) - now();
+			if(sleep > 0){
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+
+			Timeout timeout;
+			while((timeout = added.poll()) != null){
+				insert(timeout);
+			}
+
+			tick++;
+			int slot = (int) (tick % SLOTS);
+			Timeout current = slots[slot];
+			slots[slot] = null;
+			long now = now();
+
+			while(current != null){
+				Timeout next = current.next;
+				current.next = null;
+
+				if(current.cancelled){
+					// dropped
+
+				}else if(current.deadline <= now){
+					current.cancelled = true;
+					try {
+						current.task.run();
+					} catch (RuntimeException e) {
+						Log.getInstance().error("A timeout task has failed", e);
+					}
+
+				}else{
+					insert(current);
+				}
+				current = next;
+			}
+		}
+	}
+
+	/**
+	 * Puts the Timeout into the slot of its deadline, but at least into the next slot. Called by the wheel only.
+	 *
+	 * @param timeout the Timeout
+	 */
+	private void insert(Timeout timeout){
+		long due = Math.max(tick + 1, (timeout.deadline - start + TICK - 1) / TICK);
+		if(due > (tick + SLOTS)){
+			// more than one revolution ahead: look at it again after a revolution
+			due = tick + SLOTS;
+		}
+		int slot = (int) (due % SLOTS);
+		timeout.next = slots[slot];
+		slots[slot] = timeout;
+	}
+
+	/**
+	 * A single timeout, which can be reset and cancelled from any thread.
+	 *
+	 * @author Maxmanski
+	 */
+	static final class Timeout {
+
+		private final Runnable task;
+		private volatile long deadline;
+		private volatile boolean cancelled;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+			this.cancelled = false;
+			this.next = null;
+		}
+
+		/**
+		 * Moves the deadline to the specified delay from now.
+		 *
+		 * @param delay the delay in milliseconds
+		 */
+		public void reset(long delay){
+			deadline = now() + delay;
+		}
+
+		/**
+		 * Cancels the Timeout, so that its task will not be run.
+		 */
+		public void cancel(){
+			cancelled = true;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package net.skwod.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations (or any other non-negative values), which can be recorded into concurrently without
+ * any locks.
+ *
+ * Like an HDR histogram, it covers the whole range of long values with a fixed relative precision: Values below
+ * 32 get a bucket each, and every power of two above is split into 32 buckets of equal width, so every value is
+ * counted in a bucket whose width is at most 1/32 of the value. Recording a value only computes its bucket from
+ * the position of its highest bit and increments the bucket atomically.
+ *
+ * Percentiles are computed from a copy of the counts, which is consistent enough for reporting even if values
+ * are being recorded meanwhile.
+ *
+ * @author Maxmanski
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong max;
+
+	public Histogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.max = new AtomicLong(0);
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value the value; negative values are recorded as 0
+	 */
+	public void record(long value){
+		if(value < 0){
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+
+		long current = max.get();
+		while((value > current) && !max.compareAndSet(current, value)){
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount(){
+		long count = 0;
+		for(int i=0; i<BUCKETS; i++){
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return the largest value, or 0 if nothing has been recorded
+	 */
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * Computes the specified percentiles of the recorded values.
+	 * Each percentile is given as the upper end of the bucket it falls into, but never above the largest value.
+	 *
+	 * @param percentiles the percentiles, from 0 to 100, in ascending order
+	 * @return the values at the percentiles, all 0 if nothing has been recorded
+	 */
+	public long[] getPercentiles(double... percentiles){
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for(int i=0; i<BUCKETS; i++){
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		long[] values = new long[percentiles.length];
+		if(count == 0){
+			return values;
+		}
+		long largest = max.get();
+		int bucket = 0;
+		long seen = snapshot[0];
+		for(int k=0; k<percentiles.length; k++){
+			// the rank of the value at the percentile, starting at 1
+			long rank = Math.max(1, (long) Math.ceil((percentiles[k] / 100.0) * count));
+			while((seen < rank) && (bucket < (BUCKETS - 1))){
+				bucket++;
+				seen += snapshot[bucket];
+			}
+			values[k] = Math.min(largest, upperBound(bucket));
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the bucket of the value.
+	 *
+	 * @param value the value, not negative
+	 * @return the index of the bucket
+	 */
+	static int bucket(long value){
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * Returns the largest value which is counted in the bucket.
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the largest value
+	 */
+	static long upperBound(int bucket){
+		if(bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		long lowerBound = ((long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1)))) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
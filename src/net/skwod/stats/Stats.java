@@ -0,0 +1,197 @@
+package net.skwod.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of the server: A latency Histogram per command verb and per Phase of handling a command, and
+ * counters for the sessions, the bytes sent and received and the errors.
+ *
+ * Recording only costs a few atomic increments and never takes a lock, so it is done on every command.
+ * Latencies are recorded in nanoseconds and reported in microseconds.
+ *
+ * @author Maxmanski
+ */
+public final class Stats {
+
+	private static final double[] PERCENTILES = {50, 99, 99.9};
+
+	private static final Stats instance = new Stats();
+
+	/**
+	 * The phases of handling a command, which are measured separately.
+	 *
+	 * @author Maxmanski
+	 */
+	public enum Phase {
+
+		/** Parsing the line and finding the command */
+		PARSE,
+
+		/** Resolving the songs and directories against the Library */
+		RESOLVE,
+
+		/** Executing the action on the Player, once it is its turn */
+		PLAYER,
+
+		/** Writing the reply to the connection */
+		WRITE
+	}
+
+	private final ConcurrentMap<String, Histogram> commands;
+	private final Map<Phase, Histogram> phases;
+	private final LongAdder sessions;
+	private final LongAdder activeSessions;
+	private final LongAdder bytesRead;
+	private final LongAdder bytesWritten;
+	private final LongAdder errors;
+
+	private Stats() {
+		this.commands = new ConcurrentHashMap<>();
+		this.phases = new EnumMap<>(Phase.class);
+		for(Phase phase: Phase.values()){
+			phases.put(phase, new Histogram());
+		}
+		this.sessions = new LongAdder();
+		this.activeSessions = new LongAdder();
+		this.bytesRead = new LongAdder();
+		this.bytesWritten = new LongAdder();
+		this.errors = new LongAdder();
+	}
+
+	/**
+	 * Returns the statistics of the server.
+	 *
+	 * @return the shared Stats
+	 */
+	public static Stats getInstance(){
+		return instance;
+	}
+
+	/**
+	 * Records the time from receiving a command until its reply was complete.
+	 *
+	 * @param verb the (registered) verb of the command
+	 * @param nanos the time in nanoseconds
+	 */
+	public void recordCommand(String verb, long nanos){
+		Histogram histogram = commands.get(verb);
+		if(histogram == null){
+			histogram = new Histogram();
+			Histogram existing = commands.putIfAbsent(verb, histogram);
+			if(existing != null){
+				histogram = existing;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Records the time a Phase has taken.
+	 *
+	 * @param phase the Phase
+	 * @param nanos the time in nanoseconds
+	 */
+	public void record(Phase phase, long nanos){
+		phases.get(phase).record(nanos);
+	}
+
+	/**
+	 * Counts a new session.
+	 */
+	public void sessionOpened(){
+		sessions.increment();
+		activeSessions.increment();
+	}
+
+	/**
+	 * Counts a session which has been closed.
+	 */
+	public void sessionClosed(){
+		activeSessions.decrement();
+	}
+
+	/**
+	 * Counts bytes received from a connection.
+	 *
+	 * @param count the number of bytes
+	 */
+	public void bytesRead(long count){
+		bytesRead.add(count);
+	}
+
+	/**
+	 * Counts bytes sent to a connection.
+	 *
+	 * @param count the number of bytes
+	 */
+	public void bytesWritten(long count){
+		bytesWritten.add(count);
+	}
+
+	/**
+	 * Counts an error, i.e. a command which has not been recognised or which the Player failed to execute.
+	 */
+	public void error(){
+		errors.increment();
+	}
+
+	/**
+	 * Returns the total number of commands which have been recorded.
+	 *
+	 * @return the number of commands
+	 */
+	public long getCommandCount(){
+		long count = 0;
+		for(Histogram histogram: commands.values()){
+			count += histogram.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Describes the statistics, one line each:
+	 * "LATENCY name COUNT n P50 x P99 y P999 z MAX m" for every verb ("command.verb") and Phase ("phase.name")
+	 * with the latencies in microseconds, followed by "COUNTER name value" for every counter.
+	 *
+	 * @return the lines
+	 */
+	public List<String> report(){
+		List<String> lines = new ArrayList<>();
+		List<String> verbs = new ArrayList<>(commands.keySet());
+		Collections.sort(verbs);
+		for(String verb: verbs){
+			lines.add(latency("command." + verb, commands.get(verb)));
+		}
+		for(Phase phase: Phase.values()){
+			lines.add(latency("phase." + phase.name().toLowerCase(Locale.ROOT), phases.get(phase)));
+		}
+
+		lines.add("COUNTER sessions.total " + sessions.sum());
+		lines.add("COUNTER sessions.active " + activeSessions.sum());
+		lines.add("COUNTER bytes.read " + bytesRead.sum());
+		lines.add("COUNTER bytes.written " + bytesWritten.sum());
+		lines.add("COUNTER errors " + errors.sum());
+		return lines;
+	}
+
+	/**
+	 * Describes a Histogram of latencies.
+	 *
+	 * @param name the name of the Histogram
+	 * @param histogram the Histogram
+	 * @return the line
+	 */
+	private static String latency(String name, Histogram histogram){
+		long[] values = histogram.getPercentiles(PERCENTILES);
+		return "LATENCY " + name + " COUNT " + histogram.getCount() + " P50 " + (values[0] / 1000) + " P99 "
+				+ (values[1] / 1000) + " P999 " + (values[2] / 1000) + " MAX " + (histogram.getMax() / 1000);
+	}
+}
@@ -0,0 +1,266 @@
+package net.skwod.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that MPD sends the commands once more only if they certainly have not been executed, against a fake
+ * daemon on a local port, which records the commands it has executed.
+ *
+ * @author Maxmanski
+ */
+public class MPDTest {
+
+	private static final long NEVER = Long.MAX_VALUE;
+	private static final int READ_TIMEOUT = 2000;
+
+	private FakeDaemon daemon;
+
+	@Before
+	public void setUp() throws IOException {
+		daemon = new FakeDaemon();
+	}
+
+	@After
+	public void tearDown() {
+		daemon.close();
+	}
+
+	@Test
+	public void reconnectsIfTheIdleConnectionHasBeenDropped() throws Exception {
+		MPD mpd = new MPD("127.0.0.1", daemon.getPort(), 0, READ_TIMEOUT);
+		mpd.play();
+		daemon.drop(false);
+
+		// the probe notices that the connection has been closed, so NEXT is sent over a new one
+		mpd.next();
+		assertEquals(Arrays.asList("play", "next"), daemon.getExecuted());
+		assertEquals(2, daemon.getConnections());
+	}
+
+	@Test
+	public void resendsOnlyIfTheWriteHasFailed() throws Exception {
+		MPD mpd = new MPD("127.0.0.1", daemon.getPort(), NEVER, READ_TIMEOUT);
+		mpd.play();
+		daemon.drop(true);
+
+		// without a probe, writing into the reset connection fails, so the daemon has not received NEXT
+		mpd.next();
+		assertEquals(Arrays.asList("play", "next"), daemon.getExecuted());
+		assertEquals(2, daemon.getConnections());
+	}
+
+	@Test
+	public void reportsAnAckWithinACommandList() throws Exception {
+		MPD mpd = new MPD("127.0.0.1", daemon.getPort(), NEVER, READ_TIMEOUT);
+		daemon.failOn("add \"b.mp3\"");
+		try {
+			mpd.playSongs(Arrays.asList("a.mp3", "b.mp3", "c.mp3"));
+			fail("The ACK has not been reported");
+		} catch (IOException e) {}
+		assertEquals(Arrays.asList("clear", "add \"a.mp3\""), daemon.getExecuted());
+
+		// the connection is still fine after an ACK, and is used again
+		mpd.play();
+		assertEquals(Arrays.asList("clear", "add \"a.mp3\"", "play"), daemon.getExecuted());
+		assertEquals(1, daemon.getConnections());
+	}
+
+	@Test
+	public void neverResendsAfterATimeout() throws Exception {
+		MPD mpd = new MPD("127.0.0.1", daemon.getPort(), NEVER, 200);
+		daemon.silence();
+		try {
+			mpd.next();
+			fail("The timeout has not been reported");
+		} catch (IOException e) {}
+		Thread.sleep(300);
+		assertEquals(Arrays.asList("next"), daemon.getExecuted());
+		assertEquals(1, daemon.getConnections());
+
+		// the next command gets a new connection, since the reply of the last one might still arrive
+		mpd.play();
+		assertEquals(Arrays.asList("next", "play"), daemon.getExecuted());
+		assertEquals(2, daemon.getConnections());
+	}
+
+	/**
+	 * A fake mpd, which executes command lists like the real one (up to the first failing command), but only
+	 * records the commands.
+	 *
+	 * @author Maxmanski
+	 */
+	private static class FakeDaemon implements Closeable, Runnable {
+
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		private final ServerSocket server;
+		private final List<String> executed;
+		private final List<Socket> clients;
+		private final AtomicInteger connections;
+		private volatile String failingCommand;
+		private volatile boolean silent;
+
+		public FakeDaemon() throws IOException {
+			this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			this.executed = Collections.synchronizedList(new ArrayList<String>());
+			this.clients = new CopyOnWriteArrayList<>();
+			this.connections = new AtomicInteger();
+			this.failingCommand = null;
+			this.silent = false;
+			Thread thread = new Thread(this, "fake-mpd");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public String getPort(){
+			return Integer.toString(server.getLocalPort());
+		}
+
+		public List<String> getExecuted(){
+			synchronized (executed) {
+				return new ArrayList<>(executed);
+			}
+		}
+
+		public int getConnections(){
+			return connections.get();
+		}
+
+		/**
+		 * Lets the specified command fail with an ACK.
+		 */
+		public void failOn(String command){
+			this.failingCommand = command;
+		}
+
+		/**
+		 * Executes the next request without replying.
+		 */
+		public void silence(){
+			this.silent = true;
+		}
+
+		/**
+		 * Closes all connections, and waits until the client can have noticed.
+		 *
+		 * @param reset TRUE to reset the connections, rather than closing them normally
+		 */
+		public void drop(boolean reset) throws Exception {
+			for(Socket client: clients){
+				if(reset){
+					client.setSoLinger(true, 0);
+				}
+				client.close();
+			}
+			clients.clear();
+			Thread.sleep(100);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(true){
+					final Socket client = server.accept();
+					connections.incrementAndGet();
+					clients.add(client);
+					Thread thread = new Thread(new Runnable() {
+
+						@Override
+						public void run() {
+							serve(client);
+						}
+					}, "fake-mpd-client");
+					thread.setDaemon(true);
+					thread.start();
+				}
+			} catch (IOException e) {}
+		}
+
+		private void serve(Socket client){
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF8));
+				Writer writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), UTF8));
+				writer.write("OK MPD 0.23.0\n");
+				writer.flush();
+
+				List<String> list = null;
+				String line;
+				while((line = reader.readLine()) != null){
+					if(line.equals("command_list_begin")){
+						list = new ArrayList<>();
+						continue;
+					}else if((list != null) && !line.equals("command_list_end")){
+						list.add(line);
+						continue;
+					}
+
+					String reply = execute((list != null) ? list : Collections.singletonList(line));
+					list = null;
+					if(reply != null){
+						writer.write(reply);
+						writer.flush();
+					}
+				}
+			} catch (IOException e) {
+
+			} finally {
+				try {
+					client.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		private String execute(List<String> commands){
+			if(commands.equals(Collections.singletonList("ping"))){
+				return "OK\n";
+			}
+			for(int i=0; i<commands.size(); i++){
+				String command = commands.get(i);
+				if(command.equals(failingCommand)){
+					return "ACK [50@" + i + "] {" + command.split(" ")[0] + "} No such file or directory\n";
+				}
+				executed.add(command);
+			}
+			if(silent){
+				silent = false;
+				return null;
+			}
+			return "OK\n";
+		}
+
+		@Override
+		public void close() {
+			try {
+				server.close();
+			} catch (IOException e) {}
+			for(Socket client: clients){
+				try {
+					client.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+}